@@ -20,9 +20,39 @@ import java.util.function.Consumer;
 
 /**
  * Manages deferral and resolution of pending breakpoints.
+ * <p>
+ * Breakpoints are added and removed on the session's JDI thread, but resolved and re-armed as events are dispatched,
+ * so every change to them is synchronized.
  */
 class BreakpointManager {
 
+    /**
+     * The property of each BreakpointRequest holding the BreakpointSpec it was created for.
+     */
+    static final String SPEC_PROPERTY = "spec";
+
+    /**
+     * The property of each BreakpointRequest holding the HitRateLimit shared by every request for its spec, if any.
+     */
+    static final String RATE_LIMIT_PROPERTY = "rateLimit";
+
+    /**
+     * The property of each BreakpointRequest holding the EveryNthHit shared by every request for its spec, if its hits
+     * are counted by the debugger rather than with a count filter.
+     */
+    static final String EVERY_NTH_PROPERTY = "everyNth";
+
+    /**
+     * The property of each BreakpointRequest with a count filter, which has to be re-armed each time it's hit.
+     */
+    private static final String COUNTED_PROPERTY = "counted";
+
+    /**
+     * The largest N for which every Nth hit is counted by the debugger rather than by a count filter; see
+     * {@link #rearm(BreakpointRequest)}.
+     */
+    static final int DEBUGGER_COUNTED_MAX_EVERY = 2;
+
     /**
      * Map from class name to specification of deferred breakpoints.
      */
@@ -70,7 +100,7 @@ class BreakpointManager {
      *
      * @param spec The specification of the breakpoint to be added.
      */
-    void addBreakpoint(BreakpointSpec spec) {
+    synchronized void addBreakpoint(BreakpointSpec spec) {
         try {
             BreakpointRequest breakpointRequest = createBreakpointRequest(spec);
             if (breakpointRequest == null) {
@@ -99,7 +129,7 @@ class BreakpointManager {
      * breakpoint
      * @param spec
      */
-    public void removeBreakpoint(BreakpointSpec spec) {
+    public synchronized void removeBreakpoint(BreakpointSpec spec) {
         // If it's been resolved...
         BreakpointRequest breakpointRequest = resolvedBreakpoints.remove(spec);
         if (breakpointRequest != null) {
@@ -119,7 +149,7 @@ class BreakpointManager {
      *
      * @param event Event describing which class should have its deferred breakpoints added.
      */
-    public void resolveDeferred(ClassPrepareEvent event) {
+    public synchronized void resolveDeferred(ClassPrepareEvent event) {
         Collection<BreakpointSpec> specs = deferredBreakpoints.removeAll(event.referenceType().name());
         if (specs != null && !specs.isEmpty()) {
             for (BreakpointSpec spec : specs) {
@@ -139,6 +169,47 @@ class BreakpointManager {
         }
     }
 
+    /**
+     * Re-arms a breakpoint whose count filter has just expired by being hit.
+     * <p>
+     * A count filter only ever lets one hit through, so it's replaced with a new request counting every Nth hit from
+     * here on, or with no count filter at all if every hit counts once the first ones have been skipped. Requests with
+     * no count filter are left alone, as are ones which have since been removed.
+     * <p>
+     * Re-arming costs two round trips (clearing the old request and setting the new one) on top of the hit itself,
+     * whereas the N - 1 hits in between never leave the target. Counting in the debugger instead would cost a round
+     * trip to resume the thread after each of those hits, so for N of at most {@link #DEBUGGER_COUNTED_MAX_EVERY}
+     * that's what's done: the request has no count filter once any hits have been skipped, and its EveryNthHit lets
+     * every Nth hit through as it arrives.
+     *
+     * @param fired The request which has just been hit.
+     */
+    synchronized void rearm(BreakpointRequest fired) {
+        BreakpointSpec spec = (BreakpointSpec) fired.getProperty(SPEC_PROPERTY);
+        if (spec == null || fired.getProperty(COUNTED_PROPERTY) == null || resolvedBreakpoints.get(spec) != fired) {
+            return;
+        }
+        Location location = fired.location();
+        int suspendPolicy = fired.suspendPolicy();
+        Object rateLimit = fired.getProperty(RATE_LIMIT_PROPERTY);
+        Object everyNth = fired.getProperty(EVERY_NTH_PROPERTY);
+        // Delete the fired request first, so that there's never a moment with two requests at the same location which
+        // could both report one hit.
+        vm.eventRequestManager().deleteEventRequest(fired);
+
+        BreakpointRequest request = vm.eventRequestManager().createBreakpointRequest(location);
+        request.setSuspendPolicy(suspendPolicy);
+        request.putProperty(SPEC_PROPERTY, spec);
+        request.putProperty(RATE_LIMIT_PROPERTY, rateLimit);
+        request.putProperty(EVERY_NTH_PROPERTY, everyNth);
+        if (spec.hitCount.every > 1 && everyNth == null) {
+            request.addCountFilter(spec.hitCount.every);
+            request.putProperty(COUNTED_PROPERTY, true);
+        }
+        request.enable();
+        resolvedBreakpoints.put(spec, request);
+    }
+
     /**
      * Sets the callback to be invoked if resolution of a breakpoint succeeds.
      * @param resolutionSuccessCallback
@@ -196,7 +267,28 @@ class BreakpointManager {
             throw new LineNotFoundException(spec.className, spec.lineNumber);
         }
         BreakpointRequest request = vm.eventRequestManager().createBreakpointRequest(location);
-        request.setSuspendPolicy(EventRequest.SUSPEND_ALL);
+        boolean countedHere = spec.hitCount.every > 1 && spec.hitCount.every <= DEBUGGER_COUNTED_MAX_EVERY;
+        // Logpoints, conditions, rate limits and hits counted here are dealt with on the event thread without stopping
+        // any others.
+        boolean suspendsAll = !spec.isLogpoint() && spec.condition == null && spec.hitCount.maxPerSecond == 0
+                && !countedHere;
+        request.setSuspendPolicy(suspendsAll ? EventRequest.SUSPEND_ALL : EventRequest.SUSPEND_EVENT_THREAD);
+        request.putProperty(SPEC_PROPERTY, spec);
+        if (countedHere) {
+            request.putProperty(EVERY_NTH_PROPERTY, new EveryNthHit(spec.hitCount.every));
+        }
+        if (countedHere && spec.hitCount.skip > 0) {
+            // Skipped hits are counted by the VirtualMachine, and the first hit after them is counted here.
+            request.addCountFilter(spec.hitCount.skip + 1);
+            request.putProperty(COUNTED_PROPERTY, true);
+        } else if (!countedHere && spec.hitCount.isCounted()) {
+            // Skipped hits are counted by the VirtualMachine, so they never reach us.
+            request.addCountFilter(spec.hitCount.skip + spec.hitCount.every);
+            request.putProperty(COUNTED_PROPERTY, true);
+        }
+        if (spec.hitCount.maxPerSecond > 0) {
+            request.putProperty(RATE_LIMIT_PROPERTY, new HitRateLimit(spec.hitCount.maxPerSecond));
+        }
         request.enable();
         return request;
     }
@@ -1,16 +1,62 @@
 package uk.ac.imperial.doc.mfldb.bridge;
 
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
 /**
  * Created by graham on 21/05/14.
+ * <p>
+ * A line has at most one breakpoint, so specs are equal if they're on the same line, whatever else they do.
  */
 public final class BreakpointSpec {
 
     public final String className;
     public final int lineNumber;
 
+    /**
+     * The names of the locals and fields a logpoint logs each time it's hit, or empty if this is a breakpoint which
+     * suspends the VirtualMachine.
+     */
+    public final List<String> logged;
+
+    /**
+     * The condition under which the breakpoint stops (or the logpoint logs), or null if it always does.
+     */
+    public final Condition condition;
+
+    /**
+     * Which hits the breakpoint stops on (or the logpoint logs), counted before its condition is checked.
+     */
+    public final HitCount hitCount;
+
     public BreakpointSpec(String className, int lineNumber) {
+        this(className, lineNumber, ImmutableList.of());
+    }
+
+    public BreakpointSpec(String className, int lineNumber, List<String> logged) {
+        this(className, lineNumber, logged, null);
+    }
+
+    public BreakpointSpec(String className, int lineNumber, List<String> logged, Condition condition) {
+        this(className, lineNumber, logged, condition, HitCount.ALWAYS);
+    }
+
+    public BreakpointSpec(String className, int lineNumber, List<String> logged, Condition condition,
+                          HitCount hitCount) {
         this.className = className;
         this.lineNumber = lineNumber;
+        this.logged = ImmutableList.copyOf(logged);
+        this.condition = condition;
+        this.hitCount = hitCount;
+    }
+
+    /**
+     * Returns whether this is a logpoint, which only suspends the thread hitting it for as long as it takes to log its
+     * values.
+     */
+    public boolean isLogpoint() {
+        return !logged.isEmpty();
     }
 
     @Override
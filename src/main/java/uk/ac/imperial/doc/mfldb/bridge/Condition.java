@@ -0,0 +1,673 @@
+package uk.ac.imperial.doc.mfldb.bridge;
+
+import com.google.common.collect.ImmutableSet;
+import com.sun.jdi.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+/**
+ * A breakpoint's condition: a Java boolean expression over the locals and fields visible where the breakpoint is.
+ * <p>
+ * The expression is parsed once into a tree, along with the names it reads, so each time the breakpoint is hit those
+ * values are all fetched at once and the tree is evaluated without parsing anything again. Expressions may use
+ * literals, names, {@code this}, field accesses (and {@code length} of arrays), parentheses and the unary, arithmetic,
+ * comparison and logical operators. Arithmetic and comparisons follow Java's binary numeric promotion, so (for
+ * instance) {@code int} arithmetic overflows just as it does in the target. Integer literals may be decimal, hex, octal
+ * or binary, with an {@code L} suffix for {@code long}s, and floating point literals may have an exponent and an
+ * {@code f} or {@code d} suffix. Unlike Java, strings compare by value with {@code ==} and {@code !=}, and boxed
+ * primitives are unboxed wherever they're used. Methods can't be called, as that would resume the target.
+ * <p>
+ * A condition which fails to evaluate is marked as failed, and isn't evaluated again: its breakpoint stops every time
+ * instead, as if it had no condition.
+ */
+public final class Condition {
+
+    private static final Set<String> BOXED_TYPES = ImmutableSet.of("java.lang.Boolean", "java.lang.Byte",
+            "java.lang.Character", "java.lang.Short", "java.lang.Integer", "java.lang.Long", "java.lang.Float",
+            "java.lang.Double");
+
+    private static final Pattern INTEGER_LITERAL = Pattern.compile("(0[xX][0-9a-fA-F]+|0[bB][01]+|\\d+)[lL]?");
+
+    private final String source;
+
+    private final Node root;
+
+    /**
+     * The names of the locals and fields the condition reads.
+     */
+    private final Set<String> names;
+
+    /**
+     * Why the condition first failed to evaluate, or null if it hasn't.
+     */
+    private final AtomicReference<String> failure = new AtomicReference<>();
+
+    private Condition(String source, Node root, Set<String> names) {
+        this.source = source;
+        this.root = root;
+        this.names = names;
+    }
+
+    /**
+     * Parses a condition.
+     *
+     * @param source The Java boolean expression.
+     * @throws ConditionException If the expression isn't one this class can evaluate.
+     */
+    public static Condition parse(String source) throws ConditionException {
+        Parser parser = new Parser(source);
+        Node root = parser.parseExpression();
+        parser.expect(Token.Kind.END);
+        return new Condition(source, root, ImmutableSet.copyOf(parser.names));
+    }
+
+    /**
+     * Returns the names of the locals and fields the condition reads, which are fetched before it's evaluated.
+     */
+    public Set<String> getNames() {
+        return names;
+    }
+
+    /**
+     * Evaluates the condition in a stack frame.
+     *
+     * @param frame      The frame, whose thread must be suspended.
+     * @param valueCache The session's cache of immutable values, used to look up strings.
+     * @return Whether the condition holds.
+     * @throws ConditionException If the condition reads a name which isn't in scope, or isn't well typed.
+     */
+    boolean evaluate(StackFrame frame, ImmutableValueCache valueCache) throws ConditionException {
+        Map<String, Value> values = names.isEmpty() ? Collections.emptyMap() : FrameValues.fetch(frame, names);
+        Object result = root.evaluate(new Context(values, valueCache));
+        if (!(result instanceof Boolean)) {
+            throw new ConditionException("Not a boolean: " + source);
+        }
+        return (Boolean) result;
+    }
+
+    /**
+     * Returns why the condition failed to evaluate, or null if it hasn't.
+     */
+    public String getFailure() {
+        return failure.get();
+    }
+
+    /**
+     * Marks the condition as failed, so that it isn't evaluated again.
+     *
+     * @return Whether this is the first time it's failed, and so should be reported.
+     */
+    boolean markFailed(String why) {
+        return failure.compareAndSet(null, why);
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    /**
+     * A node of the parsed expression. Values are evaluated to Booleans, Integers (for ints, and the shorts, bytes and
+     * chars which Java promotes to ints whenever they're used), Longs, Floats, Doubles, Strings, ObjectReferences or
+     * null.
+     */
+    private interface Node {
+        Object evaluate(Context context) throws ConditionException;
+    }
+
+    private static final class Context {
+        final Map<String, Value> values;
+        final ImmutableValueCache valueCache;
+
+        Context(Map<String, Value> values, ImmutableValueCache valueCache) {
+            this.values = values;
+            this.valueCache = valueCache;
+        }
+
+        Object lookup(String name) throws ConditionException {
+            if (!values.containsKey(name)) {
+                throw new ConditionException(name + " is not in scope");
+            }
+            return convert(values.get(name));
+        }
+
+        Object convert(Value value) {
+            if (value == null) {
+                return null;
+            } else if (value instanceof BooleanValue) {
+                return ((BooleanValue) value).value();
+            } else if (value instanceof DoubleValue) {
+                return ((DoubleValue) value).value();
+            } else if (value instanceof FloatValue) {
+                return ((FloatValue) value).value();
+            } else if (value instanceof LongValue) {
+                return ((LongValue) value).value();
+            } else if (value instanceof IntegerValue) {
+                return ((IntegerValue) value).value();
+            } else if (value instanceof ShortValue) {
+                return (int) ((ShortValue) value).value();
+            } else if (value instanceof ByteValue) {
+                return (int) ((ByteValue) value).value();
+            } else if (value instanceof CharValue) {
+                return (int) ((CharValue) value).value();
+            } else if (value instanceof StringReference) {
+                StringReference string = (StringReference) value;
+                String cached = valueCache.getIfPresent(string);
+                return cached != null ? cached : string.value();
+            }
+            ObjectReference reference = (ObjectReference) value;
+            ReferenceType type = reference.referenceType();
+            if (BOXED_TYPES.contains(type.name())) {
+                return convert(reference.getValue(type.fieldByName("value")));
+            }
+            return reference;
+        }
+    }
+
+    private static final class Token {
+        enum Kind {IDENTIFIER, INTEGER, FLOATING, STRING, OPERATOR, END}
+
+        final Kind kind;
+        final String text;
+        final Object value;
+        final int position;
+
+        Token(Kind kind, String text, Object value, int position) {
+            this.kind = kind;
+            this.text = text;
+            this.value = value;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Parses an expression by recursive descent, with one method per level of Java's operator precedence.
+     */
+    private static final class Parser {
+
+        private static final List<String> OPERATORS = Arrays.asList("||", "&&", "==", "!=", "<=", ">=", "<", ">",
+                "!", "+", "-", "*", "/", "%", "(", ")", ".");
+
+        private final String source;
+        private final Set<String> names = new LinkedHashSet<>();
+        private int position = 0;
+        private Token token;
+
+        Parser(String source) throws ConditionException {
+            this.source = source;
+            advance();
+        }
+
+        Node parseExpression() throws ConditionException {
+            return parseOr();
+        }
+
+        void expect(Token.Kind kind) throws ConditionException {
+            if (token.kind != kind) {
+                throw error("Unexpected " + describe(token));
+            }
+        }
+
+        private Node parseOr() throws ConditionException {
+            Node left = parseAnd();
+            while (accept("||")) {
+                Node l = left, right = parseAnd();
+                left = c -> asBoolean(l.evaluate(c)) || asBoolean(right.evaluate(c));
+            }
+            return left;
+        }
+
+        private Node parseAnd() throws ConditionException {
+            Node left = parseEquality();
+            while (accept("&&")) {
+                Node l = left, right = parseEquality();
+                left = c -> asBoolean(l.evaluate(c)) && asBoolean(right.evaluate(c));
+            }
+            return left;
+        }
+
+        private Node parseEquality() throws ConditionException {
+            Node left = parseRelational();
+            while (true) {
+                Node l = left;
+                if (accept("==")) {
+                    Node right = parseRelational();
+                    left = c -> same(l.evaluate(c), right.evaluate(c));
+                } else if (accept("!=")) {
+                    Node right = parseRelational();
+                    left = c -> !same(l.evaluate(c), right.evaluate(c));
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private Node parseRelational() throws ConditionException {
+            Node left = parseAdditive();
+            while (token.kind == Token.Kind.OPERATOR && Arrays.asList("<", "<=", ">", ">=").contains(token.text)) {
+                String operator = token.text;
+                advance();
+                Node l = left, right = parseAdditive();
+                left = c -> compare(l.evaluate(c), right.evaluate(c), operator);
+            }
+            return left;
+        }
+
+        private Node parseAdditive() throws ConditionException {
+            Node left = parseMultiplicative();
+            while (token.kind == Token.Kind.OPERATOR && (token.text.equals("+") || token.text.equals("-"))) {
+                String operator = token.text;
+                advance();
+                Node l = left, right = parseMultiplicative();
+                left = c -> arithmetic(l.evaluate(c), right.evaluate(c), operator);
+            }
+            return left;
+        }
+
+        private Node parseMultiplicative() throws ConditionException {
+            Node left = parseUnary();
+            while (token.kind == Token.Kind.OPERATOR && Arrays.asList("*", "/", "%").contains(token.text)) {
+                String operator = token.text;
+                advance();
+                Node l = left, right = parseUnary();
+                left = c -> arithmetic(l.evaluate(c), right.evaluate(c), operator);
+            }
+            return left;
+        }
+
+        private Node parseUnary() throws ConditionException {
+            if (accept("!")) {
+                Node operand = parseUnary();
+                return c -> !asBoolean(operand.evaluate(c));
+            } else if (accept("-")) {
+                if (token.kind == Token.Kind.INTEGER && token.text != null) {
+                    // Negated as part of the literal, as -2147483648 is an int even though 2147483648 isn't.
+                    Token literal = token;
+                    advance();
+                    Object value = integerLiteral(literal.text, true, literal.position);
+                    return c -> value;
+                }
+                Node operand = parseUnary();
+                return c -> negate(operand.evaluate(c));
+            }
+            return parsePostfix();
+        }
+
+        private Node parsePostfix() throws ConditionException {
+            Node node = parsePrimary();
+            while (accept(".")) {
+                expect(Token.Kind.IDENTIFIER);
+                String field = token.text;
+                advance();
+                Node target = node;
+                node = c -> fieldOf(target.evaluate(c), field, c);
+            }
+            return node;
+        }
+
+        private Node parsePrimary() throws ConditionException {
+            Token primary = token;
+            switch (primary.kind) {
+                case INTEGER:
+                    advance();
+                    if (primary.text == null) {
+                        // A character literal.
+                        return c -> primary.value;
+                    }
+                    Object value = integerLiteral(primary.text, false, primary.position);
+                    return c -> value;
+                case FLOATING:
+                case STRING:
+                    advance();
+                    return c -> primary.value;
+                case IDENTIFIER:
+                    advance();
+                    switch (primary.text) {
+                        case "true":
+                            return c -> true;
+                        case "false":
+                            return c -> false;
+                        case "null":
+                            return c -> null;
+                        default:
+                            names.add(primary.text);
+                            return c -> c.lookup(primary.text);
+                    }
+                default:
+                    if (accept("(")) {
+                        Node inner = parseExpression();
+                        if (!accept(")")) {
+                            throw error("Expected )");
+                        }
+                        return inner;
+                    }
+                    throw error("Unexpected " + describe(primary));
+            }
+        }
+
+        private boolean accept(String operator) throws ConditionException {
+            if (token.kind == Token.Kind.OPERATOR && token.text.equals(operator)) {
+                advance();
+                return true;
+            }
+            return false;
+        }
+
+        private void advance() throws ConditionException {
+            while (position < source.length() && Character.isWhitespace(source.charAt(position))) {
+                position++;
+            }
+            int start = position;
+            if (position == source.length()) {
+                token = new Token(Token.Kind.END, "", null, start);
+                return;
+            }
+            char c = source.charAt(position);
+            if (Character.isJavaIdentifierStart(c)) {
+                while (position < source.length() && Character.isJavaIdentifierPart(source.charAt(position))) {
+                    position++;
+                }
+                token = new Token(Token.Kind.IDENTIFIER, source.substring(start, position), null, start);
+            } else if (Character.isDigit(c)) {
+                token = number(start);
+            } else if (c == '"') {
+                token = new Token(Token.Kind.STRING, null, quoted('"'), start);
+            } else if (c == '\'') {
+                String character = quoted('\'');
+                if (character.length() != 1) {
+                    throw error("Bad character literal");
+                }
+                token = new Token(Token.Kind.INTEGER, null, (int) character.charAt(0), start);
+            } else {
+                for (String operator : OPERATORS) {
+                    if (source.startsWith(operator, position)) {
+                        position += operator.length();
+                        token = new Token(Token.Kind.OPERATOR, operator, null, start);
+                        return;
+                    }
+                }
+                throw error("Unexpected " + c);
+            }
+        }
+
+        /**
+         * Reads a numeric literal. Integer literals are only checked to be in range once it's known whether they're
+         * negated.
+         */
+        private Token number(int start) throws ConditionException {
+            boolean hex = source.regionMatches(true, start, "0x", 0, 2);
+            position++;
+            while (position < source.length()) {
+                char c = source.charAt(position);
+                char previous = Character.toLowerCase(source.charAt(position - 1));
+                if (Character.isLetterOrDigit(c) || c == '.' || c == '_'
+                        || (c == '+' || c == '-') && previous == (hex ? 'p' : 'e')) {
+                    position++;
+                } else {
+                    break;
+                }
+            }
+            String text = source.substring(start, position).replace("_", "");
+            if (INTEGER_LITERAL.matcher(text).matches()) {
+                return new Token(Token.Kind.INTEGER, text, null, start);
+            }
+            try {
+                String lower = text.toLowerCase();
+                if (lower.endsWith("f") && !hex) {
+                    return new Token(Token.Kind.FLOATING, text, Float.parseFloat(text), start);
+                }
+                return new Token(Token.Kind.FLOATING, text, Double.parseDouble(text), start);
+            } catch (NumberFormatException e) {
+                throw error("Bad number " + text);
+            }
+        }
+
+        /**
+         * Works out the value of an integer literal, as an Integer or (with an L suffix) a Long, rejecting it if it's
+         * out of range as Java would.
+         */
+        private Object integerLiteral(String text, boolean negated, int at) throws ConditionException {
+            String digits = text.toLowerCase();
+            boolean isLong = digits.endsWith("l");
+            if (isLong) {
+                digits = digits.substring(0, digits.length() - 1);
+            }
+            int radix = 10;
+            if (digits.startsWith("0x") || digits.startsWith("0b")) {
+                radix = digits.charAt(1) == 'x' ? 16 : 2;
+                digits = digits.substring(2);
+            } else if (digits.length() > 1 && digits.startsWith("0")) {
+                radix = 8;
+                digits = digits.substring(1);
+            }
+            try {
+                if (radix == 10) {
+                    // Decimal literals are signed, so only -2147483648 (or the long equivalent) gets past the edge.
+                    long value = Long.parseLong(negated ? "-" + digits : digits);
+                    if (!isLong && value != (int) value) {
+                        throw new NumberFormatException();
+                    }
+                    return isLong ? (Object) value : (Object) (int) value;
+                }
+                // Hex, octal and binary literals may set the sign bit.
+                long value = Long.parseUnsignedLong(digits, radix);
+                if (!isLong && (value >>> 32) != 0) {
+                    throw new NumberFormatException();
+                }
+                return isLong ? (Object) (negated ? -value : value) : (Object) (negated ? -(int) value : (int) value);
+            } catch (NumberFormatException e) {
+                throw new ConditionException(String.format("Bad number %s at %d in: %s", text, at, source));
+            }
+        }
+
+        private String quoted(char quote) throws ConditionException {
+            StringBuilder builder = new StringBuilder();
+            position++;
+            while (position < source.length() && source.charAt(position) != quote) {
+                char c = source.charAt(position++);
+                if (c == '\\' && position < source.length()) {
+                    char escaped = source.charAt(position++);
+                    switch (escaped) {
+                        case 'n':
+                            builder.append('\n');
+                            break;
+                        case 't':
+                            builder.append('\t');
+                            break;
+                        case 'r':
+                            builder.append('\r');
+                            break;
+                        default:
+                            builder.append(escaped);
+                    }
+                } else {
+                    builder.append(c);
+                }
+            }
+            if (position == source.length()) {
+                throw error("Unterminated literal");
+            }
+            position++;
+            return builder.toString();
+        }
+
+        private ConditionException error(String message) {
+            return new ConditionException(String.format("%s at %d in: %s", message, token == null ? position :
+                    token.position, source));
+        }
+
+        private static String describe(Token token) {
+            return token.kind == Token.Kind.END ? "end of condition" : token.text != null ? token.text :
+                    String.valueOf(token.value);
+        }
+    }
+
+    /**
+     * The type both operands of a binary numeric operator are promoted to, as in Java.
+     */
+    private enum Promoted {INT, LONG, FLOAT, DOUBLE}
+
+    private static Promoted promote(Object left, Object right) {
+        if (left instanceof Double || right instanceof Double) {
+            return Promoted.DOUBLE;
+        } else if (left instanceof Float || right instanceof Float) {
+            return Promoted.FLOAT;
+        } else if (left instanceof Long || right instanceof Long) {
+            return Promoted.LONG;
+        }
+        return Promoted.INT;
+    }
+
+    private static boolean asBoolean(Object value) throws ConditionException {
+        if (!(value instanceof Boolean)) {
+            throw new ConditionException("Not a boolean: " + value);
+        }
+        return (Boolean) value;
+    }
+
+    private static boolean same(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) {
+            Number l = (Number) left, r = (Number) right;
+            switch (promote(left, right)) {
+                case DOUBLE:
+                    return l.doubleValue() == r.doubleValue();
+                case FLOAT:
+                    return l.floatValue() == r.floatValue();
+                default:
+                    return l.longValue() == r.longValue();
+            }
+        }
+        return Objects.equals(left, right);
+    }
+
+    /**
+     * Compares two numbers as Java would, so that NaN is neither less than, equal to nor greater than anything.
+     *
+     * @return Whether the comparison holds.
+     */
+    private static boolean compare(Object left, Object right, String operator) throws ConditionException {
+        if (!(left instanceof Number && right instanceof Number)) {
+            throw new ConditionException(String.format("Can't compare %s %s %s", left, operator, right));
+        }
+        Number l = (Number) left, r = (Number) right;
+        switch (promote(left, right)) {
+            case DOUBLE:
+                return compare(l.doubleValue(), r.doubleValue(), operator);
+            case FLOAT:
+                return compare(l.floatValue(), r.floatValue(), operator);
+            default:
+                return compare(Long.compare(l.longValue(), r.longValue()), 0, operator);
+        }
+    }
+
+    private static boolean compare(double l, double r, String operator) {
+        switch (operator) {
+            case "<":
+                return l < r;
+            case "<=":
+                return l <= r;
+            case ">":
+                return l > r;
+            default:
+                return l >= r;
+        }
+    }
+
+    private static Object negate(Object operand) throws ConditionException {
+        if (operand instanceof Double) {
+            return -(Double) operand;
+        } else if (operand instanceof Float) {
+            return -(Float) operand;
+        } else if (operand instanceof Long) {
+            return -(Long) operand;
+        } else if (operand instanceof Integer) {
+            return -(Integer) operand;
+        }
+        throw new ConditionException("Can't negate " + operand);
+    }
+
+    private static Object arithmetic(Object left, Object right, String operator) throws ConditionException {
+        if (operator.equals("+") && (left instanceof String || right instanceof String)) {
+            return String.valueOf(left) + right;
+        }
+        if (!(left instanceof Number && right instanceof Number)) {
+            throw new ConditionException(String.format("Can't evaluate %s %s %s", left, operator, right));
+        }
+        Promoted promoted = promote(left, right);
+        if (promoted == Promoted.DOUBLE) {
+            double l = ((Number) left).doubleValue(), r = ((Number) right).doubleValue();
+            switch (operator) {
+                case "+":
+                    return l + r;
+                case "-":
+                    return l - r;
+                case "*":
+                    return l * r;
+                case "/":
+                    return l / r;
+                default:
+                    return l % r;
+            }
+        } else if (promoted == Promoted.FLOAT) {
+            float l = ((Number) left).floatValue(), r = ((Number) right).floatValue();
+            switch (operator) {
+                case "+":
+                    return l + r;
+                case "-":
+                    return l - r;
+                case "*":
+                    return l * r;
+                case "/":
+                    return l / r;
+                default:
+                    return l % r;
+            }
+        } else if (promoted == Promoted.LONG) {
+            long l = ((Number) left).longValue(), r = ((Number) right).longValue();
+            switch (operator) {
+                case "+":
+                    return l + r;
+                case "-":
+                    return l - r;
+                case "*":
+                    return l * r;
+                default:
+                    if (r == 0) {
+                        throw new ConditionException("Division by zero");
+                    }
+                    return operator.equals("/") ? l / r : l % r;
+            }
+        }
+        int l = ((Number) left).intValue(), r = ((Number) right).intValue();
+        switch (operator) {
+            case "+":
+                return l + r;
+            case "-":
+                return l - r;
+            case "*":
+                return l * r;
+            default:
+                if (r == 0) {
+                    throw new ConditionException("Division by zero");
+                }
+                return operator.equals("/") ? l / r : l % r;
+        }
+    }
+
+    private static Object fieldOf(Object target, String field, Context context) throws ConditionException {
+        if (target instanceof ArrayReference && field.equals("length")) {
+            return ((ArrayReference) target).length();
+        } else if (!(target instanceof ObjectReference)) {
+            throw new ConditionException(String.format("Can't read %s of %s", field, target));
+        }
+        ObjectReference reference = (ObjectReference) target;
+        Field resolved = reference.referenceType().fieldByName(field);
+        if (resolved == null) {
+            throw new ConditionException(String.format("%s has no field %s", reference.referenceType().name(), field));
+        }
+        return context.convert(resolved.isStatic() ? resolved.declaringType().getValue(resolved) :
+                reference.getValue(resolved));
+    }
+}
@@ -0,0 +1,11 @@
+package uk.ac.imperial.doc.mfldb.bridge;
+
+/**
+ * Thrown when a breakpoint's condition can't be parsed, or can't be evaluated when the breakpoint is hit.
+ */
+public class ConditionException extends Exception {
+
+    public ConditionException(String message) {
+        super(message);
+    }
+}
@@ -1,24 +1,26 @@
 package uk.ac.imperial.doc.mfldb.bridge;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.hypirion.io.Pipe;
 import com.hypirion.io.RevivableInputStream;
-import com.sun.jdi.Bootstrap;
-import com.sun.jdi.ThreadReference;
-import com.sun.jdi.VirtualMachine;
+import com.sun.jdi.*;
+import com.sun.jdi.connect.AttachingConnector;
 import com.sun.jdi.connect.Connector;
 import com.sun.jdi.connect.IllegalConnectorArgumentsException;
 import com.sun.jdi.connect.LaunchingConnector;
 import com.sun.jdi.connect.VMStartException;
 import com.sun.jdi.event.*;
+import com.sun.jdi.request.BreakpointRequest;
+import com.sun.jdi.request.ClassUnloadRequest;
 import com.sun.jdi.request.EventRequest;
 import com.sun.jdi.request.EventRequestManager;
 import com.sun.jdi.request.StepRequest;
-import javafx.application.Platform;
 import javafx.beans.property.ReadOnlyObjectProperty;
 import javafx.beans.property.ReadOnlyObjectWrapper;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.*;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
@@ -34,6 +36,11 @@ public class DebugSession {
     // amount of technical debt ever...
     private static final RevivableInputStream inZombie = new RevivableInputStream(System.in);
 
+    /**
+     * How long the JDI thread outlives the last piece of work submitted to it, so that idle sessions hold no threads.
+     */
+    private static final long JDI_WORKER_KEEP_ALIVE_SECONDS = 10;
+
     private final ReadOnlyObjectWrapper<State> state = new ReadOnlyObjectWrapper<>(this, "state", State.READY);
 
     /**
@@ -41,139 +48,368 @@ public class DebugSession {
      */
     private final VirtualMachine vm;
 
+    /**
+     * Whether the VirtualMachine was already running when the session attached to it, in which case the session
+     * detaches from it at the end rather than killing it.
+     */
+    private final boolean attached;
+
     private final ThreadManager threadManager;
 
     private final BreakpointManager breakpointManager;
 
+    private final ReferenceTypeCache referenceTypeCache = new ReferenceTypeCache();
+
+    private final ImmutableValueCache immutableValueCache = new ImmutableValueCache();
+
+    /**
+     * Applies the state changes and breakpoint resolutions seen by the event thread on the FX thread, in batches.
+     */
+    private final UiDispatcher uiDispatcher = new UiDispatcher();
+
+    /**
+     * The thread all requests to the VirtualMachine made on behalf of the UI are made from, so that the FX thread never
+     * waits on a JDWP round trip.
+     */
+    private final ThreadPoolExecutor jdiExecutor = new ThreadPoolExecutor(1, 1,
+            JDI_WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder().setNameFormat("JDI Worker").setDaemon(true).build());
+
     private Pipe inPipe;
     private Pipe errPipe;
     private Pipe outPipe;
 
     /**
-     * Thread reading EventQueue from the remote vm and dispatching events
+     * The EventSet being dispatched, only ever touched while dispatching it.
      */
-    private EventThread eventThread = null;
+    private EventSet eventSet;
 
-    public DebugSession(String cmd) throws DebugSessionException {
-        LaunchingConnector connector = Bootstrap.virtualMachineManager().defaultConnector();
-        Map<String, Connector.Argument> arguments = connectorArguments(connector, cmd);
-        try {
-            vm = connector.launch(arguments);
-        } catch (IOException | IllegalConnectorArgumentsException | VMStartException e) {
-            throw new DebugSessionException(e);
-        }
+    private volatile Consumer<LogpointHit> logpointHitCallback;
+
+    private volatile BiConsumer<BreakpointSpec, ConditionException> conditionFailureCallback;
+
+    /**
+     * Reads the EventQueue from the remote vm and dispatches its events, on the threads of an EventDispatchPool
+     */
+    private final EventThread eventThread;
+
+    private DebugSession(VirtualMachine vm, boolean attached, EventDispatchPool dispatchPool) {
+        jdiExecutor.allowCoreThreadTimeOut(true);
+        this.vm = vm;
+        this.attached = attached;
         vm.setDebugTraceMode(VirtualMachine.TRACE_NONE);
         threadManager = new ThreadManager(vm);
         breakpointManager = new BreakpointManager(vm);
-        redirectOutput();
-        startEventThread();
-
+        watchClassUnloads();
+        if (!attached) {
+            // An attached VirtualMachine's output goes wherever it already went.
+            redirectOutput();
+        }
+        eventThread = new EventThread(vm);
         eventThread.setCallbacks(new EventThread.Callbacks() {
             @Override
             public void eventSet(EventSet events) {
+                eventSet = events;
                 threadManager.updateCurrentThread(events);
             }
 
             @Override
             public void vmStartEvent(VMStartEvent event) {
-                Platform.runLater(() -> state.set(State.RUNNING));
+                setStateLater(State.RUNNING);
             }
 
             @Override
             public void classPrepareEvent(ClassPrepareEvent event) {
                 breakpointManager.resolveDeferred(event);
+                referenceTypeCache.prepare(event.referenceType());
+            }
+
+            @Override
+            public void classUnloadEvent(ClassUnloadEvent event) {
+                referenceTypeCache.unload(event.className());
             }
 
             @Override
             public void breakpointEvent(BreakpointEvent event) {
-                if (event.request().suspendPolicy() == EventRequest.SUSPEND_ALL) {
-                    Platform.runLater(() -> state.set(State.SUSPENDED));
+                BreakpointRequest request = (BreakpointRequest) event.request();
+                BreakpointSpec spec = (BreakpointSpec) request.getProperty(BreakpointManager.SPEC_PROPERTY);
+                ThreadReference thread = event.thread();
+                // The VirtualMachine counts hits towards the next one even if this one ends up being ignored.
+                breakpointManager.rearm(request);
+                EveryNthHit everyNth = (EveryNthHit) request.getProperty(BreakpointManager.EVERY_NTH_PROPERTY);
+                HitRateLimit rateLimit = (HitRateLimit) request.getProperty(BreakpointManager.RATE_LIMIT_PROPERTY);
+                if (everyNth != null && !everyNth.tryAcquire()) {
+                    // Hits in between the Nth ones which weren't filtered out by the VirtualMachine.
+                    resumeEventThread();
+                } else if (rateLimit != null && !rateLimit.tryAcquire(System.nanoTime())) {
+                    // Hits over the limit are dropped as cheaply as rejected ones.
+                    resumeEventThread();
+                } else if (spec != null && spec.condition != null && !conditionHolds(spec, thread)) {
+                    // Rejected hits carry on straight away, without the UI ever hearing of them.
+                    resumeEventThread();
+                } else if (spec != null && spec.isLogpoint()) {
+                    log(spec, thread);
+                } else if (request.suspendPolicy() == EventRequest.SUSPEND_EVENT_THREAD) {
+                    // A conditional or rate limited breakpoint which stops, so stop everything else as well, as if it had
+                    // suspended the whole VirtualMachine in the first place.
+                    vm.suspend();
+                    eventSet.resume();
+                    threadManager.setCurrentThread(thread);
+                    setStateLater(State.SUSPENDED);
+                } else if (request.suspendPolicy() == EventRequest.SUSPEND_ALL) {
+                    setStateLater(State.SUSPENDED);
                 }
             }
 
             @Override
             public void stepEvent(StepEvent event) {
-                Platform.runLater(() -> state.set(State.SUSPENDED));
+                setStateLater(State.SUSPENDED);
             }
 
             @Override
             public void vmDeathEvent(VMDeathEvent event) {
-                Platform.runLater(() -> state.set(State.TERMINATED));
+                setStateLater(State.TERMINATED);
             }
 
             @Override
             public void vmDisconnectEvent(VMDisconnectEvent event) {
-                Platform.runLater(() -> state.set(State.TERMINATED));
+                setStateLater(State.TERMINATED);
             }
         });
+        dispatchPool.start(eventThread);
+    }
+
+    /**
+     * Launches a new VirtualMachine to debug, with its output redirected to ours.
+     *
+     * @param cmd          The main class and arguments.
+     * @param options      The VirtualMachine's options, such as its class path.
+     * @param dispatchPool The pool to dispatch the VirtualMachine's events on.
+     */
+    static DebugSession launch(String cmd, String options, EventDispatchPool dispatchPool)
+            throws DebugSessionException {
+        LaunchingConnector connector = Bootstrap.virtualMachineManager().defaultConnector();
+        Map<String, Connector.Argument> arguments = connector.defaultArguments();
+        setArgument(arguments, "main", cmd);
+        setArgument(arguments, "options", options);
+        try {
+            return new DebugSession(connector.launch(arguments), false, dispatchPool);
+        } catch (IOException | IllegalConnectorArgumentsException | VMStartException e) {
+            throw new DebugSessionException(e);
+        }
+    }
+
+    /**
+     * Attaches to a running VirtualMachine listening for a debugger on a socket, such as one started with
+     * {@code -agentlib:jdwp=transport=dt_socket,server=y,suspend=n,address=<port>}.
+     */
+    static DebugSession attach(String host, int port, EventDispatchPool dispatchPool) throws DebugSessionException {
+        AttachingConnector connector = attachingConnector("com.sun.jdi.SocketAttach");
+        Map<String, Connector.Argument> arguments = connector.defaultArguments();
+        setArgument(arguments, "hostname", host);
+        setArgument(arguments, "port", Integer.toString(port));
+        return attach(connector, arguments, dispatchPool);
+    }
+
+    /**
+     * Attaches to a running VirtualMachine on this machine by its process id. The VirtualMachine must have been
+     * started with the jdwp agent listening for a debugger.
+     */
+    static DebugSession attachToProcess(int pid, EventDispatchPool dispatchPool) throws DebugSessionException {
+        AttachingConnector connector = attachingConnector("com.sun.jdi.ProcessAttach");
+        Map<String, Connector.Argument> arguments = connector.defaultArguments();
+        setArgument(arguments, "pid", Integer.toString(pid));
+        return attach(connector, arguments, dispatchPool);
+    }
+
+    private static DebugSession attach(AttachingConnector connector, Map<String, Connector.Argument> arguments,
+                                       EventDispatchPool dispatchPool) throws DebugSessionException {
+        try {
+            return new DebugSession(connector.attach(arguments), true, dispatchPool);
+        } catch (IOException | IllegalConnectorArgumentsException e) {
+            throw new DebugSessionException(e);
+        }
+    }
+
+    private static AttachingConnector attachingConnector(String name) throws DebugSessionException {
+        return Bootstrap.virtualMachineManager().attachingConnectors().stream()
+                .filter(c -> c.name().equals(name))
+                .findFirst()
+                .orElseThrow(() -> new DebugSessionException("No " + name + " connector"));
+    }
+
+    private static void setArgument(Map<String, Connector.Argument> arguments, String name, String value)
+            throws DebugSessionException {
+        Connector.Argument argument = arguments.get(name);
+        if (argument == null) {
+            throw new DebugSessionException("Connector has no " + name + " argument");
+        }
+        argument.setValue(value);
     }
 
     public void addBreakpoint(BreakpointSpec spec) {
-        breakpointManager.addBreakpoint(spec);
+        execute(() -> breakpointManager.addBreakpoint(spec));
     }
 
     public void removeBreakpoint(BreakpointSpec spec) {
-        breakpointManager.removeBreakpoint(spec);
+        execute(() -> breakpointManager.removeBreakpoint(spec));
+    }
+
+    /**
+     * Runs work against the VirtualMachine on the session's JDI thread, one piece of work at a time in the order
+     * submitted.
+     * <p>
+     * Cancelling the returned future interrupts the work if it has already started, or stops it from starting.
+     *
+     * @param work The work, which may make any number of JDWP round trips.
+     * @return A future completed with the result of the work, on the JDI thread.
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> work) {
+        JdiFuture<T> future = new JdiFuture<>();
+        try {
+            future.task = jdiExecutor.submit(() -> {
+                if (future.isDone()) {
+                    // Cancelled before it started.
+                    return;
+                }
+                try {
+                    future.complete(work.call());
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The session has ended.
+            future.cancel(false);
+        }
+        return future;
+    }
+
+    /**
+     * Finds where in the source code a suspended thread is.
+     *
+     * @param thread The suspended thread.
+     * @return A future completed with the location of the thread's innermost frame.
+     */
+    public CompletableFuture<SourceLocation> locationOf(ThreadReference thread) {
+        return submit(() -> {
+            Location location = thread.frame(0).location();
+            return new SourceLocation(location.declaringType().name(), location.lineNumber());
+        });
     }
 
     public void setBreakpointResolutionSuccessCallback(Consumer<BreakpointSpec> breakpointResolutionSuccessCallback) {
         breakpointManager.setResolutionSuccessCallback(breakpointResolutionSuccessCallback == null ? null :
-                spec -> Platform.runLater(() -> breakpointResolutionSuccessCallback.accept(spec)));
+                spec -> uiDispatcher.post(spec, () -> breakpointResolutionSuccessCallback.accept(spec)));
     }
 
     public void setBreakpointResolutionFailureCallback(BiConsumer<BreakpointSpec, Exception> breakpointResolutionFailureCallback) {
         breakpointManager.setResolutionFailureCallback(breakpointResolutionFailureCallback == null ? null :
-                (spec, e) -> Platform.runLater(() -> breakpointResolutionFailureCallback.accept(spec, e)));
+                (spec, e) -> uiDispatcher.post(spec, () -> breakpointResolutionFailureCallback.accept(spec, e)));
     }
 
+    /**
+     * Sets the callback to be invoked the first time a breakpoint's condition fails to evaluate, after which the
+     * breakpoint stops every time.
+     */
+    public void setConditionFailureCallback(
+            BiConsumer<BreakpointSpec, ConditionException> conditionFailureCallback) {
+        this.conditionFailureCallback = conditionFailureCallback;
+    }
+
+    /**
+     * Sets the callback to be invoked each time a logpoint is hit. Logpoints can be hit thousands of times a second, so
+     * unlike the other callbacks it's invoked straight from the event dispatch thread, and must be quick and thread
+     * safe.
+     */
+    public void setLogpointHitCallback(Consumer<LogpointHit> logpointHitCallback) {
+        this.logpointHitCallback = logpointHitCallback;
+    }
+
+    /**
+     * Ends the session, killing a launched VirtualMachine or detaching from an attached one. Detaching cancels the
+     * session's breakpoints and steps, resumes any threads it suspended and releases any objects it kept from being
+     * collected, leaving the VirtualMachine running as it was.
+     */
     public void ensureEnded() {
-        if (getState() != State.TERMINATED) {
-            vm.exit(0);
-        }
-        try {
-            vm.process().waitFor();
-            eventThread.join();
-            inZombie.kill();
-            inPipe.stop();
-            outPipe.stop();
-            errPipe.stop();
-        } catch (InterruptedException e) {
-            // Ignore
+        jdiExecutor.shutdownNow();
+        if (attached) {
+            if (getState() != State.TERMINATED) {
+                try {
+                    vm.dispose();
+                } catch (VMDisconnectedException e) {
+                    // Already gone.
+                }
+            }
+            try {
+                eventThread.join();
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+        } else {
+            if (getState() != State.TERMINATED) {
+                vm.exit(0);
+            }
+            try {
+                vm.process().waitFor();
+                eventThread.join();
+                inZombie.kill();
+                inPipe.stop();
+                outPipe.stop();
+                errPipe.stop();
+            } catch (InterruptedException e) {
+                // Ignore
+            }
         }
+        referenceTypeCache.clear();
+        immutableValueCache.clear();
     }
 
     public void pause() {
-        vm.suspend();
+        execute(vm::suspend);
         state.set(State.SUSPENDED);
     }
 
     public void resume() {
-        vm.resume();
+        execute(vm::resume);
         state.set(State.RUNNING);
     }
 
     public void stepOver(ThreadReference thread) {
-        clearPreviousStepRequest(thread);
-        StepRequest request = vm.eventRequestManager().createStepRequest(thread, StepRequest.STEP_LINE, StepRequest.STEP_OVER);
-        request.addCountFilter(1);
-        request.enable();
-        resume();
+        step(thread, StepRequest.STEP_OVER);
     }
 
     public void stepInto(ThreadReference thread) {
-        clearPreviousStepRequest(thread);
-        StepRequest request = vm.eventRequestManager().createStepRequest(thread, StepRequest.STEP_LINE, StepRequest.STEP_INTO);
-        request.addCountFilter(1);
-        request.enable();
-        resume();
+        step(thread, StepRequest.STEP_INTO);
     }
 
     public void stepOut(ThreadReference thread) {
-        clearPreviousStepRequest(thread);
-        StepRequest request = vm.eventRequestManager().createStepRequest(thread, StepRequest.STEP_LINE, StepRequest.STEP_OUT);
-        request.addCountFilter(1);
-        request.enable();
-        resume();
+        step(thread, StepRequest.STEP_OUT);
+    }
+
+    private void step(ThreadReference thread, int depth) {
+        execute(() -> {
+            clearPreviousStepRequest(thread);
+            StepRequest request = vm.eventRequestManager().createStepRequest(thread, StepRequest.STEP_LINE, depth);
+            request.addCountFilter(1);
+            request.enable();
+            vm.resume();
+        });
+        state.set(State.RUNNING);
+    }
+
+    /**
+     * Runs a request to the VirtualMachine on the session's JDI thread, without waiting for it.
+     */
+    private void execute(Runnable request) {
+        submit(() -> {
+            request.run();
+            return null;
+        }).whenComplete((result, e) -> {
+            if (e != null && !(e instanceof CancellationException || e instanceof VMDisconnectedException)) {
+                e.printStackTrace();
+            }
+        });
     }
 
     public State getState() {
@@ -188,29 +424,58 @@ public class DebugSession {
         return threadManager.getCurrentThread();
     }
 
+    /**
+     * Returns the cache of ReferenceType metadata for this session's VirtualMachine.
+     */
+    public ReferenceTypeCache getReferenceTypeCache() {
+        return referenceTypeCache;
+    }
+
+    /**
+     * Returns the cache of how immutable objects in this session's VirtualMachine are shown.
+     */
+    public ImmutableValueCache getImmutableValueCache() {
+        return immutableValueCache;
+    }
+
+    /**
+     * Returns the dispatcher of this session's updates to the FX thread, for its queue depth metrics.
+     */
+    public UiDispatcher getUiDispatcher() {
+        return uiDispatcher;
+    }
+
     public boolean isTerminated() {
         return getState() == State.TERMINATED;
     }
 
     /**
-     * Return the launching connector's arguments.
+     * Sets the state on the FX thread, unless a later state is set before it gets the chance.
      */
-    private Map<String, Connector.Argument> connectorArguments(Connector connector, String cmd) throws DebugSessionException {
-        Map<String, Connector.Argument> arguments = connector.defaultArguments();
-        Connector.Argument mainArg = arguments.get("main");
-        if (mainArg == null) {
-            throw new DebugSessionException("Bad launching connector");
-        }
-        mainArg.setValue(cmd);
+    private void setStateLater(State newState) {
+        uiDispatcher.post(state, () -> state.set(newState));
+    }
 
-        Connector.Argument optionArg = arguments.get("options");
-        if (optionArg == null) {
-            throw new DebugSessionException("Bad launching connector");
+    /**
+     * A future for work on the JDI thread, which can be cancelled while the work is running.
+     */
+    private static class JdiFuture<T> extends CompletableFuture<T> {
+        private volatile Future<?> task;
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            Future<?> started = task;
+            if (cancelled && started != null) {
+                started.cancel(true);
+            }
+            return cancelled;
         }
-        optionArg.setValue("-cp .");
-        return arguments;
     }
 
+    /**
+     * Connects a launched VirtualMachine's standard streams to ours.
+     */
     private void redirectOutput() {
         Process process = vm.process();
         inZombie.resurrect();
@@ -224,9 +489,63 @@ public class DebugSession {
         outPipe.start();
     }
 
-    private void startEventThread() {
-        eventThread = new EventThread(vm);
-        eventThread.start();
+    /**
+     * Requests (non-suspending) ClassUnloadEvents so that stale metadata can be dropped from the ReferenceTypeCache.
+     */
+    private void watchClassUnloads() {
+        ClassUnloadRequest request = vm.eventRequestManager().createClassUnloadRequest();
+        request.setSuspendPolicy(EventRequest.SUSPEND_NONE);
+        request.enable();
+    }
+
+    /**
+     * Logs the values of a logpoint hit by a thread, and then lets the thread carry on.
+     */
+    private void log(BreakpointSpec spec, ThreadReference thread) {
+        try {
+            Consumer<LogpointHit> callback = logpointHitCallback;
+            if (callback != null) {
+                callback.accept(LogpointCapture.capture(spec, thread, referenceTypeCache, immutableValueCache));
+            }
+        } catch (IncompatibleThreadStateException | InvalidStackFrameException | ObjectCollectedException e) {
+            e.printStackTrace();
+        } finally {
+            resumeEventThread();
+        }
+    }
+
+    /**
+     * Evaluates a breakpoint's condition in the frame of the thread which hit it. If the condition can't be evaluated,
+     * it's taken to hold, so that the breakpoint stops rather than silently never firing; it's then marked as failed
+     * and reported the once, and holds every time after that without being evaluated again.
+     */
+    private boolean conditionHolds(BreakpointSpec spec, ThreadReference thread) {
+        Condition condition = spec.condition;
+        if (condition.getFailure() != null) {
+            return true;
+        }
+        try {
+            return condition.evaluate(thread.frame(0), immutableValueCache);
+        } catch (ConditionException e) {
+            BiConsumer<BreakpointSpec, ConditionException> callback = conditionFailureCallback;
+            if (condition.markFailed(e.getMessage()) && callback != null) {
+                uiDispatcher.post(condition, () -> callback.accept(spec, e));
+            }
+            return true;
+        } catch (IncompatibleThreadStateException | InvalidStackFrameException | ObjectCollectedException e) {
+            e.printStackTrace();
+            return true;
+        }
+    }
+
+    /**
+     * Lets the thread in the EventSet being dispatched carry on, unless something else in the set suspended the whole
+     * VirtualMachine.
+     */
+    private void resumeEventThread() {
+        if (eventSet.suspendPolicy() == EventRequest.SUSPEND_EVENT_THREAD) {
+            eventSet.resume();
+        }
     }
 
     private void clearPreviousStepRequest(ThreadReference thread) {
@@ -0,0 +1,92 @@
+package uk.ac.imperial.doc.mfldb.bridge;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.jdi.event.EventSet;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * A small, fixed number of threads which dispatch the events of any number of sessions.
+ * <p>
+ * Each session has a reader thread of its own which blocks on its event queue, so an idle session costs nothing until
+ * its next EventSet arrives. The reader hands each EventSet over to the pool to be dispatched, and waits for that to be
+ * done before reading the next one, so a session's events are dispatched one at a time and in order, while the work of
+ * dispatching them is shared out between the pool's threads.
+ */
+public class EventDispatchPool {
+
+    private final ExecutorService executor;
+
+    private final ThreadFactory readerFactory =
+            new ThreadFactoryBuilder().setNameFormat("JDI Event Reader %d").setDaemon(true).build();
+
+    private final Set<Thread> readers = Collections.synchronizedSet(new HashSet<>());
+
+    /**
+     * @param threads The number of threads to dispatch events on.
+     */
+    public EventDispatchPool(int threads) {
+        executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("JDI Event Dispatch %d").setDaemon(true).build());
+    }
+
+    /**
+     * Starts dispatching a session's events, until its VirtualMachine disconnects.
+     */
+    void start(EventThread eventThread) {
+        Thread reader = readerFactory.newThread(() -> {
+            try {
+                read(eventThread);
+            } finally {
+                readers.remove(Thread.currentThread());
+                eventThread.abandon();
+            }
+        });
+        synchronized (readers) {
+            if (executor.isShutdown()) {
+                eventThread.abandon();
+                return;
+            }
+            readers.add(reader);
+            reader.start();
+        }
+    }
+
+    private void read(EventThread eventThread) {
+        try {
+            EventSet eventSet;
+            while ((eventSet = eventThread.next()) != null) {
+                EventSet dispatched = eventSet;
+                Future<Boolean> connected = executor.submit(() -> {
+                    try {
+                        return eventThread.dispatch(dispatched);
+                    } catch (RuntimeException e) {
+                        // Don't let one bad event stop the session's events from being dispatched.
+                        e.printStackTrace();
+                        return true;
+                    }
+                });
+                if (!connected.get()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException | RejectedExecutionException | CancellationException e) {
+            // The pool has been shut down.
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        }
+    }
+
+    /**
+     * Stops dispatching events, abandoning every session still connected.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        synchronized (readers) {
+            readers.forEach(Thread::interrupt);
+        }
+    }
+}
@@ -4,47 +4,92 @@ import com.sun.jdi.VMDisconnectedException;
 import com.sun.jdi.VirtualMachine;
 import com.sun.jdi.event.*;
 
+import java.util.concurrent.CountDownLatch;
+
 /**
  * Classifies incoming JDI Events and dispatches them to {@link java.util.EventListener}s
+ * <p>
+ * Despite the name, an EventThread doesn't dispatch on a thread of its own: the events of every session are read by a
+ * thread of the session's own, but dispatched on the threads of an {@link EventDispatchPool}, an EventSet at a time.
  */
-public class EventThread extends Thread {
+public class EventThread {
 
     private final VirtualMachine vm;
-    private Callbacks callbacks = null;
+    private volatile Callbacks callbacks = null;
 
-    private boolean connected = true;
+    private volatile boolean connected = true;
     private boolean vmDied = true;
 
+    /**
+     * Whether the VirtualMachine has been found to have disconnected whilst dispatching an event, after which only the
+     * events saying that it has are dispatched.
+     */
+    private boolean disconnecting;
+
+    /**
+     * Released once the VirtualMachine has disconnected and every event has been dispatched.
+     */
+    private final CountDownLatch finished = new CountDownLatch(1);
+
     EventThread(VirtualMachine vm) {
-        super("JDI Event Dispatch");
         this.vm = vm;
     }
 
     /**
-     * Run the event handling thread.
-     * As long as we are connected, get event sets off
-     * the queue and dispatch the events within them.
+     * Waits for the next EventSet from the VirtualMachine, without polling.
+     *
+     * @return The EventSet, or null if the VirtualMachine has disconnected and there are no more.
+     * @throws InterruptedException If the thread is interrupted whilst waiting, such as when the pool is shut down.
+     */
+    EventSet next() throws InterruptedException {
+        if (!connected) {
+            return null;
+        }
+        try {
+            return vm.eventQueue().remove();
+        } catch (VMDisconnectedException e) {
+            connected = false;
+            return null;
+        }
+    }
+
+    /**
+     * Dispatches the events within an EventSet. Only one thread dispatches at a time.
+     *
+     * @return Whether the VirtualMachine is still connected, and so there may be more events to dispatch.
      */
-    @Override
-    public void run() {
-        EventQueue queue = vm.eventQueue();
-        while (connected) {
-            try {
-                EventSet eventSet = queue.remove();
+    boolean dispatch(EventSet eventSet) {
+        try {
+            if (!disconnecting) {
                 Callbacks callbacks = this.callbacks;
                 if (callbacks != null) {
                     callbacks.eventSet(eventSet);
                 }
-                for (Event event : eventSet) {
+            }
+            for (Event event : eventSet) {
+                if (!disconnecting || event instanceof VMDeathEvent || event instanceof VMDisconnectEvent) {
                     handleEvent(event);
                 }
-            } catch (InterruptedException exc) {
-                // Ignore
-            } catch (VMDisconnectedException discExc) {
-                handleDisconnectedException();
-                break;
             }
+        } catch (VMDisconnectedException discExc) {
+            handleDisconnectedException();
         }
+        return connected;
+    }
+
+    /**
+     * Stops dispatching events, once the VirtualMachine has disconnected and every event has been dispatched or the
+     * pool has been shut down.
+     */
+    void abandon() {
+        finished.countDown();
+    }
+
+    /**
+     * Waits for every event to be dispatched after the VirtualMachine has disconnected.
+     */
+    void join() throws InterruptedException {
+        finished.await();
     }
 
     /**
@@ -55,6 +100,8 @@ public class EventThread extends Thread {
         if (callbacks != null) {
             if (event instanceof ClassPrepareEvent) {
                 callbacks.classPrepareEvent((ClassPrepareEvent) event);
+            } else if (event instanceof ClassUnloadEvent) {
+                callbacks.classUnloadEvent((ClassUnloadEvent) event);
             } else if (event instanceof BreakpointEvent) {
                 callbacks.breakpointEvent((BreakpointEvent) event);
             } else if (event instanceof StepEvent) {
@@ -77,22 +124,11 @@ public class EventThread extends Thread {
      * A VMDisconnectedException has happened while dealing with
      * another event. We need to flush the event queue, dealing only
      * with exit events (VMDeath, VMDisconnect) so that we terminate
-     * correctly.
+     * correctly. The rest of the queue is flushed as it's read, rather
+     * than by holding a dispatch thread until it's empty.
      */
-    synchronized void handleDisconnectedException() {
-        EventQueue queue = vm.eventQueue();
-        while (connected) {
-            try {
-                EventSet eventSet = queue.remove();
-                for (Event event : eventSet) {
-                    if (event instanceof VMDeathEvent || event instanceof VMDisconnectEvent) {
-                        handleEvent(event);
-                    }
-                }
-            } catch (InterruptedException exc) {
-                // ignore
-            }
-        }
+    private void handleDisconnectedException() {
+        disconnecting = true;
     }
 
     public void setCallbacks(Callbacks callbacks) {
@@ -106,6 +142,7 @@ public class EventThread extends Thread {
         void eventSet(EventSet events);
         void vmStartEvent(VMStartEvent event);
         void classPrepareEvent(ClassPrepareEvent event);
+        void classUnloadEvent(ClassUnloadEvent event);
         void breakpointEvent(BreakpointEvent event);
         void stepEvent(StepEvent event);
         void vmDeathEvent(VMDeathEvent event);
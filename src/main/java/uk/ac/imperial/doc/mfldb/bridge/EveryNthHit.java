@@ -0,0 +1,30 @@
+package uk.ac.imperial.doc.mfldb.bridge;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the hits of a breakpoint in the debugger, letting only every Nth one count.
+ * <p>
+ * Used instead of a count filter when N is small, for which re-arming the filter after every counted hit would cost
+ * more than letting the hits in between through. The hits are counted with a single AtomicLong, so checking a hit
+ * needs no locking however many threads hit the breakpoint.
+ */
+final class EveryNthHit {
+
+    private final int every;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    EveryNthHit(int every) {
+        this.every = every;
+    }
+
+    /**
+     * Counts a hit.
+     *
+     * @return Whether the hit is an Nth one, and so counts.
+     */
+    boolean tryAcquire() {
+        return hits.incrementAndGet() % every == 0;
+    }
+}
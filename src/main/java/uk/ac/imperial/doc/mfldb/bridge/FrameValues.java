@@ -0,0 +1,77 @@
+package uk.ac.imperial.doc.mfldb.bridge;
+
+import com.sun.jdi.*;
+
+import java.util.*;
+
+/**
+ * Fetches named values visible from a stack frame, all at once.
+ */
+final class FrameValues {
+
+    /**
+     * The name which fetches the frame's {@code this} object.
+     */
+    static final String THIS = "this";
+
+    private FrameValues() {
+    }
+
+    /**
+     * Fetches the values of locals, fields of {@code this} and static fields of the frame's class by name. However many
+     * there are, they take one round trip for the locals, one for the fields of {@code this} and one for static fields.
+     *
+     * @param frame The frame, whose thread must be suspended.
+     * @param names The names to fetch, locals hiding fields with the same name as in Java.
+     * @return The values of the names in scope, in the order given. Names which aren't in scope are left out.
+     */
+    static Map<String, Value> fetch(StackFrame frame, Collection<String> names) {
+        ObjectReference self = frame.thisObject();
+        ReferenceType type = frame.location().declaringType();
+
+        Map<String, LocalVariable> locals = new HashMap<>();
+        Map<String, Field> instanceFields = new HashMap<>();
+        Map<String, Field> staticFields = new HashMap<>();
+        for (String name : names) {
+            LocalVariable local = name.equals(THIS) ? null : visibleVariable(frame, name);
+            Field field = local == null ? type.fieldByName(name) : null;
+            if (local != null) {
+                locals.put(name, local);
+            } else if (field != null && field.isStatic()) {
+                staticFields.put(name, field);
+            } else if (field != null && self != null) {
+                instanceFields.put(name, field);
+            }
+        }
+
+        Map<LocalVariable, Value> localValues = locals.isEmpty() ? Collections.emptyMap() :
+                frame.getValues(new ArrayList<>(locals.values()));
+        Map<Field, Value> instanceValues = instanceFields.isEmpty() ? Collections.emptyMap() :
+                self.getValues(new ArrayList<>(instanceFields.values()));
+        Map<Field, Value> staticValues = staticFields.isEmpty() ? Collections.emptyMap() :
+                type.getValues(new ArrayList<>(staticFields.values()));
+
+        Map<String, Value> values = new LinkedHashMap<>();
+        for (String name : names) {
+            if (locals.containsKey(name)) {
+                values.put(name, localValues.get(locals.get(name)));
+            } else if (instanceFields.containsKey(name)) {
+                values.put(name, instanceValues.get(instanceFields.get(name)));
+            } else if (staticFields.containsKey(name)) {
+                values.put(name, staticValues.get(staticFields.get(name)));
+            } else if (name.equals(THIS) && self != null) {
+                values.put(name, self);
+            }
+        }
+        return values;
+    }
+
+    private static LocalVariable visibleVariable(StackFrame frame, String name) {
+        try {
+            return frame.visibleVariableByName(name);
+        } catch (AbsentInformationException e) {
+            // Compiled without local variable information, so it can only be a field.
+            return null;
+        }
+    }
+}
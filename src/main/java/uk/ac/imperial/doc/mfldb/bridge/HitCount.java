@@ -0,0 +1,73 @@
+package uk.ac.imperial.doc.mfldb.bridge;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Which hits of a breakpoint it stops on (or, for a logpoint, logs).
+ * <p>
+ * Skipping and every Nth are counted by the target VirtualMachine itself with count filters, so the hits in between
+ * never leave it, except that every other hit is counted by the debugger as that's cheaper than re-arming the filter
+ * after each counted hit. The rate is limited by the debugger, as hits arrive.
+ */
+public final class HitCount {
+
+    /**
+     * Every hit.
+     */
+    public static final HitCount ALWAYS = new HitCount(0, 1, 0);
+
+    /**
+     * The number of hits to skip before the first one which counts.
+     */
+    public final int skip;
+
+    /**
+     * After skipping, only every this many hits count.
+     */
+    public final int every;
+
+    /**
+     * The most hits a second which count, or 0 for no limit.
+     */
+    public final int maxPerSecond;
+
+    public HitCount(int skip, int every, int maxPerSecond) {
+        if (skip < 0 || every < 1 || maxPerSecond < 0) {
+            throw new IllegalArgumentException(String.format("Bad hit count: skip %d, every %d, at most %d a second",
+                    skip, every, maxPerSecond));
+        }
+        this.skip = skip;
+        this.every = every;
+        this.maxPerSecond = maxPerSecond;
+    }
+
+    /**
+     * Returns whether the target VirtualMachine has to count hits.
+     */
+    boolean isCounted() {
+        return skip > 0 || every > 1;
+    }
+
+    /**
+     * Returns whether every hit counts.
+     */
+    public boolean isAlways() {
+        return !isCounted() && maxPerSecond == 0;
+    }
+
+    @Override
+    public String toString() {
+        List<String> parts = new ArrayList<>();
+        if (skip > 0) {
+            parts.add("after " + skip + " hits");
+        }
+        if (every > 1) {
+            parts.add("every " + every + " hits");
+        }
+        if (maxPerSecond > 0) {
+            parts.add("at most " + maxPerSecond + " a second");
+        }
+        return parts.isEmpty() ? "every hit" : String.join(", ", parts);
+    }
+}
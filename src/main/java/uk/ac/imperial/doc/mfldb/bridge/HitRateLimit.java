@@ -0,0 +1,60 @@
+package uk.ac.imperial.doc.mfldb.bridge;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the hits of a breakpoint which count to at most a number a second, in fixed one second windows.
+ * <p>
+ * The window and the hits let through in it are packed into a single AtomicLong, so checking a hit is one
+ * compare-and-set without any locking, however many threads hit the breakpoint.
+ */
+final class HitRateLimit {
+
+    private static final long SECOND_MASK = 0xFFFFFFFFL;
+
+    private final int maxPerSecond;
+
+    /**
+     * The current window's second, in the high 32 bits, and the hits let through in it, in the low 32 bits.
+     */
+    private final AtomicLong window = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    HitRateLimit(int maxPerSecond) {
+        this.maxPerSecond = maxPerSecond;
+    }
+
+    /**
+     * Counts a hit, if there have been fewer than the maximum so far this second.
+     *
+     * @param nanoTime The time of the hit, from {@link System#nanoTime()}.
+     * @return Whether the hit counts.
+     */
+    boolean tryAcquire(long nanoTime) {
+        long second = TimeUnit.NANOSECONDS.toSeconds(nanoTime) & SECOND_MASK;
+        while (true) {
+            long current = window.get();
+            long next;
+            if (current >>> 32 != second) {
+                next = second << 32 | 1;
+            } else if ((current & SECOND_MASK) < maxPerSecond) {
+                next = current + 1;
+            } else {
+                dropped.incrementAndGet();
+                return false;
+            }
+            if (window.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of hits which haven't counted.
+     */
+    long getDropped() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,172 @@
+package uk.ac.imperial.doc.mfldb.bridge;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.sun.jdi.*;
+
+import java.util.List;
+
+/**
+ * Caches how immutable objects in the target VirtualMachine (strings, boxed primitives and enum constants) are shown,
+ * for the lifetime of a {@link DebugSession}, so that they aren't fetched again every time the VirtualMachine suspends.
+ * <p>
+ * Entries are keyed by the objects' unique ids, and hold on to the ObjectReference itself so that JDI doesn't dispose
+ * of the id (allowing it to be reused for another object) whilst it's cached. The cache is bounded, evicting the
+ * least recently used entries first.
+ * <p>
+ * Strings too long to be shown inline are cached by their {@link StringLayout} instead, so that each window of them
+ * shown later costs a single fetch from the backing array.
+ */
+public class ImmutableValueCache {
+
+    private static final int MAXIMUM_SIZE = 10000;
+
+    /**
+     * Map from unique id to the cached object and how it's shown.
+     */
+    private final Cache<Long, Entry> values = CacheBuilder.newBuilder()
+            .maximumSize(MAXIMUM_SIZE)
+            .build();
+
+    /**
+     * Whether the target VirtualMachine stores UTF16 strings high byte first, or null if that isn't known yet.
+     */
+    private volatile Boolean utf16HighByteFirst;
+
+    /**
+     * Returns how an object is shown, or null if it isn't cached.
+     *
+     * @param reference The object to look up.
+     * @return The cached value, or null.
+     */
+    public String getIfPresent(ObjectReference reference) {
+        Entry entry = values.getIfPresent(reference.uniqueID());
+        return entry != null ? entry.value : null;
+    }
+
+    /**
+     * Returns the layout of a string too long to be shown inline, or null if it isn't cached.
+     *
+     * @param string The string to look up.
+     * @return The cached layout, or null.
+     */
+    public StringLayout getLayoutIfPresent(StringReference string) {
+        Entry entry = values.getIfPresent(string.uniqueID());
+        return entry != null ? entry.layout : null;
+    }
+
+    /**
+     * Caches how an immutable object is shown.
+     *
+     * @param reference The object, which must be immutable.
+     * @param value     How the object is shown.
+     */
+    public void put(ObjectReference reference, String value) {
+        values.put(reference.uniqueID(), new Entry(reference, value, null));
+    }
+
+    /**
+     * Caches the layout of a string too long to be shown inline.
+     *
+     * @param string The string.
+     * @param layout Where the string's characters are kept.
+     */
+    public void putLayout(StringReference string, StringLayout layout) {
+        values.put(string.uniqueID(), new Entry(string, null, layout));
+    }
+
+    /**
+     * Returns whether the target VirtualMachine stores UTF16 strings high byte first, or null if that isn't known yet.
+     */
+    public Boolean getUtf16HighByteFirst() {
+        return utf16HighByteFirst;
+    }
+
+    public void setUtf16HighByteFirst(boolean utf16HighByteFirst) {
+        this.utf16HighByteFirst = utf16HighByteFirst;
+    }
+
+    /**
+     * Drops an object from the cache, for instance because it has been garbage collected.
+     *
+     * @param reference The object to drop.
+     */
+    public void invalidate(ObjectReference reference) {
+        values.invalidate(reference.uniqueID());
+    }
+
+    /**
+     * Drops everything from the cache.
+     */
+    void clear() {
+        values.invalidateAll();
+        utf16HighByteFirst = null;
+    }
+
+    /**
+     * Where the characters of a string are kept in the target VirtualMachine, which can't change as strings are
+     * immutable.
+     */
+    public static final class StringLayout {
+
+        /**
+         * The string's backing array, either a char[] or (for compact strings) a byte[].
+         */
+        public final ArrayReference array;
+
+        /**
+         * Null if the backing array is a char[], otherwise whether the backing byte[] is encoded as UTF16.
+         */
+        public final Boolean utf16;
+
+        /**
+         * The length of the string in characters.
+         */
+        public final int length;
+
+        public StringLayout(ArrayReference array, Boolean utf16, int length) {
+            this.array = array;
+            this.utf16 = utf16;
+            this.length = length;
+        }
+
+        /**
+         * Fetches some of the string's characters from its backing array, in a single round trip.
+         *
+         * @param highByteFirst Whether the target VirtualMachine stores UTF16 strings high byte first, which is only
+         *                      needed if the string is encoded as UTF16.
+         */
+        public String substring(int offset, int count, boolean highByteFirst) {
+            StringBuilder builder = new StringBuilder(count);
+            if (utf16 == null) {
+                for (Value c : array.getValues(offset, count)) {
+                    builder.append(((CharValue) c).value());
+                }
+            } else if (!utf16) {
+                for (Value b : array.getValues(offset, count)) {
+                    builder.append((char) (((ByteValue) b).value() & 0xff));
+                }
+            } else {
+                List<Value> values = array.getValues(2 * offset, 2 * count);
+                for (int i = 0; i < count; i++) {
+                    int first = ((ByteValue) values.get(2 * i)).value() & 0xff;
+                    int second = ((ByteValue) values.get(2 * i + 1)).value() & 0xff;
+                    builder.append((char) (highByteFirst ? first << 8 | second : second << 8 | first));
+                }
+            }
+            return builder.toString();
+        }
+    }
+
+    private static final class Entry {
+        final ObjectReference reference;
+        final String value;
+        final StringLayout layout;
+
+        Entry(ObjectReference reference, String value, StringLayout layout) {
+            this.reference = reference;
+            this.value = value;
+            this.layout = layout;
+        }
+    }
+}
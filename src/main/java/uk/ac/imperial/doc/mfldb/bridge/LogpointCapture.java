@@ -0,0 +1,148 @@
+package uk.ac.imperial.doc.mfldb.bridge;
+
+import com.sun.jdi.*;
+import uk.ac.imperial.doc.mfldb.bridge.ImmutableValueCache.StringLayout;
+import uk.ac.imperial.doc.mfldb.bridge.ReferenceTypeCache.TypeInfo;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fetches the values logged by a logpoint from the thread which hit it.
+ */
+final class LogpointCapture {
+
+    /**
+     * The most characters of a string which are logged.
+     */
+    private static final int MAX_STRING_LENGTH = 200;
+
+    private LogpointCapture() {
+    }
+
+    /**
+     * Fetches the values a logpoint logs from the innermost frame of the thread which hit it, all at once (see
+     * {@link FrameValues#fetch(StackFrame, java.util.Collection)}), besides any strings which aren't already cached.
+     * Only the first {@link #MAX_STRING_LENGTH} characters of a long string are fetched.
+     *
+     * @param spec       The logpoint.
+     * @param thread     The thread which hit the logpoint, which must be suspended.
+     * @param typeCache  The session's cache of reference types.
+     * @param valueCache The session's cache of immutable values.
+     */
+    static LogpointHit capture(BreakpointSpec spec, ThreadReference thread, ReferenceTypeCache typeCache,
+                               ImmutableValueCache valueCache) throws IncompatibleThreadStateException {
+        long time = System.currentTimeMillis();
+        Map<String, Value> fetched = FrameValues.fetch(thread.frame(0), spec.logged);
+        Map<String, String> values = new LinkedHashMap<>();
+        for (String name : spec.logged) {
+            values.put(name, fetched.containsKey(name)
+                    ? format(fetched.get(name), typeCache, valueCache) : "<not in scope>");
+        }
+        return new LogpointHit(spec, thread.name(), time, values);
+    }
+
+    private static String format(Value value, ReferenceTypeCache typeCache, ImmutableValueCache valueCache) {
+        if (value == null) {
+            return "null";
+        } else if (value instanceof PrimitiveValue) {
+            return value.toString();
+        }
+        // Strings, boxed primitives and enum constants may have been cached when they were last shown.
+        ObjectReference reference = (ObjectReference) value;
+        String cached = valueCache.getIfPresent(reference);
+        if (value instanceof StringReference) {
+            String string = cached != null ? cached : fetch((StringReference) value, typeCache, valueCache);
+            if (string.length() > MAX_STRING_LENGTH) {
+                string = string.substring(0, MAX_STRING_LENGTH) + "...";
+            }
+            return '"' + string + '"';
+        }
+        return cached != null ? cached : reference.referenceType().name() + "@" + reference.uniqueID();
+    }
+
+    /**
+     * Fetches a string which isn't cached: whole if it's short, otherwise only as much as is logged, from its backing
+     * array. Strings laid out in a way we don't understand are fetched whole.
+     *
+     * @return The string, or as much of it as is logged followed by a character to show that there's more.
+     */
+    private static String fetch(StringReference string, ReferenceTypeCache typeCache,
+                                ImmutableValueCache valueCache) {
+        StringLayout layout = valueCache.getLayoutIfPresent(string);
+        if (layout == null) {
+            layout = layoutOf(string, typeCache);
+            if (layout != null && layout.length > MAX_STRING_LENGTH) {
+                valueCache.putLayout(string, layout);
+            }
+        }
+        Boolean highByteFirst = layout != null && Boolean.TRUE.equals(layout.utf16)
+                ? utf16HighByteFirst(string, valueCache) : Boolean.FALSE;
+        if (layout == null || layout.length <= MAX_STRING_LENGTH || highByteFirst == null) {
+            String whole = string.value();
+            if (whole.length() <= MAX_STRING_LENGTH) {
+                // Short enough that the stack and heap view would show it inline too.
+                valueCache.put(string, whole);
+            }
+            return whole;
+        }
+        return layout.substring(0, MAX_STRING_LENGTH + 1, highByteFirst);
+    }
+
+    /**
+     * Finds where a string's characters are kept, or returns null if it isn't laid out in a way we understand.
+     */
+    private static StringLayout layoutOf(StringReference string, ReferenceTypeCache typeCache) {
+        TypeInfo type = typeCache.get(string.referenceType());
+        Field valueField = null;
+        Field coderField = null;
+        for (Field field : type.visibleFields) {
+            if (field.name().equals("value")) {
+                valueField = field;
+            } else if (field.name().equals("coder")) {
+                coderField = field;
+            }
+        }
+        if (valueField == null) {
+            return null;
+        }
+        List<Field> fields = coderField != null
+                ? Arrays.asList(valueField, coderField) : Collections.singletonList(valueField);
+        Map<Field, Value> values = string.getValues(fields);
+        if (!(values.get(valueField) instanceof ArrayReference)) {
+            return null;
+        }
+        ArrayReference array = (ArrayReference) values.get(valueField);
+        // Compact strings (JDK 9+) store their characters in a byte[], either as LATIN1 or as UTF16.
+        boolean utf16 = coderField != null && values.get(coderField) instanceof ByteValue
+                && ((ByteValue) values.get(coderField)).value() == 1;
+        int arrayLength = array.length();
+        return new StringLayout(array, coderField != null ? utf16 : null, utf16 ? arrayLength / 2 : arrayLength);
+    }
+
+    /**
+     * Returns whether the target VirtualMachine stores UTF16 strings high byte first, or null if that can't be found
+     * out, looking it up once per session.
+     */
+    private static Boolean utf16HighByteFirst(StringReference string, ImmutableValueCache valueCache) {
+        Boolean highByteFirst = valueCache.getUtf16HighByteFirst();
+        if (highByteFirst != null) {
+            return highByteFirst;
+        }
+        for (ReferenceType type : string.virtualMachine().classesByName("java.lang.StringUTF16")) {
+            Field shift = type.fieldByName("HI_BYTE_SHIFT");
+            if (shift != null && shift.isStatic()) {
+                Value value = type.getValue(shift);
+                if (value instanceof IntegerValue) {
+                    highByteFirst = ((IntegerValue) value).value() == 8;
+                    valueCache.setUtf16HighByteFirst(highByteFirst);
+                    return highByteFirst;
+                }
+            }
+        }
+        return null;
+    }
+}
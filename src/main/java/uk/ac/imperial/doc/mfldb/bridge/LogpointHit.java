@@ -0,0 +1,40 @@
+package uk.ac.imperial.doc.mfldb.bridge;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * The values logged by a logpoint on one hit.
+ */
+public final class LogpointHit {
+
+    public final BreakpointSpec spec;
+    public final String threadName;
+
+    /**
+     * When the logpoint was hit, in milliseconds since the epoch.
+     */
+    public final long time;
+
+    /**
+     * The logged values, by name in the order the logpoint lists them.
+     */
+    public final Map<String, String> values;
+
+    public LogpointHit(BreakpointSpec spec, String threadName, long time, Map<String, String> values) {
+        this.spec = spec;
+        this.threadName = threadName;
+        this.time = time;
+        this.values = values;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s [%s] %s:%d %s", new SimpleDateFormat("HH:mm:ss.SSS").format(new Date(time)),
+                threadName, spec.className, spec.lineNumber, values.entrySet().stream()
+                        .map(e -> e.getKey() + "=" + e.getValue())
+                        .collect(Collectors.joining(", ")));
+    }
+}
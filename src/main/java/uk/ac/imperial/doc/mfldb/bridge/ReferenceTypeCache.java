@@ -0,0 +1,134 @@
+package uk.ac.imperial.doc.mfldb.bridge;
+
+import com.sun.jdi.ArrayType;
+import com.sun.jdi.ClassType;
+import com.sun.jdi.Field;
+import com.sun.jdi.ReferenceType;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the metadata of ReferenceTypes in the target VirtualMachine for the lifetime of a {@link DebugSession}.
+ * <p>
+ * None of the cached metadata can change once a class has been prepared, so entries are only dropped when their class
+ * is unloaded.
+ */
+public class ReferenceTypeCache {
+
+    /**
+     * Map from ReferenceType to its cached metadata.
+     */
+    private final Map<ReferenceType, TypeInfo> types = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the metadata for a type, fetching it if it isn't already cached.
+     *
+     * @param type The type to look up.
+     * @return The type's metadata.
+     */
+    public TypeInfo get(ReferenceType type) {
+        return types.computeIfAbsent(type, TypeInfo::new);
+    }
+
+    /**
+     * Returns the metadata for a type, or null if it isn't cached.
+     *
+     * @param type The type to look up.
+     * @return The type's metadata, or null.
+     */
+    public TypeInfo getIfPresent(ReferenceType type) {
+        return types.get(type);
+    }
+
+    /**
+     * Caches the metadata for a type which has just been prepared.
+     *
+     * @param type The prepared type.
+     */
+    void prepare(ReferenceType type) {
+        get(type);
+    }
+
+    /**
+     * Drops the metadata of any types with the given name, which has been unloaded.
+     * <p>
+     * The same name may be shared by types from other class loaders, but they'll simply be fetched again on next use.
+     *
+     * @param className The name of the unloaded class.
+     */
+    void unload(String className) {
+        types.values().removeIf(info -> info.name.equals(className));
+    }
+
+    /**
+     * Drops all cached metadata.
+     */
+    void clear() {
+        types.clear();
+    }
+
+    /**
+     * The cached metadata of a single ReferenceType.
+     */
+    public static final class TypeInfo {
+
+        private static final char NOT_AN_ARRAY = '\0';
+
+        /**
+         * The fully qualified name of the type.
+         */
+        public final String name;
+
+        /**
+         * All the fields visible from this type, as returned by {@link ReferenceType#visibleFields()}.
+         */
+        public final List<Field> visibleFields;
+
+        /**
+         * The "value" field of a boxed primitive type, or null if this type isn't a boxed primitive.
+         */
+        public final Field boxedValueField;
+
+        /**
+         * The "name" field inherited from {@link Enum} by an enum type, or null if this type isn't an enum.
+         */
+        public final Field enumNameField;
+
+        /**
+         * The first character of the signature of the component type of an array type, or '\0' if this type isn't an
+         * array.
+         */
+        public final char componentKind;
+
+        private TypeInfo(ReferenceType type) {
+            name = type.name();
+            visibleFields = Collections.unmodifiableList(type.visibleFields());
+            boxedValueField = isBoxedPrimitive(name) ? type.fieldByName("value") : null;
+            enumNameField = type instanceof ClassType && ((ClassType) type).isEnum() ? type.fieldByName("name") : null;
+            componentKind = type instanceof ArrayType ? ((ArrayType) type).componentSignature().charAt(0) : NOT_AN_ARRAY;
+        }
+
+        public boolean isArray() {
+            return componentKind != NOT_AN_ARRAY;
+        }
+
+        private static boolean isBoxedPrimitive(String name) {
+            switch (name) {
+                case "java.lang.Boolean":
+                case "java.lang.Byte":
+                case "java.lang.Character":
+                case "java.lang.Double":
+                case "java.lang.Float":
+                case "java.lang.Integer":
+                case "java.lang.Long":
+                case "java.lang.Short":
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package uk.ac.imperial.doc.mfldb.bridge;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Manages several DebugSessions at once, such as for a group of cooperating VirtualMachines, with their events
+ * dispatched by one shared {@link EventDispatchPool}.
+ * <p>
+ * Each session keeps its own breakpoints, state and caches, but no event thread of its own, and its JDI worker thread
+ * only lives while there is work for it, so an idle session costs no threads.
+ */
+public class SessionRegistry {
+
+    private final EventDispatchPool dispatchPool;
+
+    private final List<DebugSession> sessions = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param dispatchThreads The number of threads to dispatch the events of every session on.
+     */
+    public SessionRegistry(int dispatchThreads) {
+        dispatchPool = new EventDispatchPool(dispatchThreads);
+    }
+
+    /**
+     * Launches a new VirtualMachine, see {@link DebugSession#launch(String, String, EventDispatchPool)}.
+     */
+    public DebugSession launch(String cmd, String options) throws DebugSessionException {
+        return register(DebugSession.launch(cmd, options, dispatchPool));
+    }
+
+    /**
+     * Attaches to a running VirtualMachine over a socket, see
+     * {@link DebugSession#attach(String, int, EventDispatchPool)}.
+     */
+    public DebugSession attach(String host, int port) throws DebugSessionException {
+        return register(DebugSession.attach(host, port, dispatchPool));
+    }
+
+    /**
+     * Attaches to a running VirtualMachine by its process id, see
+     * {@link DebugSession#attachToProcess(int, EventDispatchPool)}.
+     */
+    public DebugSession attachToProcess(int pid) throws DebugSessionException {
+        return register(DebugSession.attachToProcess(pid, dispatchPool));
+    }
+
+    private DebugSession register(DebugSession session) {
+        sessions.add(session);
+        return session;
+    }
+
+    /**
+     * Returns the sessions which haven't been ended, in the order they were started.
+     */
+    public List<DebugSession> getSessions() {
+        return Collections.unmodifiableList(sessions);
+    }
+
+    /**
+     * Ends a session, and forgets it.
+     */
+    public void end(DebugSession session) {
+        if (sessions.remove(session)) {
+            session.ensureEnded();
+        }
+    }
+
+    /**
+     * Ends every session.
+     */
+    public void endAll() {
+        sessions.forEach(this::end);
+    }
+
+    /**
+     * Ends every session and stops dispatching events.
+     */
+    public void shutdown() {
+        endAll();
+        dispatchPool.shutdown();
+    }
+}
@@ -0,0 +1,15 @@
+package uk.ac.imperial.doc.mfldb.bridge;
+
+/**
+ * A line of a class's source code, such as where a thread is suspended.
+ */
+public final class SourceLocation {
+
+    public final String className;
+    public final int lineNumber;
+
+    public SourceLocation(String className, int lineNumber) {
+        this.className = className;
+        this.lineNumber = lineNumber;
+    }
+}
@@ -3,6 +3,7 @@ package uk.ac.imperial.doc.mfldb.bridge;
 import com.sun.jdi.ThreadReference;
 import com.sun.jdi.VirtualMachine;
 import com.sun.jdi.event.*;
+import com.sun.jdi.request.EventRequest;
 
 /**
  * Tracks threads within the target VirtualMachine.
@@ -20,7 +21,19 @@ class ThreadManager {
         return currentThread;
     }
 
+    /**
+     * Makes a thread the current one, such as one which has stopped the VirtualMachine by itself.
+     */
+    public void setCurrentThread(ThreadReference thread) {
+        currentThread = thread;
+    }
+
     public void updateCurrentThread(EventSet events) {
+        if (events.suspendPolicy() != EventRequest.SUSPEND_ALL) {
+            // Nothing has stopped for long (logpoints resume their thread straight away), so whichever thread we were
+            // looking at is still the current one.
+            return;
+        }
         ThreadReference thread;
         if (events.size() > 0) {
             /*
@@ -0,0 +1,131 @@
+package uk.ac.imperial.doc.mfldb.bridge;
+
+import javafx.application.Platform;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Hands updates from the {@link EventThread} to the FX thread a batch at a time, rather than with a
+ * {@link Platform#runLater(Runnable)} of their own each, so that a burst of events can't flood the FX thread's queue.
+ * <p>
+ * Each update has a key, and an update replaces any update with the same key still waiting to be applied, so only the
+ * latest state is ever applied. Whenever there are updates waiting, a single batch is scheduled on the FX thread, and
+ * everything posted before it runs is applied by it in the order posted.
+ */
+public class UiDispatcher {
+
+    private final Executor fxExecutor;
+
+    /**
+     * The updates waiting to be applied, keyed by what they update. Guarded by itself.
+     */
+    private final Map<Object, Runnable> pending = new LinkedHashMap<>();
+
+    private boolean scheduled;
+
+    private int maxQueueDepth;
+    private long batches;
+    private long updates;
+    private long coalesced;
+
+    public UiDispatcher() {
+        this(Platform::runLater);
+    }
+
+    UiDispatcher(Executor fxExecutor) {
+        this.fxExecutor = fxExecutor;
+    }
+
+    /**
+     * Posts an update to be applied on the FX thread, replacing any update with the same key which hasn't been applied
+     * yet.
+     *
+     * @param key    What the update updates, such as a property.
+     * @param update The update.
+     */
+    public void post(Object key, Runnable update) {
+        boolean schedule;
+        synchronized (pending) {
+            // Remove any earlier update first, so that this one is applied in the order it was posted.
+            if (pending.remove(key) != null) {
+                coalesced++;
+            }
+            pending.put(key, update);
+            maxQueueDepth = Math.max(maxQueueDepth, pending.size());
+            schedule = !scheduled;
+            scheduled = true;
+        }
+        if (schedule) {
+            fxExecutor.execute(this::applyBatch);
+        }
+    }
+
+    private void applyBatch() {
+        List<Runnable> batch;
+        synchronized (pending) {
+            batch = new ArrayList<>(pending.values());
+            pending.clear();
+            scheduled = false;
+            batches++;
+            updates += batch.size();
+        }
+        batch.forEach(Runnable::run);
+    }
+
+    /**
+     * Returns the number of updates waiting to be applied.
+     */
+    public int getQueueDepth() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Returns the largest number of updates there have been waiting to be applied at once.
+     */
+    public int getMaxQueueDepth() {
+        synchronized (pending) {
+            return maxQueueDepth;
+        }
+    }
+
+    /**
+     * Returns the number of batches applied.
+     */
+    public long getBatches() {
+        synchronized (pending) {
+            return batches;
+        }
+    }
+
+    /**
+     * Returns the number of updates applied.
+     */
+    public long getUpdates() {
+        synchronized (pending) {
+            return updates;
+        }
+    }
+
+    /**
+     * Returns the number of updates replaced by a later update before they were applied.
+     */
+    public long getCoalesced() {
+        synchronized (pending) {
+            return coalesced;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (pending) {
+            return String.format("%d updates in %d batches, %d coalesced, queue depth %d (max %d)",
+                    updates, batches, coalesced, pending.size(), maxQueueDepth);
+        }
+    }
+}
@@ -21,6 +21,8 @@ public class CodeAreaController {
 
     private Consumer<Integer> breakpointToggleHandler;
 
+    private Consumer<Integer> breakpointEditHandler;
+
     public CodeAreaController(WebView webView) {
         this.webView = webView;
 
@@ -40,6 +42,13 @@ public class CodeAreaController {
         breakpointToggleHandler = handler;
     }
 
+    /**
+     * Sets the handler for shift-clicking the gutter, to change what a breakpoint does.
+     */
+    public void setBreakpointEditHandler(Consumer<Integer> handler) {
+        breakpointEditHandler = handler;
+    }
+
     public void markBreakpoint(int lineNo, BreakpointType type) {
         codemirror.call("markBreakpoint", new Object[]{lineNo, "db_set_breakpoint.png"});
     }
@@ -52,6 +61,15 @@ public class CodeAreaController {
         codemirror.call("markBreakpoint", new Object[]{lineNo, "db_invalid_breakpoint.png"});
     }
 
+    /**
+     * Marks a breakpoint already marked on a line as doing something besides suspending, such as logging.
+     *
+     * @param description What the breakpoint does, shown when hovering over its marker.
+     */
+    public void describeBreakpoint(int lineNo, String description) {
+        codemirror.call("describeBreakpoint", new Object[]{lineNo, description});
+    }
+
     public void clearBreakpoint(int lineNo) {
         codemirror.call("clearBreakpoint", new Object[]{lineNo});
     }
@@ -79,5 +97,11 @@ public class CodeAreaController {
                 breakpointToggleHandler.accept(n);
             }
         }
+
+        public void editBreakpoint(int n) {
+            if (breakpointEditHandler != null) {
+                breakpointEditHandler.accept(n);
+            }
+        }
     }
 }
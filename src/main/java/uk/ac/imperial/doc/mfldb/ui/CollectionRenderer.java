@@ -0,0 +1,82 @@
+package uk.ac.imperial.doc.mfldb.ui;
+
+import com.sun.jdi.ArrayReference;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.Value;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shows a collection in the stack and heap view logically, as its elements or entries, rather than as the internal
+ * fields and nodes of its implementation.
+ * <p>
+ * Renderers are registered by class name with {@link CollectionRenderers}.
+ */
+interface CollectionRenderer {
+
+    /**
+     * Renders a collection, fetching only what's needed for its size and its first few entries.
+     *
+     * @param collection The collection to render.
+     * @param maxEntries The maximum number of entries to fetch.
+     * @param fetcher    The means of fetching values from the collection.
+     * @return The rendering, or null if the collection isn't laid out as expected (say, by a different version of the
+     * JDK), in which case it's shown as an ordinary object instead.
+     */
+    Rendering render(ObjectReference collection, int maxEntries, Fetcher fetcher);
+
+    /**
+     * Fetches values from the target VirtualMachine on behalf of a renderer, so that the round trips it makes are
+     * accounted for with the rest of the snapshot.
+     */
+    interface Fetcher {
+        /**
+         * Fetches the named fields of an object, in a single round trip. Any fields the object doesn't have are left
+         * out of the result.
+         */
+        Map<String, Value> getValues(ObjectReference object, String... names);
+
+        List<Value> getValues(ArrayReference array, int offset, int count);
+
+        int length(ArrayReference array);
+
+        /**
+         * Renders another collection, such as the map backing a set.
+         *
+         * @return The rendering, or null if there's no renderer for the collection or it failed.
+         */
+        Rendering render(ObjectReference collection, int maxEntries);
+    }
+
+    /**
+     * The size of a collection and its first few entries.
+     */
+    final class Rendering {
+        final int size;
+
+        /**
+         * The keys of the entries fetched, or null if the collection isn't a map.
+         */
+        final List<Value> keys;
+
+        /**
+         * The elements fetched, or the values of the entries fetched if the collection is a map.
+         */
+        final List<Value> values;
+
+        private Rendering(int size, List<Value> keys, List<Value> values) {
+            this.size = size;
+            this.keys = keys;
+            this.values = values;
+        }
+
+        static Rendering ofElements(int size, List<Value> elements) {
+            return new Rendering(size, null, elements);
+        }
+
+        static Rendering ofEntries(int size, List<Value> keys, List<Value> values) {
+            return new Rendering(size, keys, values);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package uk.ac.imperial.doc.mfldb.ui;
+
+import com.sun.jdi.ArrayReference;
+import com.sun.jdi.IntegerValue;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.Value;
+import uk.ac.imperial.doc.mfldb.ui.CollectionRenderer.Fetcher;
+import uk.ac.imperial.doc.mfldb.ui.CollectionRenderer.Rendering;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The registry of {@link CollectionRenderer}s, keyed by the name of the class each one renders.
+ * <p>
+ * The standard registry knows the internals of the common {@code java.util} lists, sets, maps and deques. Renderers are
+ * looked up by exact class name, as a subclass may well lay itself out differently.
+ */
+final class CollectionRenderers {
+
+    private final Map<String, CollectionRenderer> renderers = new ConcurrentHashMap<>();
+
+    /**
+     * Returns a new registry containing renderers for the common {@code java.util} collections.
+     */
+    static CollectionRenderers standard() {
+        CollectionRenderers registry = new CollectionRenderers();
+        registry.register("java.util.ArrayList", new ArrayListRenderer("size"));
+        registry.register("java.util.Vector", new ArrayListRenderer("elementCount"));
+        registry.register("java.util.Stack", new ArrayListRenderer("elementCount"));
+        registry.register("java.util.LinkedList", new LinkedListRenderer());
+        registry.register("java.util.ArrayDeque", new ArrayDequeRenderer());
+        registry.register("java.util.HashMap", new HashMapRenderer("size"));
+        registry.register("java.util.Hashtable", new HashMapRenderer("count"));
+        registry.register("java.util.LinkedHashMap", new LinkedHashMapRenderer());
+        registry.register("java.util.TreeMap", new TreeMapRenderer());
+        registry.register("java.util.HashSet", new SetRenderer("map"));
+        registry.register("java.util.LinkedHashSet", new SetRenderer("map"));
+        registry.register("java.util.TreeSet", new SetRenderer("m"));
+        return registry;
+    }
+
+    void register(String className, CollectionRenderer renderer) {
+        renderers.put(className, renderer);
+    }
+
+    /**
+     * Returns the renderer for a class, or null if there isn't one.
+     */
+    CollectionRenderer forClass(String className) {
+        return renderers.get(className);
+    }
+
+    private static int intValue(Value value) {
+        return value instanceof IntegerValue ? ((IntegerValue) value).value() : -1;
+    }
+
+    /**
+     * Renders lists backed by an array, such as ArrayList and Vector.
+     */
+    private static class ArrayListRenderer implements CollectionRenderer {
+        private final String sizeField;
+
+        ArrayListRenderer(String sizeField) {
+            this.sizeField = sizeField;
+        }
+
+        @Override
+        public Rendering render(ObjectReference collection, int maxEntries, Fetcher fetcher) {
+            Map<String, Value> fields = fetcher.getValues(collection, sizeField, "elementData");
+            int size = intValue(fields.get(sizeField));
+            if (size < 0 || !(fields.get("elementData") instanceof ArrayReference)) {
+                return null;
+            }
+            int count = Math.min(size, maxEntries);
+            ArrayReference elements = (ArrayReference) fields.get("elementData");
+            return Rendering.ofElements(size, count > 0 ? fetcher.getValues(elements, 0, count) : Collections.emptyList());
+        }
+    }
+
+    private static class LinkedListRenderer implements CollectionRenderer {
+        @Override
+        public Rendering render(ObjectReference collection, int maxEntries, Fetcher fetcher) {
+            Map<String, Value> fields = fetcher.getValues(collection, "size", "first");
+            int size = intValue(fields.get("size"));
+            if (size < 0) {
+                return null;
+            }
+            List<Value> elements = new ArrayList<>();
+            Value node = fields.get("first");
+            while (node instanceof ObjectReference && elements.size() < Math.min(size, maxEntries)) {
+                Map<String, Value> nodeFields = fetcher.getValues((ObjectReference) node, "item", "next");
+                elements.add(nodeFields.get("item"));
+                node = nodeFields.get("next");
+            }
+            return Rendering.ofElements(size, elements);
+        }
+    }
+
+    /**
+     * Renders ArrayDeques, whose elements are stored in a circular array between a head and a tail index.
+     */
+    private static class ArrayDequeRenderer implements CollectionRenderer {
+        @Override
+        public Rendering render(ObjectReference collection, int maxEntries, Fetcher fetcher) {
+            Map<String, Value> fields = fetcher.getValues(collection, "elements", "head", "tail");
+            int head = intValue(fields.get("head"));
+            int tail = intValue(fields.get("tail"));
+            if (head < 0 || tail < 0 || !(fields.get("elements") instanceof ArrayReference)) {
+                return null;
+            }
+            ArrayReference array = (ArrayReference) fields.get("elements");
+            int length = fetcher.length(array);
+            int size = tail >= head ? tail - head : tail - head + length;
+            int count = Math.min(size, maxEntries);
+
+            // The elements wanted may wrap around the end of the array.
+            List<Value> elements = new ArrayList<>(count);
+            int first = Math.min(count, length - head);
+            if (first > 0) {
+                elements.addAll(fetcher.getValues(array, head, first));
+            }
+            if (count > first) {
+                elements.addAll(fetcher.getValues(array, 0, count - first));
+            }
+            return Rendering.ofElements(size, elements);
+        }
+    }
+
+    /**
+     * Renders maps made of an array of buckets each holding a chain of entries, such as HashMap and Hashtable.
+     * <p>
+     * The buckets are fetched a few at a time until enough entries have been found, so that a sparse table isn't
+     * fetched all at once.
+     */
+    private static class HashMapRenderer implements CollectionRenderer {
+        private static final int BUCKETS_PER_FETCH = 64;
+
+        private final String sizeField;
+
+        HashMapRenderer(String sizeField) {
+            this.sizeField = sizeField;
+        }
+
+        @Override
+        public Rendering render(ObjectReference collection, int maxEntries, Fetcher fetcher) {
+            Map<String, Value> fields = fetcher.getValues(collection, sizeField, "table");
+            int size = intValue(fields.get(sizeField));
+            if (size < 0) {
+                return null;
+            }
+            List<Value> keys = new ArrayList<>();
+            List<Value> values = new ArrayList<>();
+            int count = Math.min(size, maxEntries);
+            if (count > 0 && fields.get("table") instanceof ArrayReference) {
+                ArrayReference table = (ArrayReference) fields.get("table");
+                int length = fetcher.length(table);
+                for (int offset = 0; offset < length && keys.size() < count; offset += BUCKETS_PER_FETCH) {
+                    for (Value bucket : fetcher.getValues(table, offset, Math.min(BUCKETS_PER_FETCH, length - offset))) {
+                        Value node = bucket;
+                        while (node instanceof ObjectReference && keys.size() < count) {
+                            Map<String, Value> nodeFields = fetcher.getValues((ObjectReference) node, "key", "value", "next");
+                            keys.add(nodeFields.get("key"));
+                            values.add(nodeFields.get("value"));
+                            node = nodeFields.get("next");
+                        }
+                    }
+                }
+            }
+            return Rendering.ofEntries(size, keys, values);
+        }
+    }
+
+    /**
+     * Renders LinkedHashMaps in iteration order, by following the links between their entries.
+     */
+    private static class LinkedHashMapRenderer implements CollectionRenderer {
+        @Override
+        public Rendering render(ObjectReference collection, int maxEntries, Fetcher fetcher) {
+            Map<String, Value> fields = fetcher.getValues(collection, "size", "head");
+            int size = intValue(fields.get("size"));
+            if (size < 0 || !fields.containsKey("head")) {
+                return null;
+            }
+            List<Value> keys = new ArrayList<>();
+            List<Value> values = new ArrayList<>();
+            Value node = fields.get("head");
+            while (node instanceof ObjectReference && keys.size() < Math.min(size, maxEntries)) {
+                Map<String, Value> nodeFields = fetcher.getValues((ObjectReference) node, "key", "value", "after");
+                keys.add(nodeFields.get("key"));
+                values.add(nodeFields.get("value"));
+                node = nodeFields.get("after");
+            }
+            return Rendering.ofEntries(size, keys, values);
+        }
+    }
+
+    /**
+     * Renders TreeMaps in order, walking only as much of the tree as is needed for the first few entries.
+     */
+    private static class TreeMapRenderer implements CollectionRenderer {
+        @Override
+        public Rendering render(ObjectReference collection, int maxEntries, Fetcher fetcher) {
+            Map<String, Value> fields = fetcher.getValues(collection, "size", "root");
+            int size = intValue(fields.get("size"));
+            if (size < 0) {
+                return null;
+            }
+            List<Value> keys = new ArrayList<>();
+            List<Value> values = new ArrayList<>();
+            Deque<Map<String, Value>> path = new ArrayDeque<>();
+            Value node = fields.get("root");
+            while (keys.size() < Math.min(size, maxEntries)) {
+                while (node instanceof ObjectReference) {
+                    Map<String, Value> nodeFields = fetcher.getValues((ObjectReference) node, "key", "value", "left", "right");
+                    path.push(nodeFields);
+                    node = nodeFields.get("left");
+                }
+                if (path.isEmpty()) {
+                    break;
+                }
+                Map<String, Value> next = path.pop();
+                keys.add(next.get("key"));
+                values.add(next.get("value"));
+                node = next.get("right");
+            }
+            return Rendering.ofEntries(size, keys, values);
+        }
+    }
+
+    /**
+     * Renders sets backed by a map, such as HashSet and TreeSet, as the keys of the map.
+     */
+    private static class SetRenderer implements CollectionRenderer {
+        private final String mapField;
+
+        SetRenderer(String mapField) {
+            this.mapField = mapField;
+        }
+
+        @Override
+        public Rendering render(ObjectReference collection, int maxEntries, Fetcher fetcher) {
+            Value map = fetcher.getValues(collection, mapField).get(mapField);
+            Rendering rendering = map instanceof ObjectReference ? fetcher.render((ObjectReference) map, maxEntries) : null;
+            return rendering != null && rendering.keys != null ? Rendering.ofElements(rendering.size, rendering.keys) : null;
+        }
+    }
+}
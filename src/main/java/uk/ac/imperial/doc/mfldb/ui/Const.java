@@ -37,10 +37,183 @@ final class Const {
     static final String RESUME_IMAGE_PATH = "resume@2x.png";
     static final Image RESUME_IMAGE = new Image(Const.class.getResourceAsStream(RESUME_IMAGE_PATH));
 
+    static final String BREAKPOINT_DIALOG_TITLE = "Breakpoint";
+    static final String BREAKPOINT_DIALOG_HEADER = "Breakpoint on line %d";
+    static final String CONDITION_LABEL = "Only when:";
+    static final String CONDITION_PROMPT = "Java boolean expression, e.g. i % 100 == 0";
+    static final String LOGGED_LABEL = "Log without suspending:";
+    static final String LOGGED_PROMPT = "Locals and fields, separated by commas";
+    static final String SKIP_LABEL = "Skip the first:";
+    static final String EVERY_LABEL = "Then every:";
+    static final String MAX_PER_SECOND_LABEL = "At most a second:";
+    static final String HITS_PROMPT = "Number of hits";
+    static final String CONDITION_DESCRIPTION = "When ";
+    static final String CONDITION_FAILED_DESCRIPTION = " (failed, so stops every time: %s)";
+    static final String CONDITION_FAILED_LOG = "Condition at %s:%d failed, so it stops every time: %s";
+    static final String LOGPOINT_DESCRIPTION = "Logs ";
+    static final String HIT_COUNT_DESCRIPTION = "Only ";
+
     static final String CODEAREA_HTML = "CodeArea.html";
 
     static final String STACK_AND_HEAP_HTML = "StackAndHeap.html";
 
+    /**
+     * System property which, when true, logs the JDWP round trip counts of each stack and heap snapshot to stderr.
+     */
+    static final String SNAPSHOT_STATS_PROPERTY = "mfldb.snapshotStats";
+
+    /**
+     * System property holding the options launched VirtualMachines are given.
+     */
+    static final String LAUNCH_OPTIONS_PROPERTY = "mfldb.launchOptions";
+
+    static final String DEFAULT_LAUNCH_OPTIONS = "-cp .";
+
+    /**
+     * Command line option which attaches to one or more running VirtualMachines, each at a host:port or a process id,
+     * rather than launching one.
+     */
+    static final String ATTACH_OPTION = "--attach";
+
+    /**
+     * System property which, when set to a path, appends every logpoint hit to that file as well as the log panel.
+     */
+    static final String LOGPOINT_FILE_PROPERTY = "mfldb.logpointFile";
+
+    /**
+     * The most lines kept in the log panel.
+     */
+    static final int LOG_PANEL_MAX_LINES = 1000;
+
+    /**
+     * The number of threads dispatching the events of every session.
+     */
+    static final int EVENT_DISPATCH_THREADS = 2;
+
+    /**
+     * System property which, when set to a path, records every step of each session to that file, see
+     * {@link SnapshotStore}. When sessions are debugged together, the second and later are recorded to the path with
+     * ".2", ".3" and so on appended.
+     */
+    static final String RECORDING_FILE_PROPERTY = "mfldb.recording";
+
+    /**
+     * The size of the regions of a recording file mapped at a time.
+     */
+    static final int RECORDING_REGION_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * The file in the project directory holding the project's own traversal rules, if any.
+     */
+    static final String TRAVERSAL_RULES_FILE = ".mfldb-traversal";
+
+    /**
+     * System properties overriding how far a snapshot traverses the heap before showing stubs, see
+     * {@link TraversalBudget}.
+     */
+    static final String TRAVERSAL_MAX_DEPTH_PROPERTY = "mfldb.traversalMaxDepth";
+    static final String TRAVERSAL_MAX_OBJECTS_PROPERTY = "mfldb.traversalMaxObjects";
+    static final String TRAVERSAL_MAX_BYTES_PROPERTY = "mfldb.traversalMaxBytes";
+
+    static final int DEFAULT_TRAVERSAL_MAX_DEPTH = 8;
+    static final int DEFAULT_TRAVERSAL_MAX_OBJECTS = 500;
+    static final long DEFAULT_TRAVERSAL_MAX_BYTES = 1024 * 1024;
+
+    /**
+     * The number of elements of an array fetched and shown at a time.
+     */
+    static final int ARRAY_WINDOW_SIZE = 100;
+
+    /**
+     * The number of characters of a string fetched and shown at a time; shorter strings are shown inline.
+     */
+    static final int STRING_WINDOW_SIZE = 1000;
+
+    /**
+     * Chains of objects at least this long are collapsed into a summary showing the first and last few.
+     */
+    static final int CHAIN_MIN_LENGTH = 10;
+    static final int CHAIN_ENDS = 3;
+
+    /**
+     * The maximum number of nodes of a chain walked to find its length; the rest is left as a stub.
+     */
+    static final int CHAIN_MAX_LENGTH = 1000;
+
+    /**
+     * The number of frames of the stack fetched at a time, starting from the innermost.
+     */
+    static final int STACK_PAGE_FRAMES = 20;
+
+    /**
+     * The number of frames shown at either end of a run of recursive calls; the rest of the run is summarised.
+     */
+    static final int RECURSION_SHOWN_FRAMES = 2;
+
+    /**
+     * The number of elements or entries of a collection fetched and shown.
+     */
+    static final int COLLECTION_ENTRIES = 20;
+
+    /**
+     * The number of threads used to resolve the frames and heap objects of a snapshot in parallel, and the number of
+     * heap objects resolved in parallel between checks of the traversal budget.
+     */
+    static final int SNAPSHOT_THREADS = 8;
+    static final int SNAPSHOT_BATCH_SIZE = 32;
+
+    /**
+     * System properties overriding how many objects shown in the stack and heap view are kept from being garbage
+     * collected, and for how many suspensions after they were last shown, see {@link ObjectPins}.
+     */
+    static final String PIN_MAX_OBJECTS_PROPERTY = "mfldb.pinMaxObjects";
+    static final String PIN_HORIZON_PROPERTY = "mfldb.pinHorizon";
+
+    /**
+     * The maximum number of objects shown in the stack and heap view kept from being garbage collected, the number of
+     * suspensions an object stays pinned after it was last shown, and the number of objects released at once.
+     */
+    static final int DEFAULT_PIN_MAX_OBJECTS = 2000;
+    static final int DEFAULT_PIN_HORIZON = 2;
+    static final int PIN_RELEASE_BATCH = 64;
+
+    /**
+     * System properties overriding how many steps of each session are kept in its history, and its (estimated) maximum
+     * size in bytes, see {@link SnapshotHistory}.
+     */
+    static final String HISTORY_MAX_STEPS_PROPERTY = "mfldb.historyMaxSteps";
+    static final String HISTORY_MAX_BYTES_PROPERTY = "mfldb.historyMaxBytes";
+
+    /**
+     * The maximum number of steps kept in the history of a session, and the (estimated) maximum size of the history.
+     */
+    static final int DEFAULT_HISTORY_MAX_STEPS = 500;
+    static final long DEFAULT_HISTORY_MAX_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * The number of steps between the earlier steps of a history which are kept whole once they've been reconstructed.
+     */
+    static final int HISTORY_CHECKPOINT_INTERVAL = 16;
+
+    /**
+     * The maximum number of objects whose fields are prefetched for each snapshot.
+     */
+    static final int PREFETCH_MAX_OBJECTS = 200;
+
+    /**
+     * The maximum number of heap objects sent to the stack and heap view at once; larger patches are drawn progressively.
+     */
+    static final int PATCH_CHUNK_OBJECTS = 200;
+
+    /**
+     * Geometry of the heap objects in the stack and heap view, in pixels, which must agree with StackAndHeap.js.
+     */
+    static final int HEAP_OBJECT_PADDING = 6;
+    static final int HEAP_OBJECT_TITLE_HEIGHT = 20;
+    static final int HEAP_OBJECT_TABLE_MARGIN = 6;
+    static final int HEAP_OBJECT_ROW_HEIGHT = 22;
+    static final int HEAP_OBJECT_GAP = 24;
+
     private Const() {
         // No instances
     }
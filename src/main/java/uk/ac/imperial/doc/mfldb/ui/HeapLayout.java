@@ -0,0 +1,200 @@
+package uk.ac.imperial.doc.mfldb.ui;
+
+import uk.ac.imperial.doc.mfldb.ui.StackAndHeapController.HeapObjectInfo;
+import uk.ac.imperial.doc.mfldb.ui.StackAndHeapController.HeapObjectPatch;
+import uk.ac.imperial.doc.mfldb.ui.StackAndHeapController.SnapshotPatch;
+import uk.ac.imperial.doc.mfldb.ui.StackAndHeapController.VariableInfo;
+
+import java.util.*;
+
+import static uk.ac.imperial.doc.mfldb.ui.Const.*;
+
+/**
+ * Lays out the heap diagram incrementally, one patch at a time.
+ * <p>
+ * Objects are placed in columns by their distance from the stack, in the first gap in their column large enough to
+ * hold them. Once placed, an object keeps its position for as long as it stays on the heap, so the diagram doesn't jump
+ * around between steps; the only objects ever moved are those below an object in the same column which has grown.
+ * The work done for each patch is therefore proportional to the number of objects it adds, removes or resizes (plus a
+ * walk of the heap's references when anything is added, to find the new objects' columns).
+ * <p>
+ * A layout is not thread safe, but it is only given immutable inputs so it can be confined to a background thread.
+ */
+class HeapLayout {
+
+    /**
+     * Map from object id to its position.
+     */
+    private final Map<String, Position> positions = new HashMap<>();
+
+    /**
+     * The objects in each column, keyed and ordered by their y coordinate.
+     */
+    private final List<TreeMap<Integer, String>> columns = new ArrayList<>();
+
+    /**
+     * Updates the layout for a patch.
+     *
+     * @param patch The patch which has been applied to the heap.
+     * @param heap  The whole heap, after the patch.
+     * @param roots The ids of the objects referred to directly from the stack.
+     * @return The positions of the objects in the patch, and of any others which had to be moved.
+     */
+    Update update(SnapshotPatch patch, Map<String, HeapObjectInfo> heap, Set<String> roots) {
+        for (String id : patch.removed) {
+            Position position = positions.remove(id);
+            if (position != null) {
+                columns.get(position.column).remove(position.y);
+            }
+        }
+
+        Map<String, Position> updated = new LinkedHashMap<>();
+        Map<String, Integer> depths = null;
+        for (HeapObjectPatch objectPatch : patch.objects) {
+            HeapObjectInfo object = objectPatch.object;
+            int height = heightOf(object);
+            Position position = positions.get(object.id);
+            if (position == null) {
+                if (depths == null) {
+                    depths = depthsFrom(roots, heap);
+                }
+                position = place(object.id, depths.getOrDefault(object.id, 0), height);
+            } else if (height > position.height) {
+                moveDown(position.column, position.y, height - position.height, updated);
+                position = new Position(position.column, position.y, height);
+                positions.put(object.id, position);
+            } else if (height < position.height) {
+                // Leave a gap rather than moving everything below back up.
+                position = new Position(position.column, position.y, height);
+                positions.put(object.id, position);
+            }
+            updated.put(object.id, position);
+        }
+
+        int height = 0;
+        for (TreeMap<Integer, String> column : columns) {
+            if (!column.isEmpty()) {
+                height = Math.max(height, bottomOf(positions.get(column.lastEntry().getValue())));
+            }
+        }
+        return new Update(updated, columns.size(), height);
+    }
+
+    /**
+     * Forgets every object placed so far, so that the next patch is laid out afresh.
+     */
+    void clear() {
+        positions.clear();
+        columns.clear();
+    }
+
+    /**
+     * Places an object in the first gap in its column which is large enough for it.
+     */
+    private Position place(String id, int depth, int height) {
+        while (columns.size() <= depth) {
+            columns.add(new TreeMap<>());
+        }
+        TreeMap<Integer, String> column = columns.get(depth);
+
+        int y = HEAP_OBJECT_GAP;
+        for (Map.Entry<Integer, String> entry : column.entrySet()) {
+            if (entry.getKey() - y >= height + HEAP_OBJECT_GAP) {
+                break;
+            }
+            y = bottomOf(positions.get(entry.getValue()));
+        }
+
+        Position position = new Position(depth, y, height);
+        positions.put(id, position);
+        column.put(y, id);
+        return position;
+    }
+
+    /**
+     * Moves every object below a given point in a column down, to make room for an object which has grown.
+     */
+    private void moveDown(int columnIndex, int y, int distance, Map<String, Position> updated) {
+        TreeMap<Integer, String> column = columns.get(columnIndex);
+        SortedMap<Integer, String> below = column.tailMap(y + 1);
+        List<String> moved = new ArrayList<>(below.values());
+        below.clear();
+        for (String id : moved) {
+            Position old = positions.get(id);
+            Position position = new Position(old.column, old.y + distance, old.height);
+            positions.put(id, position);
+            column.put(position.y, id);
+            updated.put(id, position);
+        }
+    }
+
+    private static int bottomOf(Position position) {
+        return position.y + position.height + HEAP_OBJECT_GAP;
+    }
+
+    /**
+     * Returns the height an object will be drawn at, which must agree with StackAndHeap.js.
+     */
+    private static int heightOf(HeapObjectInfo object) {
+        boolean windowed = object.length >= 0 && object.count < object.length;
+        return 2 * HEAP_OBJECT_PADDING + HEAP_OBJECT_TITLE_HEIGHT + (windowed ? HEAP_OBJECT_ROW_HEIGHT : 0)
+                + HEAP_OBJECT_TABLE_MARGIN + object.fields.length * HEAP_OBJECT_ROW_HEIGHT;
+    }
+
+    /**
+     * Finds the distance of every object on the heap from the stack, breadth first.
+     */
+    private static Map<String, Integer> depthsFrom(Set<String> roots, Map<String, HeapObjectInfo> heap) {
+        Map<String, Integer> depths = new HashMap<>();
+        Deque<String> queue = new ArrayDeque<>();
+        for (String root : roots) {
+            if (heap.containsKey(root) && depths.putIfAbsent(root, 0) == null) {
+                queue.add(root);
+            }
+        }
+        while (!queue.isEmpty()) {
+            String id = queue.poll();
+            int depth = depths.get(id);
+            for (VariableInfo field : heap.get(id).fields) {
+                if (field.isReference && heap.containsKey(field.value) && depths.putIfAbsent(field.value, depth + 1) == null) {
+                    queue.add(field.value);
+                }
+            }
+        }
+        return depths;
+    }
+
+    static final class Position {
+        final int column;
+        final int y;
+        final int height;
+
+        Position(int column, int y, int height) {
+            this.column = column;
+            this.y = y;
+            this.height = height;
+        }
+    }
+
+    /**
+     * The result of updating the layout for a patch.
+     */
+    static final class Update {
+        /**
+         * The positions of every object in the patch, and of any other objects which moved, keyed by id.
+         */
+        final Map<String, Position> positions;
+
+        /**
+         * The number of columns and the height of the tallest, which together give the extent of the diagram.
+         */
+        final int columns;
+        final int height;
+
+        Update(Map<String, Position> positions, int columns, int height) {
+            this.positions = positions;
+            this.columns = columns;
+            this.height = height;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package uk.ac.imperial.doc.mfldb.ui;
+
+import javafx.application.Platform;
+import uk.ac.imperial.doc.mfldb.bridge.LogpointHit;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Streams the hits of every session's logpoints, and notes about breakpoints such as conditions which failed, to the
+ * log panel and, optionally, a file.
+ * <p>
+ * Hits arrive on the event dispatch threads, where they're written to the file straight away and queued for the panel.
+ * The queue is moved to the panel a batch at a time on the FX thread, and the panel only keeps the latest lines.
+ */
+final class LogpointLog implements Closeable {
+
+    private final List<String> lines;
+
+    private final int maxLines;
+
+    private final Executor fxExecutor;
+
+    private final Writer file;
+
+    private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * @param lines    The lines shown in the panel, only changed on the FX thread.
+     * @param maxLines The most lines kept in the panel.
+     * @param file     The file to append every hit to, or null.
+     */
+    LogpointLog(List<String> lines, int maxLines, Path file) throws IOException {
+        this(lines, maxLines, file, Platform::runLater);
+    }
+
+    LogpointLog(List<String> lines, int maxLines, Path file, Executor fxExecutor) throws IOException {
+        this.lines = lines;
+        this.maxLines = maxLines;
+        this.fxExecutor = fxExecutor;
+        this.file = file == null ? null : Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Logs a hit, from any thread.
+     */
+    void log(LogpointHit hit) {
+        note(hit.toString());
+    }
+
+    /**
+     * Logs a line other than a hit, from any thread.
+     */
+    void note(String line) {
+        if (file != null) {
+            synchronized (file) {
+                try {
+                    file.write(line);
+                    file.write(System.lineSeparator());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        pending.add(line);
+        if (scheduled.compareAndSet(false, true)) {
+            fxExecutor.execute(this::showPending);
+        }
+    }
+
+    private void showPending() {
+        scheduled.set(false);
+        List<String> batch = new ArrayList<>();
+        for (String line = pending.poll(); line != null; line = pending.poll()) {
+            batch.add(line);
+        }
+        if (batch.size() > maxLines) {
+            batch = batch.subList(batch.size() - maxLines, batch.size());
+        }
+        int overflow = lines.size() + batch.size() - maxLines;
+        if (overflow > 0) {
+            lines.subList(0, overflow).clear();
+        }
+        lines.addAll(batch);
+    }
+
+    /**
+     * Writes everything logged so far out to the file.
+     */
+    void flush() {
+        if (file != null) {
+            synchronized (file) {
+                try {
+                    file.flush();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            synchronized (file) {
+                file.close();
+            }
+        }
+    }
+}
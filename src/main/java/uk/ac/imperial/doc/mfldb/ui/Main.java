@@ -30,9 +30,13 @@ public class Main extends Application {
         Parent root = loader.load();
 
         List<String> args = getParameters().getRaw();
-        String cmd = args.stream().collect(Collectors.joining(" "));
         controller = loader.getController();
-        controller.setCmd(cmd);
+        if (args.size() >= 2 && args.get(0).equals(ATTACH_OPTION)) {
+            controller.setAttachAddresses(args.subList(1, args.size()));
+        } else {
+            String cmd = args.stream().collect(Collectors.joining(" "));
+            controller.setCmd(cmd);
+        }
 
         Scene scene = new Scene(root, MAIN_WINDOW_WIDTH, MAIN_WINDOW_HEIGHT);
         primaryStage.setTitle(MAIN_WINDOW_TITLE);
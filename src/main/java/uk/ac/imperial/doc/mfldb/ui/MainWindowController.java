@@ -1,20 +1,23 @@
 package uk.ac.imperial.doc.mfldb.ui;
 
-import com.sun.jdi.IncompatibleThreadStateException;
-import com.sun.jdi.Location;
-import com.sun.jdi.StackFrame;
+import com.google.common.base.Splitter;
 import com.sun.jdi.ThreadReference;
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
-import javafx.scene.control.Button;
-import javafx.scene.control.TreeItem;
+import javafx.scene.control.*;
 import javafx.scene.image.ImageView;
+import javafx.scene.layout.GridPane;
 import javafx.scene.web.WebView;
 import uk.ac.imperial.doc.mfldb.bridge.BreakpointSpec;
+import uk.ac.imperial.doc.mfldb.bridge.Condition;
+import uk.ac.imperial.doc.mfldb.bridge.ConditionException;
 import uk.ac.imperial.doc.mfldb.bridge.DebugSession;
 import uk.ac.imperial.doc.mfldb.bridge.DebugSessionException;
+import uk.ac.imperial.doc.mfldb.bridge.HitCount;
+import uk.ac.imperial.doc.mfldb.bridge.SessionRegistry;
 import uk.ac.imperial.doc.mfldb.packagetree.BreakpointType;
 import uk.ac.imperial.doc.mfldb.packagetree.Class;
 import uk.ac.imperial.doc.mfldb.packagetree.Package;
@@ -24,8 +27,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.*;
 
 import static uk.ac.imperial.doc.mfldb.ui.Const.*;
 
@@ -33,6 +35,16 @@ public class MainWindowController {
 
     private final Map<BreakpointSpec, BreakpointStatus> breakpoints = new LinkedHashMap<>();
 
+    private final SessionRegistry sessions = new SessionRegistry(EVENT_DISPATCH_THREADS);
+
+    private final Map<DebugSession, ChangeListener<DebugSession.State>> stateListeners = new HashMap<>();
+
+    /**
+     * What each session is called in the session selector: the command it was launched with, or the address it was
+     * attached to.
+     */
+    private final Map<DebugSession, String> sessionNames = new HashMap<>();
+
     @FXML
     protected Button runButton;
 
@@ -51,9 +63,18 @@ public class MainWindowController {
     @FXML
     protected Button stepOutButton;
 
+    @FXML
+    protected ComboBox<DebugSession> sessionSelector;
+
+    @FXML
+    protected Slider historySlider;
+
     @FXML
     protected TreeViewWithItems<PackageTreeItem> packageTree;
 
+    @FXML
+    protected ListView<String> logList;
+
     @FXML
     protected WebView codeArea;
 
@@ -62,55 +83,55 @@ public class MainWindowController {
 
     private CodeAreaController codeAreaController;
     private StackAndHeapController stackAndHeapController;
+    private LogpointLog logpointLog;
     private Class selectedClass;
+    /**
+     * The session shown, which is the one which most recently suspended unless another has been selected since.
+     */
     private DebugSession session;
     private Package rootPackage;
     private String cmd;
-
-    // Declare this as a lambda because removeListener() doesn't work with method references. Fucking JVM.
-    private ChangeListener<DebugSession.State> debugSessionStateChanged = (observable, oldValue, newValue) -> {
-        if (newValue == DebugSession.State.RUNNING && oldValue == DebugSession.State.READY) {
-            runButton.setText(RERUN_BUTTON_LABEL);
-            runButton.setGraphic(new ImageView(RERUN_IMAGE));
-            suspendButton.setText(SUSPEND_BUTTON_LABEL);
-            suspendButton.setGraphic(new ImageView(SUSPEND_IMAGE));
-            suspendButton.setDisable(false);
-            stopButton.setDisable(false);
-        } else if (newValue == DebugSession.State.SUSPENDED) {
-            suspendButton.setText(RESUME_BUTTON_LABEL);
-            suspendButton.setGraphic(new ImageView(RESUME_IMAGE));
-            stepOverButton.setDisable(false);
-            stepIntoButton.setDisable(false);
-            stepOutButton.setDisable(false);
-            moveCarretToCurrentPosition();
-        } else if (newValue == DebugSession.State.RUNNING && oldValue == DebugSession.State.SUSPENDED) {
-            suspendButton.setText(SUSPEND_BUTTON_LABEL);
-            suspendButton.setGraphic(new ImageView(SUSPEND_IMAGE));
-            stepOverButton.setDisable(true);
-            stepIntoButton.setDisable(true);
-            stepOutButton.setDisable(true);
-        } else if (newValue == DebugSession.State.TERMINATED) {
-            runButton.setText(RUN_BUTTON_LABEL);
-            runButton.setGraphic(new ImageView(RUN_IMAGE));
-            suspendButton.setText(SUSPEND_BUTTON_LABEL);
-            suspendButton.setGraphic(new ImageView(SUSPEND_IMAGE));
-            suspendButton.setDisable(true);
-            stopButton.setDisable(true);
-            stepOverButton.setDisable(true);
-            stepIntoButton.setDisable(true);
-            stepOutButton.setDisable(true);
-            ensureEnded();
-        }
-    };
+    private List<String> attachAddresses = Collections.emptyList();
+
+    // Return a lambda because removeListener() doesn't work with method references. Fucking JVM.
+    private ChangeListener<DebugSession.State> stateListener(DebugSession source) {
+        return (observable, oldValue, newValue) -> {
+            if (newValue == DebugSession.State.TERMINATED) {
+                end(source);
+                return;
+            }
+            if (newValue == DebugSession.State.SUSPENDED) {
+                focus(source);
+            }
+            if (source != session) {
+                // The toolbar and views only follow the session shown.
+                return;
+            }
+            refreshToolbar(newValue);
+            if (newValue == DebugSession.State.SUSPENDED) {
+                moveCarretToCurrentPosition(true);
+            } else if (newValue == DebugSession.State.RUNNING && oldValue == DebugSession.State.SUSPENDED) {
+                stackAndHeapController.targetResumed();
+            }
+        };
+    }
 
     public void ensureEnded() {
+        List<DebugSession> ended = new ArrayList<>(sessions.getSessions());
+        ended.forEach(this::forget);
+        sessions.endAll();
+        ended.forEach(stackAndHeapController::endSession);
+        sessionSelector.getItems().clear();
+        sessionSelector.setDisable(true);
+        sessionNames.clear();
+        if (logpointLog != null) {
+            logpointLog.flush();
+        }
         if (session != null) {
-            // Remove the session state changed event handler to avoid handling stale queued events
-            session.stateProperty().removeListener(debugSessionStateChanged);
-            session.setBreakpointResolutionSuccessCallback(null);
-            session.setBreakpointResolutionFailureCallback(null);
-            session.ensureEnded();
             session = null;
+            stackAndHeapController.setSession(null);
+            refreshHistorySlider();
+            refreshToolbar(DebugSession.State.TERMINATED);
 
             // Change all breakpoints to be back to the "ADDED" state.
             breakpoints.replaceAll((spec, status) -> BreakpointStatus.ADDED);
@@ -124,6 +145,16 @@ public class MainWindowController {
         this.cmd = cmd;
     }
 
+    /**
+     * Sets running VirtualMachines to attach to and debug together instead of launching one.
+     *
+     * @param attachAddresses For each VirtualMachine, either a host:port it is listening for a debugger on, or its
+     *                        process id.
+     */
+    public void setAttachAddresses(List<String> attachAddresses) {
+        this.attachAddresses = attachAddresses;
+    }
+
     @FXML
     protected void initialize() {
         try {
@@ -136,29 +167,164 @@ public class MainWindowController {
         packageTree.setRoot(treeItemFactory(rootPackage));
         codeAreaController = new CodeAreaController(codeArea);
         codeAreaController.setBreakpointToggleHandler(this::handleBreakpointToggle);
+        codeAreaController.setBreakpointEditHandler(this::handleBreakpointEdit);
         stackAndHeapController = new StackAndHeapController(stackAndHeap);
+        stackAndHeapController.loadTraversalRules(Paths.get(TRAVERSAL_RULES_FILE));
+        stackAndHeapController.setTraversalBudget(
+                Integer.getInteger(TRAVERSAL_MAX_DEPTH_PROPERTY, DEFAULT_TRAVERSAL_MAX_DEPTH),
+                Integer.getInteger(TRAVERSAL_MAX_OBJECTS_PROPERTY, DEFAULT_TRAVERSAL_MAX_OBJECTS),
+                Long.getLong(TRAVERSAL_MAX_BYTES_PROPERTY, DEFAULT_TRAVERSAL_MAX_BYTES));
+        stackAndHeapController.setHistoryBudget(
+                Integer.getInteger(HISTORY_MAX_STEPS_PROPERTY, DEFAULT_HISTORY_MAX_STEPS),
+                Long.getLong(HISTORY_MAX_BYTES_PROPERTY, DEFAULT_HISTORY_MAX_BYTES));
+        stackAndHeapController.setObjectPinning(
+                Integer.getInteger(PIN_MAX_OBJECTS_PROPERTY, DEFAULT_PIN_MAX_OBJECTS),
+                Integer.getInteger(PIN_HORIZON_PROPERTY, DEFAULT_PIN_HORIZON));
+        historySlider.valueProperty().addListener((observable, oldValue, newValue) ->
+                stackAndHeapController.showStep((int) Math.round(newValue.doubleValue())));
+        sessionSelector.setCellFactory(list -> new SessionCell());
+        sessionSelector.setButtonCell(new SessionCell());
+        sessionSelector.getSelectionModel().selectedItemProperty().addListener(this::sessionSelectionChanged);
+        String logpointFile = System.getProperty(LOGPOINT_FILE_PROPERTY);
+        try {
+            logpointLog = new LogpointLog(logList.getItems(), LOG_PANEL_MAX_LINES,
+                    logpointFile != null ? Paths.get(logpointFile) : null);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     @FXML
     protected void onEnd(ActionEvent actionEvent) {
-        session.ensureEnded();
+        // Through the registry, so that each session is ended exactly once.
+        ensureEnded();
     }
 
     @FXML
     protected void onRun(ActionEvent actionEvent) {
         ensureEnded();
         try {
-            session = new DebugSession(cmd);
-            session.stateProperty().addListener(debugSessionStateChanged);
-            session.setBreakpointResolutionSuccessCallback(this::handleBreakpointResolutionSuccess);
-            session.setBreakpointResolutionFailureCallback(this::handleBreakpointResolutionFailure);
-            breakpoints.keySet().forEach(session::addBreakpoint);
-            session.resume();
+            if (attachAddresses.isEmpty()) {
+                start(sessions.launch(cmd, System.getProperty(LAUNCH_OPTIONS_PROPERTY, DEFAULT_LAUNCH_OPTIONS)), cmd);
+            } else {
+                for (String address : attachAddresses) {
+                    start(attach(address), address);
+                }
+            }
         } catch (DebugSessionException e) {
             e.printStackTrace();
         }
     }
 
+    private DebugSession attach(String address) throws DebugSessionException {
+        int colon = address.lastIndexOf(':');
+        try {
+            if (colon < 0) {
+                return sessions.attachToProcess(Integer.parseInt(address));
+            }
+            return sessions.attach(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+        } catch (NumberFormatException e) {
+            throw new DebugSessionException("Bad attach address " + address);
+        }
+    }
+
+    private void start(DebugSession started, String name) {
+        sessionNames.put(started, name);
+        sessionSelector.getItems().add(started);
+        sessionSelector.setDisable(sessionSelector.getItems().size() < 2);
+        ChangeListener<DebugSession.State> listener = stateListener(started);
+        stateListeners.put(started, listener);
+        started.stateProperty().addListener(listener);
+        started.setBreakpointResolutionSuccessCallback(this::handleBreakpointResolutionSuccess);
+        started.setBreakpointResolutionFailureCallback(this::handleBreakpointResolutionFailure);
+        if (logpointLog != null) {
+            started.setLogpointHitCallback(logpointLog::log);
+        }
+        started.setConditionFailureCallback(this::handleConditionFailure);
+        breakpoints.keySet().forEach(started::addBreakpoint);
+        if (session == null) {
+            focus(started);
+        }
+        started.resume();
+    }
+
+    /**
+     * Shows a session in the toolbar and views.
+     */
+    private void focus(DebugSession focused) {
+        if (focused != session) {
+            session = focused;
+            sessionSelector.getSelectionModel().select(focused);
+            stackAndHeapController.setSession(focused);
+            refreshHistorySlider();
+        }
+    }
+
+    /**
+     * Shows the session selected, as it was when last shown, so that a session which suspended before the one shown can
+     * be looked at and resumed.
+     */
+    private void sessionSelectionChanged(ObservableValue<? extends DebugSession> observable, DebugSession oldValue,
+                                         DebugSession newValue) {
+        if (newValue == null || newValue == session) {
+            return;
+        }
+        focus(newValue);
+        refreshToolbar(session.getState());
+        if (session.getState() == DebugSession.State.SUSPENDED) {
+            moveCarretToCurrentPosition(false);
+        }
+    }
+
+    /**
+     * Ends a session whose VirtualMachine has gone, showing another session in its place if it was the one shown.
+     */
+    private void end(DebugSession ended) {
+        forget(ended);
+        sessions.end(ended);
+        stackAndHeapController.endSession(ended);
+        sessionSelector.getItems().remove(ended);
+        sessionSelector.setDisable(sessionSelector.getItems().size() < 2);
+        sessionNames.remove(ended);
+        if (ended == session) {
+            List<DebugSession> remaining = sessions.getSessions();
+            if (remaining.isEmpty()) {
+                ensureEnded();
+            } else {
+                focus(remaining.get(0));
+                refreshToolbar(session.getState());
+            }
+        }
+    }
+
+    /**
+     * Stops handling a session's events, to avoid handling stale queued events once it has ended.
+     */
+    private void forget(DebugSession forgotten) {
+        ChangeListener<DebugSession.State> listener = stateListeners.remove(forgotten);
+        if (listener != null) {
+            forgotten.stateProperty().removeListener(listener);
+        }
+        forgotten.setBreakpointResolutionSuccessCallback(null);
+        forgotten.setBreakpointResolutionFailureCallback(null);
+        forgotten.setLogpointHitCallback(null);
+        forgotten.setConditionFailureCallback(null);
+    }
+
+    private void refreshToolbar(DebugSession.State state) {
+        boolean started = state == DebugSession.State.RUNNING || state == DebugSession.State.SUSPENDED;
+        boolean suspended = state == DebugSession.State.SUSPENDED;
+        runButton.setText(started ? RERUN_BUTTON_LABEL : RUN_BUTTON_LABEL);
+        runButton.setGraphic(new ImageView(started ? RERUN_IMAGE : RUN_IMAGE));
+        suspendButton.setText(suspended ? RESUME_BUTTON_LABEL : SUSPEND_BUTTON_LABEL);
+        suspendButton.setGraphic(new ImageView(suspended ? RESUME_IMAGE : SUSPEND_IMAGE));
+        suspendButton.setDisable(!started);
+        stopButton.setDisable(!started);
+        stepOverButton.setDisable(!suspended);
+        stepIntoButton.setDisable(!suspended);
+        stepOutButton.setDisable(!suspended);
+    }
+
     @FXML
     protected void onSuspend(ActionEvent actionEvent) {
         if (session.getState() == DebugSession.State.RUNNING) {
@@ -218,69 +384,215 @@ public class MainWindowController {
         if (candidateType != null) {
             BreakpointSpec spec = new BreakpointSpec(selectedClass.getQualifiedName(), lineNo);
             if (!breakpoints.containsKey(spec)) {
-                breakpoints.put(spec, BreakpointStatus.ADDED);
-                codeAreaController.markBreakpoint(lineNo, BreakpointType.LINE);
-                if (session != null && !session.isTerminated()) {
-                    session.addBreakpoint(spec);
-                }
+                addBreakpoint(spec);
             } else {
-                breakpoints.remove(spec);
-                codeAreaController.clearBreakpoint(lineNo);
-                if (session != null && !session.isTerminated()) {
-                    session.removeBreakpoint(spec);
+                removeBreakpoint(spec);
+            }
+        }
+    }
+
+    /**
+     * Asks when a breakpoint should stop and which values it should log instead of stopping, if any.
+     */
+    private void handleBreakpointEdit(int lineNo) {
+        BreakpointType candidateType = selectedClass.getBreakpointTypeMap().get(Long.valueOf(lineNo));
+        if (candidateType != null) {
+            String className = selectedClass.getQualifiedName();
+            BreakpointSpec existing = findBreakpoint(new BreakpointSpec(className, lineNo));
+
+            TextField condition = new TextField(existing != null && existing.condition != null ?
+                    existing.condition.toString() : "");
+            condition.setPromptText(CONDITION_PROMPT);
+            TextField logged = new TextField(existing != null ? String.join(", ", existing.logged) : "");
+            logged.setPromptText(LOGGED_PROMPT);
+            GridPane grid = new GridPane();
+            grid.setHgap(10);
+            grid.setVgap(10);
+            grid.addRow(0, new Label(CONDITION_LABEL), condition);
+            grid.addRow(1, new Label(LOGGED_LABEL), logged);
+            HitCount hits = existing != null ? existing.hitCount : HitCount.ALWAYS;
+            TextField skip = hitsField(hits.skip, 0);
+            TextField every = hitsField(hits.every, 1);
+            TextField maxPerSecond = hitsField(hits.maxPerSecond, 0);
+            grid.addRow(2, new Label(SKIP_LABEL), skip);
+            grid.addRow(3, new Label(EVERY_LABEL), every);
+            grid.addRow(4, new Label(MAX_PER_SECOND_LABEL), maxPerSecond);
+
+            Dialog<ButtonType> dialog = new Dialog<>();
+            dialog.setTitle(BREAKPOINT_DIALOG_TITLE);
+            dialog.setHeaderText(String.format(BREAKPOINT_DIALOG_HEADER, lineNo));
+            dialog.getDialogPane().setContent(grid);
+            dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+            if (dialog.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK) {
+                return;
+            }
+
+            try {
+                // Parse the condition once, here, rather than every time the breakpoint is hit.
+                String source = condition.getText().trim();
+                BreakpointSpec spec = new BreakpointSpec(className, lineNo,
+                        Splitter.on(',').trimResults().omitEmptyStrings().splitToList(logged.getText()),
+                        source.isEmpty() ? null : Condition.parse(source),
+                        new HitCount(parseHits(skip, 0), parseHits(every, 1), parseHits(maxPerSecond, 0)));
+                if (existing != null) {
+                    removeBreakpoint(existing);
                 }
+                addBreakpoint(spec);
+            } catch (ConditionException | IllegalArgumentException e) {
+                Alert alert = new Alert(Alert.AlertType.ERROR, e.getMessage());
+                alert.setHeaderText(String.format(BREAKPOINT_DIALOG_HEADER, lineNo));
+                alert.showAndWait();
+            }
+        }
+    }
+
+    private static TextField hitsField(int value, int blank) {
+        TextField field = new TextField(value != blank ? String.valueOf(value) : "");
+        field.setPromptText(HITS_PROMPT);
+        return field;
+    }
+
+    /**
+     * Parses a number of hits typed into the breakpoint dialog, which may be left blank.
+     */
+    private static int parseHits(TextField field, int blank) {
+        String text = field.getText().trim();
+        return text.isEmpty() ? blank : Integer.parseInt(text);
+    }
+
+    /**
+     * Returns the breakpoint on the same line as a spec, which may do more than the spec says, or null if there isn't
+     * one.
+     */
+    private BreakpointSpec findBreakpoint(BreakpointSpec line) {
+        return breakpoints.keySet().stream().filter(line::equals).findFirst().orElse(null);
+    }
+
+    private void addBreakpoint(BreakpointSpec spec) {
+        breakpoints.put(spec, BreakpointStatus.ADDED);
+        markBreakpoint(spec, BreakpointStatus.ADDED);
+        for (DebugSession running : sessions.getSessions()) {
+            if (!running.isTerminated()) {
+                running.addBreakpoint(spec);
+            }
+        }
+    }
+
+    private void removeBreakpoint(BreakpointSpec spec) {
+        breakpoints.remove(spec);
+        codeAreaController.clearBreakpoint(spec.lineNumber);
+        for (DebugSession running : sessions.getSessions()) {
+            if (!running.isTerminated()) {
+                running.removeBreakpoint(spec);
             }
         }
     }
 
     private void handleBreakpointResolutionSuccess(BreakpointSpec spec) {
-        breakpoints.put(spec, BreakpointStatus.RESOLVED);
-        if (spec.className.equals(selectedClass.getQualifiedName())) {
-            codeAreaController.markBreakpointResolved(spec.lineNumber, BreakpointType.LINE);
+        if (!breakpoints.containsKey(spec)) {
+            // Removed since.
+            return;
         }
+        breakpoints.put(spec, BreakpointStatus.RESOLVED);
+        markBreakpoint(spec, BreakpointStatus.RESOLVED);
     }
 
     private void handleBreakpointResolutionFailure(BreakpointSpec spec, Exception e) {
+        if (breakpoints.get(spec) != BreakpointStatus.ADDED) {
+            // Removed since, or resolved in another session's VirtualMachine.
+            return;
+        }
         breakpoints.put(spec, BreakpointStatus.FAILED);
-        if (spec.className.equals(selectedClass.getQualifiedName())) {
-            codeAreaController.markBreakpointResolutionFailed(spec.lineNumber, BreakpointType.LINE);
+        markBreakpoint(spec, BreakpointStatus.FAILED);
+    }
+
+    /**
+     * Reports a breakpoint's condition which failed to evaluate, which it only does once, as the breakpoint then stops
+     * every time.
+     */
+    private void handleConditionFailure(BreakpointSpec spec, ConditionException e) {
+        if (logpointLog != null) {
+            logpointLog.note(String.format(CONDITION_FAILED_LOG, spec.className, spec.lineNumber, e.getMessage()));
         }
+        refreshBreakpointMarkers();
     }
 
     private void refreshBreakpointMarkers() {
-        breakpoints.forEach((spec, status) -> {
-            if (selectedClass != null && spec.className.equals(selectedClass.getQualifiedName())) {
-                switch (status) {
-                    case ADDED:
-                        codeAreaController.markBreakpoint(spec.lineNumber, BreakpointType.LINE);
-                        break;
-                    case RESOLVED:
-                        codeAreaController.markBreakpointResolved(spec.lineNumber, BreakpointType.LINE);
-                        break;
-                    case FAILED:
-                        codeAreaController.markBreakpointResolutionFailed(spec.lineNumber, BreakpointType.LINE);
-                        break;
-                }
+        breakpoints.forEach(this::markBreakpoint);
+    }
+
+    private void markBreakpoint(BreakpointSpec spec, BreakpointStatus status) {
+        if (selectedClass != null && spec.className.equals(selectedClass.getQualifiedName())) {
+            switch (status) {
+                case ADDED:
+                    codeAreaController.markBreakpoint(spec.lineNumber, BreakpointType.LINE);
+                    break;
+                case RESOLVED:
+                    codeAreaController.markBreakpointResolved(spec.lineNumber, BreakpointType.LINE);
+                    break;
+                case FAILED:
+                    codeAreaController.markBreakpointResolutionFailed(spec.lineNumber, BreakpointType.LINE);
+                    break;
+            }
+            List<String> description = new ArrayList<>();
+            if (spec.condition != null) {
+                String failure = spec.condition.getFailure();
+                description.add(CONDITION_DESCRIPTION + spec.condition
+                        + (failure != null ? String.format(CONDITION_FAILED_DESCRIPTION, failure) : ""));
             }
-        });
+            if (spec.isLogpoint()) {
+                description.add(LOGPOINT_DESCRIPTION + String.join(", ", spec.logged));
+            }
+            if (!spec.hitCount.isAlways()) {
+                description.add(HIT_COUNT_DESCRIPTION + spec.hitCount);
+            }
+            if (!description.isEmpty()) {
+                codeAreaController.describeBreakpoint(spec.lineNumber, String.join("; ", description));
+            }
+        }
     }
 
-    private void moveCarretToCurrentPosition() {
+    /**
+     * @param suspended Whether the session shown has just suspended, and so needs a new view of its stack and heap,
+     *                  rather than having been selected again since it last did.
+     */
+    private void moveCarretToCurrentPosition(boolean suspended) {
+        DebugSession suspendedSession = session;
         ThreadReference currentThread = session.getCurrentThread();
-        try {
-            StackFrame frame = currentThread.frame(0);
-            Location location = frame.location();
-            Class target = (Class) rootPackage.lookupChild(location.declaringType().name());
+        session.locationOf(currentThread).whenCompleteAsync((location, e) -> {
+            if (e != null || session != suspendedSession) {
+                // The thread was resumed (or the session ended) before its location could be found.
+                return;
+            }
+            Class target = (Class) rootPackage.lookupChild(location.className);
             if (target != null) {
                 openFile(target);
-                codeAreaController.jumpToLine(location.lineNumber());
-                codeAreaController.markCurrentLine(location.lineNumber());
-                stackAndHeapController.buildViewFor(currentThread.frames());
-            } else {
+                codeAreaController.jumpToLine(location.lineNumber);
+                codeAreaController.markCurrentLine(location.lineNumber);
+                if (suspended) {
+                    stackAndHeapController.buildViewFor(currentThread).thenRun(this::refreshHistorySlider);
+                }
+            } else if (suspended) {
                 session.stepInto(currentThread);
             }
-        } catch (IncompatibleThreadStateException e) {
-            //e.printStackTrace();
+        }, Platform::runLater);
+    }
+
+    /**
+     * Moves the history slider to the latest step, which is the one shown after each suspension.
+     */
+    private void refreshHistorySlider() {
+        int steps = stackAndHeapController.getHistorySize();
+        historySlider.setMax(Math.max(0, steps - 1));
+        historySlider.setValue(Math.max(0, steps - 1));
+        historySlider.setDisable(steps < 2);
+    }
+
+    private class SessionCell extends ListCell<DebugSession> {
+        @Override
+        protected void updateItem(DebugSession item, boolean empty) {
+            super.updateItem(item, empty);
+            setText(empty || item == null ? null : sessionNames.get(item));
         }
     }
 
@@ -0,0 +1,163 @@
+package uk.ac.imperial.doc.mfldb.ui;
+
+import com.sun.jdi.ObjectCollectedException;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.VMDisconnectedException;
+
+import java.util.*;
+
+/**
+ * Keeps the objects shown in the stack and heap view from being garbage collected in the target VirtualMachine, so
+ * that their ids stay valid for expanding stubs, paging and diffing against the next snapshot.
+ * <p>
+ * Objects are pinned with {@link ObjectReference#disableCollection()} as soon as a snapshot reaches them, up to a
+ * maximum number of pinned objects, and released straight away if the snapshot then fails. Once an object hasn't been
+ * shown for more than a horizon of suspensions it's queued for release, and the queue is released with
+ * {@link ObjectReference#enableCollection()} a batch at a time. An object shown again before its batch is released is
+ * taken back off the queue without any round trips.
+ * <p>
+ * Objects are pinned and released on the session's JDI thread, or on the threads resolving a snapshot for it while it
+ * waits, but suspensions are counted from the FX thread.
+ */
+final class ObjectPins {
+
+    private final int maxPinned;
+
+    private final int horizon;
+
+    private final int releaseBatch;
+
+    /**
+     * The pinned objects, mapped to the suspension they were last shown in.
+     */
+    private final Map<ObjectReference, Integer> pinned = new HashMap<>();
+
+    /**
+     * Pinned objects which are no longer needed, waiting to be released.
+     */
+    private final Set<ObjectReference> releasable = new LinkedHashSet<>();
+
+    /**
+     * The number of suspensions so far, which is only ever changed from the FX thread.
+     */
+    private volatile int suspension;
+
+    /**
+     * @param maxPinned    The maximum number of objects pinned at once.
+     * @param horizon      The number of suspensions an object stays pinned for after it was last shown.
+     * @param releaseBatch The number of objects waiting to be released at which they're all released.
+     */
+    ObjectPins(int maxPinned, int horizon, int releaseBatch) {
+        this.maxPinned = maxPinned;
+        this.horizon = horizon;
+        this.releaseBatch = releaseBatch;
+    }
+
+    /**
+     * Records that the target VirtualMachine has been resumed and suspended again since the last snapshot.
+     */
+    void nextSuspension() {
+        suspension++;
+    }
+
+    /**
+     * Pins the objects of a new snapshot of the view, and queues any pinned objects which have now been out of view for
+     * longer than the horizon for release.
+     *
+     * @param shown All of the objects shown in the view.
+     */
+    synchronized void retain(Collection<ObjectReference> shown) {
+        pin(shown);
+        for (Iterator<Map.Entry<ObjectReference, Integer>> it = pinned.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<ObjectReference, Integer> entry = it.next();
+            if (suspension - entry.getValue() > horizon) {
+                releasable.add(entry.getKey());
+                it.remove();
+            }
+        }
+        if (releasable.size() >= releaseBatch) {
+            releaseQueued();
+        }
+    }
+
+    /**
+     * Pins objects added to the view, say by expanding a stub, without releasing any others.
+     */
+    synchronized void pin(Collection<ObjectReference> shown) {
+        for (ObjectReference object : shown) {
+            pin(object);
+        }
+    }
+
+    /**
+     * Pins a single object as it's reached by a snapshot, without releasing any others. The round trip to pin it is
+     * made without holding the lock, so that objects can be pinned from several threads at once.
+     *
+     * @return Whether the object was newly pinned, rather than having been pinned already or there being no room.
+     */
+    boolean pin(ObjectReference object) {
+        synchronized (this) {
+            if (pinned.containsKey(object) || releasable.remove(object)) {
+                // Already pinned, possibly waiting to be released.
+                pinned.put(object, suspension);
+                return false;
+            } else if (pinned.size() + releasable.size() >= maxPinned) {
+                return false;
+            }
+            // Hold its place, so that no other thread pins it too.
+            pinned.put(object, suspension);
+        }
+        try {
+            object.disableCollection();
+            return true;
+        } catch (ObjectCollectedException e) {
+            // Too late, it will be fetched again when it's next needed anyway.
+        } catch (VMDisconnectedException e) {
+            // The pins went with the VirtualMachine.
+        }
+        synchronized (this) {
+            pinned.remove(object);
+        }
+        return false;
+    }
+
+    /**
+     * Releases objects newly pinned by a snapshot which then failed, and so won't be shown.
+     */
+    synchronized void release(Collection<ObjectReference> objects) {
+        for (ObjectReference object : objects) {
+            if (pinned.remove(object) != null) {
+                releasable.add(object);
+            }
+        }
+        releaseQueued();
+    }
+
+    /**
+     * Releases every pinned object, such as when the session they belong to is changed.
+     */
+    synchronized void releaseAll() {
+        releasable.addAll(pinned.keySet());
+        pinned.clear();
+        releaseQueued();
+    }
+
+    synchronized int size() {
+        return pinned.size() + releasable.size();
+    }
+
+    private void releaseQueued() {
+        try {
+            for (ObjectReference object : releasable) {
+                try {
+                    object.enableCollection();
+                } catch (ObjectCollectedException e) {
+                    // Nothing to release.
+                }
+            }
+        } catch (VMDisconnectedException e) {
+            // The pins went with the VirtualMachine.
+        }
+        releasable.clear();
+    }
+}
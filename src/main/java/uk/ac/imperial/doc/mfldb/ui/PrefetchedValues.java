@@ -0,0 +1,58 @@
+package uk.ac.imperial.doc.mfldb.ui;
+
+import com.sun.jdi.Field;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.Value;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The field values of objects fetched ahead of time by the {@link Prefetcher}, which are only valid until the target
+ * VirtualMachine is next resumed.
+ * <p>
+ * Each time the values are invalidated the generation moves on, and values fetched for an earlier generation are
+ * discarded rather than stored, so a prefetch still in flight when the target was resumed can't leave stale values
+ * behind. Thread safe.
+ */
+final class PrefetchedValues {
+
+    private final Map<ObjectReference, Map<Field, Value>> values = new HashMap<>();
+
+    private int generation;
+
+    /**
+     * Returns the prefetched values of the given fields of an object, or null unless all of them were prefetched.
+     */
+    synchronized Map<Field, Value> get(ObjectReference object, List<Field> fields) {
+        Map<Field, Value> objectValues = values.get(object);
+        return objectValues != null && objectValues.keySet().containsAll(fields) ? objectValues : null;
+    }
+
+    synchronized boolean contains(ObjectReference object) {
+        return values.containsKey(object);
+    }
+
+    /**
+     * Stores the values of an object's fields, unless they were fetched for a generation that has since been
+     * invalidated.
+     */
+    synchronized void put(int generation, ObjectReference object, Map<Field, Value> objectValues) {
+        if (generation == this.generation) {
+            values.put(object, objectValues);
+        }
+    }
+
+    synchronized int generation() {
+        return generation;
+    }
+
+    /**
+     * Discards all of the values, as the target VirtualMachine has been resumed since they were fetched.
+     */
+    synchronized void invalidate() {
+        generation++;
+        values.clear();
+    }
+}
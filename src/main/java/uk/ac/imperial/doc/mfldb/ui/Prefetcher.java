@@ -0,0 +1,226 @@
+package uk.ac.imperial.doc.mfldb.ui;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.jdi.*;
+import uk.ac.imperial.doc.mfldb.bridge.ImmutableValueCache;
+import uk.ac.imperial.doc.mfldb.bridge.ReferenceTypeCache;
+import uk.ac.imperial.doc.mfldb.bridge.ReferenceTypeCache.TypeInfo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static uk.ac.imperial.doc.mfldb.ui.Const.*;
+
+/**
+ * Uses the otherwise idle JDWP connection, while the target is suspended and the diagram is being read, to fetch what
+ * the next snapshot is likely to need:
+ * <ul>
+ * <li>the fields of the stubs on screen and of the objects they refer to, so expanding a stub needs no round trips;</li>
+ * <li>the next page of frames beneath those shown, which JDI keeps until the thread is resumed;</li>
+ * <li>the metadata of the types of the variables of the frame a step out would land in.</li>
+ * </ul>
+ * Prefetching runs on a single low priority thread and gives way to any foreground request: it's cancelled as soon as
+ * a foreground request starts, stopping before its next round trip, and only started again once the view is drawn.
+ */
+final class Prefetcher {
+
+    private final PrefetchedValues prefetchedValues;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("Snapshot Prefetcher").setDaemon(true).setPriority(Thread.MIN_PRIORITY).build());
+
+    /**
+     * The number of the latest prefetch started or cancelled, which any earlier prefetch still running gives way to.
+     */
+    private final AtomicInteger latest = new AtomicInteger();
+
+    private volatile ReferenceTypeCache typeCache = new ReferenceTypeCache();
+
+    private volatile ImmutableValueCache valueCache = new ImmutableValueCache();
+
+    Prefetcher(PrefetchedValues prefetchedValues) {
+        this.prefetchedValues = prefetchedValues;
+    }
+
+    /**
+     * Sets the session caches warmed by prefetching.
+     */
+    void setCaches(ReferenceTypeCache typeCache, ImmutableValueCache valueCache) {
+        cancel();
+        this.typeCache = typeCache;
+        this.valueCache = valueCache;
+    }
+
+    /**
+     * Starts prefetching for the snapshot currently shown, in place of any prefetch already running.
+     *
+     * @param thread       The thread whose stack is shown.
+     * @param loadedFrames The number of its innermost frames shown.
+     * @param stubs        The objects shown as stubs.
+     */
+    void prefetch(ThreadReference thread, int loadedFrames, Collection<ObjectReference> stubs) {
+        Prefetch prefetch = new Prefetch(latest.incrementAndGet(), prefetchedValues.generation(), thread, loadedFrames,
+                new ArrayList<>(stubs));
+        executor.execute(prefetch::run);
+    }
+
+    /**
+     * Stops any prefetch running before its next round trip, so that it doesn't hold up a foreground request.
+     */
+    void cancel() {
+        latest.incrementAndGet();
+    }
+
+    private class Prefetch {
+        private final int number;
+        private final int generation;
+        private final ThreadReference thread;
+        private final int loadedFrames;
+        private final List<ObjectReference> stubs;
+        private final ReferenceTypeCache typeCache = Prefetcher.this.typeCache;
+        private final ImmutableValueCache valueCache = Prefetcher.this.valueCache;
+        private int prefetchedObjects;
+
+        Prefetch(int number, int generation, ThreadReference thread, int loadedFrames, List<ObjectReference> stubs) {
+            this.number = number;
+            this.generation = generation;
+            this.thread = thread;
+            this.loadedFrames = loadedFrames;
+            this.stubs = stubs;
+        }
+
+        private boolean cancelled() {
+            return latest.get() != number;
+        }
+
+        void run() {
+            try {
+                // Expanding a stub is the most likely next request, so is prefetched for first.
+                List<ObjectReference> children = new ArrayList<>();
+                for (ObjectReference stub : stubs) {
+                    if (cancelled() || prefetchedObjects >= PREFETCH_MAX_OBJECTS) {
+                        return;
+                    }
+                    children.addAll(prefetchObject(stub));
+                }
+                for (ObjectReference child : children) {
+                    if (cancelled() || prefetchedObjects >= PREFETCH_MAX_OBJECTS) {
+                        break;
+                    }
+                    prefetchObject(child);
+                }
+
+                prefetchStepOut();
+                prefetchFrames();
+            } catch (IncompatibleThreadStateException | InvalidStackFrameException | VMDisconnectedException e) {
+                // The target has moved on, so there's nothing left worth prefetching.
+            }
+        }
+
+        /**
+         * Prefetches the fields of an object, or how it's shown inline if it's immutable.
+         *
+         * @return The objects referred to by the object's fields.
+         */
+        private List<ObjectReference> prefetchObject(ObjectReference object) {
+            if (prefetchedValues.contains(object) || valueCache.getIfPresent(object) != null) {
+                return Collections.emptyList();
+            }
+            try {
+                TypeInfo type = typeCache.get(object.referenceType());
+                if (type.isArray() || object instanceof StringReference || type.visibleFields.isEmpty()) {
+                    return Collections.emptyList();
+                }
+                prefetchedObjects++;
+
+                Field immutableField = type.boxedValueField != null ? type.boxedValueField : type.enumNameField;
+                if (immutableField != null) {
+                    Value value = object.getValue(immutableField);
+                    if (value instanceof PrimitiveValue) {
+                        valueCache.put(object, SnapshotBuilder.primitiveToString(value));
+                    } else if (value instanceof StringReference) {
+                        valueCache.put(object, ((StringReference) value).value());
+                    }
+                    return Collections.emptyList();
+                }
+
+                Map<Field, Value> values = object.getValues(type.visibleFields);
+                prefetchedValues.put(generation, object, values);
+                return values.values().stream()
+                        .filter(value -> value instanceof ObjectReference)
+                        .map(value -> (ObjectReference) value)
+                        .collect(Collectors.toList());
+            } catch (ObjectCollectedException e) {
+                return Collections.emptyList();
+            }
+        }
+
+        /**
+         * Warms the metadata of the types of the variables of the caller of the innermost frame, and of the value it
+         * will return.
+         */
+        private void prefetchStepOut() throws IncompatibleThreadStateException {
+            if (cancelled() || thread.frameCount() < 2) {
+                return;
+            }
+            prefetchType(thread.frame(0).location().method()::returnType);
+            try {
+                for (LocalVariable variable : thread.frame(1).location().method().variables()) {
+                    if (cancelled()) {
+                        return;
+                    }
+                    prefetchType(variable::type);
+                }
+            } catch (AbsentInformationException e) {
+                // Nothing to prefetch.
+            }
+        }
+
+        private void prefetchType(TypeSupplier type) {
+            try {
+                Type resolved = type.get();
+                if (resolved instanceof ReferenceType) {
+                    typeCache.get((ReferenceType) resolved);
+                }
+            } catch (ClassNotLoadedException e) {
+                // No instances of it exist yet, so there's nothing to show.
+            }
+        }
+
+        /**
+         * Fetches the next page of frames beneath those shown, along with the variables visible in them.
+         */
+        private void prefetchFrames() throws IncompatibleThreadStateException {
+            if (cancelled()) {
+                return;
+            }
+            int totalFrames = thread.frameCount();
+            if (totalFrames <= loadedFrames) {
+                return;
+            }
+            List<StackFrame> frames = thread.frames(0, Math.min(loadedFrames + STACK_PAGE_FRAMES, totalFrames));
+            for (StackFrame frame : frames.subList(loadedFrames, frames.size())) {
+                if (cancelled()) {
+                    return;
+                }
+                try {
+                    frame.visibleVariables();
+                } catch (AbsentInformationException e) {
+                    // Nothing to prefetch.
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface TypeSupplier {
+        Type get() throws ClassNotLoadedException;
+    }
+}
@@ -0,0 +1,1057 @@
+package uk.ac.imperial.doc.mfldb.ui;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.sun.jdi.*;
+import uk.ac.imperial.doc.mfldb.bridge.ImmutableValueCache;
+import uk.ac.imperial.doc.mfldb.bridge.ImmutableValueCache.StringLayout;
+import uk.ac.imperial.doc.mfldb.bridge.ReferenceTypeCache;
+import uk.ac.imperial.doc.mfldb.bridge.ReferenceTypeCache.TypeInfo;
+import uk.ac.imperial.doc.mfldb.ui.CollectionRenderer.Rendering;
+import uk.ac.imperial.doc.mfldb.ui.StackAndHeapController.FrameInfo;
+import uk.ac.imperial.doc.mfldb.ui.StackAndHeapController.HeapObjectInfo;
+import uk.ac.imperial.doc.mfldb.ui.StackAndHeapController.VariableInfo;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static uk.ac.imperial.doc.mfldb.ui.Const.*;
+
+/**
+ * Builds a single snapshot of the stack and heap of a suspended thread.
+ * <p>
+ * Values are fetched in bulk wherever JDI allows it ({@link StackFrame#getValues(List)},
+ * {@link ObjectReference#getValues(List)} and {@link ArrayReference#getValues(int, int)}), so that each frame and each
+ * heap object costs a constant number of JDWP round trips rather than one per variable, field or element. The number
+ * of round trips made is recorded in the builder's {@link Stats}.
+ * <p>
+ * Type metadata (names, fields and so on) comes from the session's {@link ReferenceTypeCache}, so it is only fetched
+ * the first time each type is seen. Similarly, strings short enough to be shown inline, boxed primitives and enum
+ * constants are immutable, so how they're shown comes from the session's {@link ImmutableValueCache} once they've been
+ * fetched.
+ * <p>
+ * Arrays and long strings are only fetched a window at a time, starting from the offsets given (by id) to the builder
+ * or the beginning otherwise, so the cost of a snapshot doesn't depend on how large they are. Finding out whether a
+ * string is short enough to show inline takes its backing array and the array's length before its characters can be
+ * fetched, but long strings' layouts are cached along with short strings' values, so after the first time a string is
+ * seen each window of it costs one fetch.
+ * <p>
+ * Likewise, long chains of objects of the same type linked through the same field (such as the nodes of a linked list)
+ * are recognised as they're reached and collapsed into a single summary object, unless their head has been expanded.
+ * Only the link field of each node in a chain is fetched (unless it was prefetched), along with the type of the node it
+ * links to, except for a few nodes at either end which are shown in the summary; the type lookups are counted as round
+ * trips like any other fetch. Each node walked counts against the object budget as if it had been resolved, so the
+ * walk along a chain stops after {@link Const#CHAIN_MAX_LENGTH} nodes or once the budget runs out, and it stops at
+ * objects which have already been reached, which are shown as themselves rather than being fetched again.
+ * <p>
+ * References excluded by the {@link TraversalRules} (by default, those into JDK internals) aren't followed at all.
+ * <p>
+ * Collections with a {@link CollectionRenderer} are shown as their size and first few entries, fetching only the
+ * fields needed for those rather than every internal node.
+ * <p>
+ * Since JDI can have several JDWP commands outstanding at once, the frames, and then each level of the heap in batches
+ * of {@link Const#SNAPSHOT_BATCH_SIZE} objects, are resolved in parallel on the given executor. The results are merged
+ * in order, so the snapshot is the same as if it had been built sequentially, except that the byte budget is only
+ * checked between batches.
+ * <p>
+ * Each object is pinned in the session's {@link ObjectPins} as it's reached, so that it can't be collected before the
+ * snapshot is shown; if the snapshot fails (or is cancelled) the objects it newly pinned are released again.
+ * <p>
+ * A snapshot which is no longer wanted can be {@link #cancel() cancelled} from any thread. Since JDI swallows interrupts
+ * whilst waiting for replies from the target, the builder checks whether it's been cancelled before resolving each
+ * frame and object, and each node of a chain, and gives up with a {@link CancellationException} if so.
+ */
+class SnapshotBuilder {
+
+    private final Stats stats = new Stats();
+
+    private final TraversalBudget budget;
+
+    private final ReferenceTypeCache typeCache;
+
+    private final ImmutableValueCache valueCache;
+
+    private final PrefetchedValues prefetchedValues;
+
+    private final ObjectPins pins;
+
+    /**
+     * The objects pinned by this snapshot which weren't already, to be released if it fails.
+     */
+    private final Set<ObjectReference> newlyPinned = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, Integer> windowOffsets;
+
+    private final Set<String> expandedChains;
+
+    private final CollectionRenderers collectionRenderers;
+
+    private final TraversalRules traversalRules;
+
+    private final ExecutorService executor;
+
+    private final Set<ObjectReference> unresolvedReferences = new LinkedHashSet<>();
+
+    private Set<ObjectReference> processedHeap;
+
+    /**
+     * The objects in the level of the heap being resolved.
+     */
+    private Set<ObjectReference> currentLevel = Collections.emptySet();
+
+    /**
+     * Objects which may be the head of a chain, with the field linking them to the rest of it.
+     */
+    private final Map<ObjectReference, Field> chainHeads = new HashMap<>();
+
+    /**
+     * Objects in chains which have been expanded, and so mustn't be collapsed.
+     */
+    private final Set<ObjectReference> expandedChainNodes = new HashSet<>();
+
+    /**
+     * Objects to be shown as stubs regardless of the budget, such as the rest of a chain too long to walk.
+     */
+    private final Set<ObjectReference> forcedStubs = new HashSet<>();
+
+    private final Map<String, ObjectReference> references = new LinkedHashMap<>();
+
+    private FrameInfo[] stack;
+
+    private int hiddenFrames;
+
+    private HeapObjectInfo[] heap;
+
+    private int resolvedObjects;
+
+    private long resolvedBytes;
+
+    private volatile boolean cancelled;
+
+    SnapshotBuilder(TraversalBudget budget, ReferenceTypeCache typeCache, ImmutableValueCache valueCache,
+                    PrefetchedValues prefetchedValues, ObjectPins pins, Map<String, Integer> windowOffsets,
+                    Set<String> expandedChains, CollectionRenderers collectionRenderers, TraversalRules traversalRules,
+                    ExecutorService executor) {
+        this.budget = budget;
+        this.typeCache = typeCache;
+        this.valueCache = valueCache;
+        this.prefetchedValues = prefetchedValues;
+        this.pins = pins;
+        this.windowOffsets = windowOffsets;
+        this.expandedChains = expandedChains;
+        this.collectionRenderers = collectionRenderers;
+        this.traversalRules = traversalRules;
+        this.executor = executor;
+    }
+
+    /**
+     * Builds the snapshot for the innermost frames of a thread, ordered innermost first as returned by
+     * {@link ThreadReference#frames(int, int)}; the frames beneath them are left hidden.
+     * <p>
+     * Runs of more than twice {@link Const#RECURSION_SHOWN_FRAMES} consecutive frames of the same method are
+     * summarised: only the frames at either end of the run are resolved, and those in the middle are shown as a single
+     * frame standing for all of them.
+     *
+     * @param frames      The innermost frames of the suspended thread.
+     * @param totalFrames The total number of frames of the thread.
+     */
+    void build(List<StackFrame> frames, int totalFrames) {
+        long start = System.nanoTime();
+        hiddenFrames = totalFrames - frames.size();
+
+        List<StackFrame> bottomUp = Lists.reverse(frames);
+        List<Resolver> resolvers = new ArrayList<>();
+        List<Callable<FrameInfo>> tasks = new ArrayList<>();
+        int run = 0;
+        for (int i = 0; i < bottomUp.size(); i += run) {
+            Method method = bottomUp.get(i).location().method();
+            run = 1;
+            while (i + run < bottomUp.size() && bottomUp.get(i + run).location().method().equals(method)) {
+                run++;
+            }
+
+            for (int j = 0; j < run; j++) {
+                if (run > 2 * RECURSION_SHOWN_FRAMES && j == RECURSION_SHOWN_FRAMES) {
+                    int repeated = run - 2 * RECURSION_SHOWN_FRAMES;
+                    tasks.add(() -> new FrameInfo(method.name(), null, repeated));
+                    j += repeated - 1;
+                } else {
+                    StackFrame frame = bottomUp.get(i + j);
+                    Resolver resolver = new Resolver();
+                    resolvers.add(resolver);
+                    tasks.add(() -> resolver.infoFromFrame(frame));
+                }
+            }
+        }
+        stack = invokeAll(tasks).stream().toArray(FrameInfo[]::new);
+        resolvers.forEach(this::merge);
+
+        resolveHeap(new LinkedHashSet<>());
+        stats.elapsedNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Builds the part of the heap reachable from an object (such as a stub, or an array showing a new window), within a
+     * fresh budget.
+     * <p>
+     * The snapshot built has an empty stack; its heap contains the object itself and anything newly reachable from it,
+     * but not the objects which have already been resolved.
+     *
+     * @param root     The object to expand.
+     * @param resolved The objects which have already been resolved, and which shouldn't be fetched again.
+     */
+    void expand(ObjectReference root, Collection<ObjectReference> resolved) {
+        long start = System.nanoTime();
+
+        stack = new FrameInfo[0];
+        unresolvedReferences.add(root);
+        Set<ObjectReference> processedHeap = new LinkedHashSet<>(resolved);
+        processedHeap.remove(root);
+
+        resolveHeap(processedHeap);
+        stats.elapsedNanos = System.nanoTime() - start;
+    }
+
+    FrameInfo[] getStack() {
+        return stack;
+    }
+
+    /**
+     * Returns the number of frames at the bottom of the stack which weren't fetched.
+     */
+    int getHiddenFrames() {
+        return hiddenFrames;
+    }
+
+    HeapObjectInfo[] getHeap() {
+        return heap;
+    }
+
+    /**
+     * Returns the JDI references to every object in the heap of the snapshot (including stubs), keyed by id.
+     */
+    Map<String, ObjectReference> getReferences() {
+        return references;
+    }
+
+    Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * Stops building the snapshot as soon as the frame or object being resolved on each thread has been, so that the
+     * build (or expansion) fails with a {@link CancellationException}.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    private void checkCancelled() {
+        if (cancelled || Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Snapshot cancelled");
+        }
+    }
+
+    /**
+     * Resolves the heap breadth first from the unresolved references, replacing anything beyond the budget with stubs.
+     * If that fails, the objects newly pinned along the way are released again.
+     */
+    private void resolveHeap(Set<ObjectReference> processedHeap) {
+        this.processedHeap = processedHeap;
+        List<HeapObjectInfo> heap = new ArrayList<>();
+
+        try {
+            int depth = 0;
+            do {
+                Set<ObjectReference> current = new LinkedHashSet<>(unresolvedReferences);
+                current.removeAll(processedHeap);
+                unresolvedReferences.clear();
+                currentLevel = current;
+
+                List<ObjectReference> level = new ArrayList<>(current);
+                for (int start = 0; start < level.size(); start += SNAPSHOT_BATCH_SIZE) {
+                    List<ObjectReference> batch =
+                            level.subList(start, Math.min(start + SNAPSHOT_BATCH_SIZE, level.size()));
+                    heap.addAll(resolveBatch(batch, depth));
+                }
+                processedHeap.addAll(current);
+                depth++;
+            } while (!processedHeap.containsAll(unresolvedReferences));
+        } catch (RuntimeException | Error e) {
+            pins.release(newlyPinned);
+            throw e;
+        }
+
+        this.heap = heap.stream().toArray(HeapObjectInfo[]::new);
+    }
+
+    /**
+     * Pins an object as it's reached, noting whether it's this snapshot which pinned it.
+     */
+    private void pin(ObjectReference reference) {
+        if (pins.pin(reference)) {
+            newlyPinned.add(reference);
+        }
+    }
+
+    /**
+     * Resolves a batch of objects from the same level of the heap in parallel, deciding up front which are within the
+     * budget and which are to be stubs.
+     */
+    private List<HeapObjectInfo> resolveBatch(List<ObjectReference> batch, int depth) {
+        List<Resolver> resolvers = new ArrayList<>();
+        List<Callable<HeapObjectInfo>> tasks = new ArrayList<>();
+        // Nodes of chains which may be walked in this batch, beyond their heads.
+        int reservedObjects = 0;
+        for (ObjectReference reference : batch) {
+            String id = Long.toString(reference.uniqueID());
+            if (expandedChains.contains(id)) {
+                expandedChainNodes.add(reference);
+            }
+            references.put(id, reference);
+
+            Resolver resolver = new Resolver();
+            resolvers.add(resolver);
+            if (forcedStubs.contains(reference) || depth >= budget.maxDepth
+                    || resolvedObjects >= budget.maxObjects || resolvedBytes >= budget.maxBytes) {
+                tasks.add(() -> {
+                    pin(reference);
+                    return resolver.stubFromHeapObject(reference);
+                });
+                stats.stubs++;
+            } else {
+                resolvedObjects++;
+                Field link = expandedChainNodes.contains(reference) ? null : chainHeads.get(reference);
+                int maxNodes = Math.min(CHAIN_MAX_LENGTH, 1 + budget.maxObjects - resolvedObjects - reservedObjects);
+                if (link != null && maxNodes >= CHAIN_MIN_LENGTH) {
+                    reservedObjects += maxNodes - 1;
+                    tasks.add(() -> {
+                        pin(reference);
+                        HeapObjectInfo chain = resolver.chainFrom(reference, link, maxNodes);
+                        return chain != null ? chain : resolver.infoFromHeapObject(reference);
+                    });
+                } else {
+                    tasks.add(() -> {
+                        pin(reference);
+                        return resolver.infoFromHeapObject(reference);
+                    });
+                }
+            }
+        }
+
+        List<HeapObjectInfo> objects = invokeAll(tasks);
+        resolvers.forEach(this::merge);
+        return objects;
+    }
+
+    /**
+     * Merges what a resolver discovered into the snapshot.
+     */
+    private void merge(Resolver resolver) {
+        stats.add(resolver.stats);
+        unresolvedReferences.addAll(resolver.unresolvedReferences);
+        resolvedBytes += resolver.resolvedBytes;
+        resolvedObjects += resolver.chainNodes;
+        forcedStubs.addAll(resolver.forcedStubs);
+        for (ChainLink chainLink : resolver.chainLinks) {
+            if (expandedChainNodes.contains(chainLink.from)) {
+                expandedChainNodes.add(chainLink.next);
+            } else {
+                chainHeads.putIfAbsent(chainLink.next, chainLink.link);
+            }
+        }
+    }
+
+    /**
+     * Runs tasks on the executor and waits for them all, rethrowing the first failure (such as a
+     * {@link VMDisconnectedException}) as it was thrown. Tasks which haven't started by the time the snapshot is
+     * cancelled fail without running.
+     */
+    private <T> List<T> invokeAll(List<Callable<T>> tasks) {
+        List<Callable<T>> cancellable = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            cancellable.add(() -> {
+                checkCancelled();
+                return task.call();
+            });
+        }
+        try {
+            List<T> results = new ArrayList<>(tasks.size());
+            for (Future<T> future : executor.invokeAll(cancellable)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause());
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted whilst building snapshot");
+        }
+    }
+
+    /**
+     * A link from one object to the next in what may be a chain.
+     */
+    private static class ChainLink {
+        final ObjectReference from;
+        final ObjectReference next;
+        final Field link;
+
+        ChainLink(ObjectReference from, ObjectReference next, Field link) {
+            this.from = from;
+            this.next = next;
+            this.link = link;
+        }
+    }
+
+    /**
+     * Resolves frames and heap objects, on any thread.
+     * <p>
+     * Each resolver collects what it discovers (the references to be resolved next, the bytes fetched, the round trips
+     * made and so on) separately, so that resolvers can run in parallel and their results be merged into the snapshot
+     * in a deterministic order afterwards. The builder's own state is only read by resolvers, and is only changed
+     * between batches of them.
+     */
+    private class Resolver {
+
+        private final Stats stats = new Stats();
+
+        private final Set<ObjectReference> unresolvedReferences = new LinkedHashSet<>();
+
+        private long resolvedBytes;
+
+        /**
+         * The number of nodes collapsed into a chain's summary, apart from its head.
+         */
+        private int chainNodes;
+
+        private final List<ChainLink> chainLinks = new ArrayList<>();
+
+        private final Set<ObjectReference> forcedStubs = new LinkedHashSet<>();
+
+        private final CollectionRenderer.Fetcher fetcher = new Fetcher();
+
+        private FrameInfo infoFromFrame(StackFrame frame) {
+            Method method = frame.location().method();
+            stats.metadataRoundTrips++;
+            String function = method.name();
+            VariableInfo[] info = null;
+            try {
+                boolean includeThis = !method.isStatic() && !method.isNative();
+                int offset = includeThis ? 1 : 0;
+                List<LocalVariable> variables = frame.visibleVariables();
+                stats.metadataRoundTrips++;
+                info = new VariableInfo[variables.size() + offset];
+                if (includeThis) {
+                    ObjectReference thisObject = frame.thisObject();
+                    stats.frameRoundTrips++;
+                    info[0] = infoFromObjectReference(typeInfo(thisObject).name, "this", thisObject);
+                }
+                if (!variables.isEmpty()) {
+                    Map<LocalVariable, Value> values = frame.getValues(variables);
+                    stats.frameRoundTrips++;
+                    for (int i = 0; i < variables.size(); i++) {
+                        LocalVariable variable = variables.get(i);
+                        info[i + offset] = infoFromValue(variable.typeName(), variable.name(), values.get(variable));
+                    }
+                }
+            } catch (AbsentInformationException e) {
+                //e.printStackTrace();
+            }
+            return new FrameInfo(function, info);
+        }
+
+        private HeapObjectInfo infoFromHeapObject(ObjectReference reference) {
+            String id = Long.toString(reference.uniqueID());
+            TypeInfo type = typeInfo(reference);
+
+            if (type.isArray()) {
+                return infoFromArray(id, type, (ArrayReference) reference);
+            } else if (reference instanceof StringReference) {
+                return infoFromLongString(id, type, (StringReference) reference);
+            }
+
+            CollectionRenderer renderer = collectionRenderers.forClass(type.name);
+            if (renderer != null) {
+                Rendering rendering = renderer.render(reference, COLLECTION_ENTRIES, fetcher);
+                if (rendering != null) {
+                    return infoFromCollection(id, type, rendering);
+                }
+            }
+
+            List<Field> fields = type.visibleFields;
+            VariableInfo[] variables = new VariableInfo[fields.size()];
+            if (!fields.isEmpty()) {
+                Map<Field, Value> values = prefetchedValues.get(reference, fields);
+                if (values != null) {
+                    stats.prefetchHits++;
+                } else {
+                    values = reference.getValues(fields);
+                    stats.objectRoundTrips++;
+                }
+                for (int i = 0; i < fields.size(); i++) {
+                    Field field = fields.get(i);
+                    variables[i] = infoFromField(field, field.name(), values.get(field));
+                    resolvedBytes += sizeOf(values.get(field));
+                }
+                findChainLink(reference, values);
+            }
+            return new HeapObjectInfo(id, type.name, variables, false);
+        }
+
+        /**
+         * Shows a collection as its size and the entries fetched by its renderer. The entries of maps are shown as their
+         * key and their value in turn, named by their index rather than by their key, as keys needn't look different
+         * (nor different from the size) and the view matches up the rows of successive snapshots by name.
+         */
+        private HeapObjectInfo infoFromCollection(String id, TypeInfo type, Rendering rendering) {
+            List<VariableInfo> variables = new ArrayList<>();
+            variables.add(new VariableInfo("int", "size", Integer.toString(rendering.size), false));
+            for (int i = 0; i < rendering.values.size(); i++) {
+                Value value = rendering.values.get(i);
+                resolvedBytes += sizeOf(value);
+                if (rendering.keys == null) {
+                    variables.add(infoFromValue(typeNameOf(value), "[" + i + "]", value));
+                    continue;
+                }
+
+                Value key = rendering.keys.get(i);
+                resolvedBytes += sizeOf(key);
+                variables.add(infoFromValue(typeNameOf(key), "[" + i + "].key", key));
+                variables.add(infoFromValue(typeNameOf(value), "[" + i + "].value", value));
+            }
+            if (rendering.size > rendering.values.size()) {
+                variables.add(new VariableInfo("", "\u2026", (rendering.size - rendering.values.size()) + " more", false));
+            }
+            return new HeapObjectInfo(id, type.name, variables.stream().toArray(VariableInfo[]::new), false);
+        }
+
+        private String typeNameOf(Value value) {
+            if (value instanceof ObjectReference) {
+                return typeInfo((ObjectReference) value).name;
+            }
+            return value != null ? value.type().name() : "";
+        }
+
+        /**
+         * Notes the next node if an object looks like part of a chain: that is, if it has exactly one field referring to an
+         * object of its own type which hasn't already been reached.
+         */
+        private void findChainLink(ObjectReference reference, Map<Field, Value> values) {
+            TypeInfo type = typeInfo(reference);
+            Field link = null;
+            ObjectReference next = null;
+            for (Map.Entry<Field, Value> entry : values.entrySet()) {
+                Value value = entry.getValue();
+                if (value instanceof ObjectReference && !processedHeap.contains(value) && isOfType(value, type)) {
+                    if (link != null) {
+                        // More like a tree than a chain.
+                        return;
+                    }
+                    link = entry.getKey();
+                    next = (ObjectReference) value;
+                }
+            }
+
+            if (next != null) {
+                chainLinks.add(new ChainLink(reference, next, link));
+            }
+        }
+
+        /**
+         * Walks the chain from a given head, fetching only the link field of each node, and collapses it into a summary if
+         * it's long enough. The walk stops at objects which have already been reached, in this level of the heap or an
+         * earlier one, as they're resolved in their own right.
+         *
+         * @param maxNodes The number of nodes, including the head, which may be walked.
+         * @return The summary, or null if the chain is too short to be worth collapsing.
+         */
+        private HeapObjectInfo chainFrom(ObjectReference head, Field link, int maxNodes) {
+            List<Field> linkOnly = Collections.singletonList(link);
+            TypeInfo type = typeInfo(head);
+            List<ObjectReference> nodes = new ArrayList<>();
+            Set<ObjectReference> walked = new HashSet<>();
+            ObjectReference node = head;
+            Value next;
+            do {
+                checkCancelled();
+                nodes.add(node);
+                walked.add(node);
+                Map<Field, Value> prefetched = prefetchedValues.get(node, linkOnly);
+                if (prefetched != null) {
+                    next = prefetched.get(link);
+                    stats.prefetchHits++;
+                } else {
+                    next = node.getValue(link);
+                    stats.objectRoundTrips++;
+                }
+                resolvedBytes += sizeOf(next);
+                node = next instanceof ObjectReference && !walked.contains(next) && !processedHeap.contains(next)
+                        && !currentLevel.contains(next) && isOfType(next, type)
+                        ? (ObjectReference) next : null;
+            } while (node != null && nodes.size() < maxNodes);
+
+            if (nodes.size() < CHAIN_MIN_LENGTH) {
+                return null;
+            }
+
+            // The chain carries on past where we stopped walking, or loops back into itself: either way, don't go on to
+            // fetch the rest of it.
+            boolean truncated = node != null;
+            if (next instanceof ObjectReference && !next.equals(head) && (truncated || walked.contains(next))) {
+                forcedStubs.add((ObjectReference) next);
+            }
+
+            List<VariableInfo> variables = new ArrayList<>();
+            variables.add(new VariableInfo("int", "length", nodes.size() + (truncated ? "+" : ""), false));
+            for (int i = 0; i < CHAIN_ENDS; i++) {
+                addChainNode(variables, i, nodes.get(i), link, walked);
+            }
+            variables.add(new VariableInfo("", "\u2026", (nodes.size() - 2 * CHAIN_ENDS) + " more", false));
+            for (int i = nodes.size() - CHAIN_ENDS; i < nodes.size(); i++) {
+                addChainNode(variables, i, nodes.get(i), link, walked);
+            }
+            variables.add(infoFromValue(link.typeName(), link.name(), next));
+
+            stats.collapsed += nodes.size() - 2 * CHAIN_ENDS;
+            chainNodes += nodes.size() - 1;
+            String id = Long.toString(head.uniqueID());
+            return new HeapObjectInfo(id, type.name, variables.stream().toArray(VariableInfo[]::new), false, true);
+        }
+
+        /**
+         * Adds the fields of one of the nodes shown in a chain's summary, apart from those linking it to other nodes.
+         */
+        private void addChainNode(List<VariableInfo> variables, int index, ObjectReference node, Field link,
+                                  Set<ObjectReference> nodes) {
+            List<Field> fields = typeInfo(node).visibleFields;
+            if (fields.isEmpty()) {
+                return;
+            }
+            Map<Field, Value> values = node.getValues(fields);
+            stats.objectRoundTrips++;
+            for (Field field : fields) {
+                Value value = values.get(field);
+                if (field.equals(link) || nodes.contains(value)) {
+                    continue;
+                }
+                variables.add(infoFromField(field, "[" + index + "]." + field.name(), value));
+                resolvedBytes += sizeOf(value);
+            }
+        }
+
+        private HeapObjectInfo infoFromArray(String id, TypeInfo type, ArrayReference array) {
+            int length = array.length();
+            stats.arrayRoundTrips++;
+            int offset = windowOffset(id, length);
+            int count = Math.min(ARRAY_WINDOW_SIZE, length - offset);
+
+            VariableInfo[] variables = new VariableInfo[count];
+            if (count > 0) {
+                List<Value> values = array.getValues(offset, count);
+                stats.arrayRoundTrips++;
+                for (int i = 0; i < count; i++) {
+                    // Abuse our layout a little here to get a nice looking array visualisation...
+                    variables[i] = infoFromValue("", Integer.toString(offset + i), values.get(i));
+                    resolvedBytes += sizeOf(values.get(i));
+                }
+            }
+            return new HeapObjectInfo(id, type.name, variables, length, offset, count);
+        }
+
+        /**
+         * Shows a window of a string too long to be shown inline, fetched from the string's backing array.
+         */
+        private HeapObjectInfo infoFromLongString(String id, TypeInfo type, StringReference string) {
+            StringLayout layout = stringLayout(string);
+            int length;
+            if (layout != null) {
+                length = layout.length;
+            } else {
+                // Not a string layout we understand, so there's nothing for it but to fetch the whole thing. JDI keeps
+                // the value, so this is only fetched once however many windows of it are shown.
+                length = string.value().length();
+                stats.objectRoundTrips++;
+            }
+            int offset = windowOffset(id, length);
+            int count = Math.min(STRING_WINDOW_SIZE, length - offset);
+
+            String text = substring(string, layout, offset, count);
+            resolvedBytes += 2 * text.length();
+            VariableInfo[] variables = {new VariableInfo("", "value", text, false)};
+            return new HeapObjectInfo(id, type.name, variables, length, offset, count);
+        }
+
+        private int windowOffset(String id, int length) {
+            int offset = windowOffsets.getOrDefault(id, 0);
+            return Math.max(0, Math.min(offset, length - 1));
+        }
+
+        private HeapObjectInfo stubFromHeapObject(ObjectReference reference) {
+            String id = Long.toString(reference.uniqueID());
+            return new HeapObjectInfo(id, typeInfo(reference).name, new VariableInfo[0], true);
+        }
+
+        private VariableInfo infoFromValue(String type, String name, Value value) {
+            String sValue;
+            if (value instanceof PrimitiveValue || value instanceof VoidValue) {
+                sValue = primitiveToString(value);
+            } else if (value instanceof StringReference) {
+                StringReference string = (StringReference) value;
+                sValue = valueCache.getIfPresent(string);
+                if (sValue != null) {
+                    stats.cacheHits++;
+                    return new VariableInfo(type, name, sValue, false);
+                }
+
+                try {
+                    StringLayout layout = stringLayout(string);
+                    if (layout != null && layout.length > STRING_WINDOW_SIZE) {
+                        // Too long to show inline, so show (a window of) it on the heap instead.
+                        unresolvedReferences.add(string);
+                        return new VariableInfo(type, name, Long.toString(string.uniqueID()), true);
+                    }
+                    // Short enough to fetch whole (or laid out in a way we don't understand), which needs no decoding.
+                    sValue = string.value();
+                    stats.objectRoundTrips++;
+                    if (layout == null && sValue.length() > STRING_WINDOW_SIZE) {
+                        unresolvedReferences.add(string);
+                        return new VariableInfo(type, name, Long.toString(string.uniqueID()), true);
+                    }
+                } catch (ObjectCollectedException e) {
+                    valueCache.invalidate(string);
+                    throw e;
+                }
+                resolvedBytes += 2 * sValue.length();
+                valueCache.put(string, sValue);
+            } else if (value instanceof ObjectReference) {
+                ObjectReference reference = (ObjectReference) value;
+                return infoFromObjectReference(type, name, reference);
+            } else if (value == null) {
+                sValue = "null";
+            } else {
+                sValue = "UNKNOWN";
+            }
+            return new VariableInfo(type, name, sValue, false);
+        }
+
+        private VariableInfo infoFromObjectReference(String type, String name, ObjectReference reference) {
+            // Boxed primitives and enum constants are immutable, so are only ever fetched once.
+            String sValue = valueCache.getIfPresent(reference);
+            if (sValue != null) {
+                stats.cacheHits++;
+                return new VariableInfo(type, name, sValue, false);
+            }
+            boolean isReference = false;
+
+            // Filter out boxed primitive types, and show enum constants by name...
+            TypeInfo referenceType = typeInfo(reference);
+            Field immutableField = referenceType.boxedValueField != null
+                    ? referenceType.boxedValueField : referenceType.enumNameField;
+            if (immutableField != null) {
+                Value value;
+                try {
+                    value = reference.getValue(immutableField);
+                } catch (ObjectCollectedException e) {
+                    valueCache.invalidate(reference);
+                    throw e;
+                }
+                stats.objectRoundTrips++;
+                if (value instanceof PrimitiveValue) {
+                    sValue = primitiveToString(value);
+                } else if (value instanceof StringReference) {
+                    sValue = ((StringReference) value).value();
+                    stats.objectRoundTrips++;
+                }
+                if (sValue != null) {
+                    valueCache.put(reference, sValue);
+                }
+            }
+            if (sValue == null && traversalRules.excludesType(referenceType.name)) {
+                return opaqueInfo(type, name, referenceType.name, reference);
+            }
+            if (sValue == null) {
+                unresolvedReferences.add(reference);
+                sValue = Long.toString(reference.uniqueID());
+                isReference = true;
+            }
+            return new VariableInfo(type, name, sValue, isReference);
+        }
+
+        /**
+         * Shows the value of a field, unless the field is excluded by the traversal rules, in which case any object it
+         * refers to is shown as an opaque leaf.
+         */
+        private VariableInfo infoFromField(Field field, String name, Value value) {
+            if (value instanceof ObjectReference && !(value instanceof StringReference)
+                    && traversalRules.excludesField(field)) {
+                ObjectReference reference = (ObjectReference) value;
+                return opaqueInfo(field.typeName(), name, typeInfo(reference).name, reference);
+            }
+            return infoFromValue(field.typeName(), name, value);
+        }
+
+        /**
+         * Shows a reference to an object which isn't to be fetched, by its type and id.
+         */
+        private VariableInfo opaqueInfo(String type, String name, String referenceTypeName, ObjectReference reference) {
+            return new VariableInfo(type, name, referenceTypeName + " (id=" + reference.uniqueID() + ")", false);
+        }
+
+        /**
+         * Finds where a string's characters are kept, so that it can be fetched a window at a time, or returns null if
+         * it isn't laid out in a way we understand. The layouts of long strings are cached for the rest of the session.
+         */
+        private StringLayout stringLayout(StringReference string) {
+            StringLayout cached = valueCache.getLayoutIfPresent(string);
+            if (cached != null) {
+                stats.cacheHits++;
+                return cached;
+            }
+
+            TypeInfo type = typeInfo(string);
+            Field valueField = null;
+            Field coderField = null;
+            for (Field field : type.visibleFields) {
+                if (field.name().equals("value")) {
+                    valueField = field;
+                } else if (field.name().equals("coder")) {
+                    coderField = field;
+                }
+            }
+            if (valueField == null) {
+                return null;
+            }
+
+            Map<Field, Value> values = string.getValues(coderField != null
+                    ? Arrays.asList(valueField, coderField) : Collections.singletonList(valueField));
+            stats.objectRoundTrips++;
+            if (!(values.get(valueField) instanceof ArrayReference)) {
+                return null;
+            }
+            ArrayReference array = (ArrayReference) values.get(valueField);
+            // Compact strings (JDK 9+) store their characters in a byte[], either as LATIN1 or as UTF16.
+            boolean utf16 = coderField != null && values.get(coderField) instanceof ByteValue
+                    && ((ByteValue) values.get(coderField)).value() == 1;
+
+            int arrayLength = array.length();
+            stats.arrayRoundTrips++;
+            boolean bytes = typeInfo(array).componentKind == 'B';
+            StringLayout layout = new StringLayout(array, bytes ? utf16 : null,
+                    bytes && utf16 ? arrayLength / 2 : arrayLength);
+            if (layout.length > STRING_WINDOW_SIZE) {
+                // Short strings are cached by their value instead, once it's been fetched.
+                valueCache.putLayout(string, layout);
+            }
+            return layout;
+        }
+
+        /**
+         * Fetches a window of a string's characters from its backing array, in a single round trip.
+         */
+        private String substring(StringReference string, StringLayout layout, int offset, int count) {
+            if (count == 0) {
+                return "";
+            }
+            boolean utf16 = layout != null && Boolean.TRUE.equals(layout.utf16);
+            Boolean highByteFirst = utf16 ? utf16HighByteFirst(string) : null;
+            if (layout == null || utf16 && highByteFirst == null) {
+                String value = string.value();
+                stats.objectRoundTrips++;
+                return value.substring(offset, offset + count);
+            }
+
+            String text = layout.substring(offset, count, utf16 && highByteFirst);
+            stats.arrayRoundTrips++;
+            return text;
+        }
+
+        /**
+         * Returns whether the target VirtualMachine stores UTF16 strings high byte first, which depends on its platform
+         * rather than ours, or null if that can't be found out.
+         */
+        private Boolean utf16HighByteFirst(StringReference string) {
+            Boolean highByteFirst = valueCache.getUtf16HighByteFirst();
+            if (highByteFirst != null) {
+                return highByteFirst;
+            }
+            List<ReferenceType> types = string.virtualMachine().classesByName("java.lang.StringUTF16");
+            stats.metadataRoundTrips++;
+            for (ReferenceType type : types) {
+                Field shift = type.fieldByName("HI_BYTE_SHIFT");
+                if (shift != null && shift.isStatic()) {
+                    Value value = type.getValue(shift);
+                    stats.metadataRoundTrips++;
+                    if (value instanceof IntegerValue) {
+                        highByteFirst = ((IntegerValue) value).value() == 8;
+                        valueCache.setUtf16HighByteFirst(highByteFirst);
+                        return highByteFirst;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Fetches the internals of collections for their renderers, accounting for the round trips made.
+         */
+        private class Fetcher implements CollectionRenderer.Fetcher {
+            @Override
+            public Map<String, Value> getValues(ObjectReference object, String... names) {
+                List<String> wanted = Arrays.asList(names);
+                List<Field> fields = new ArrayList<>(names.length);
+                for (Field field : typeInfo(object).visibleFields) {
+                    if (wanted.contains(field.name())) {
+                        fields.add(field);
+                    }
+                }
+
+                Map<String, Value> values = new HashMap<>();
+                if (!fields.isEmpty()) {
+                    object.getValues(fields).forEach((field, value) -> values.put(field.name(), value));
+                    stats.objectRoundTrips++;
+                }
+                return values;
+            }
+
+            @Override
+            public List<Value> getValues(ArrayReference array, int offset, int count) {
+                stats.arrayRoundTrips++;
+                return array.getValues(offset, count);
+            }
+
+            @Override
+            public int length(ArrayReference array) {
+                stats.arrayRoundTrips++;
+                return array.length();
+            }
+
+            @Override
+            public Rendering render(ObjectReference collection, int maxEntries) {
+                CollectionRenderer renderer = collectionRenderers.forClass(typeInfo(collection).name);
+                return renderer != null ? renderer.render(collection, maxEntries, this) : null;
+            }
+        }
+
+        /**
+         * Whether a value is an object of the given type, for recognising chains. It's only asked of objects which haven't
+         * been reached yet, so JDI is unlikely to know their types already and the lookup is counted as a round trip.
+         */
+        private boolean isOfType(Value value, TypeInfo type) {
+            if (!(value instanceof ObjectReference)) {
+                return false;
+            }
+            stats.metadataRoundTrips++;
+            return typeInfo((ObjectReference) value) == type;
+        }
+
+        /**
+         * Returns the cached metadata for the type of an object, counting a round trip if it had to be fetched.
+         */
+        private TypeInfo typeInfo(ObjectReference reference) {
+            ReferenceType type = reference.referenceType();
+            TypeInfo info = typeCache.getIfPresent(type);
+            if (info == null) {
+                info = typeCache.get(type);
+                stats.metadataRoundTrips++;
+            }
+            return info;
+        }
+    }
+
+    static String primitiveToString(Value value) {
+        if (value instanceof BooleanValue) {
+            return Boolean.toString(((BooleanValue) value).value());
+        } else if (value instanceof ByteValue) {
+            return Byte.toString(((ByteValue) value).value());
+        } else if (value instanceof CharValue) {
+            return Character.toString(((CharValue) value).value());
+        } else if (value instanceof DoubleValue) {
+            return Double.toString(((DoubleValue) value).value());
+        } else if (value instanceof FloatValue) {
+            return Float.toString(((FloatValue) value).value());
+        } else if (value instanceof IntegerValue) {
+            return Integer.toString(((IntegerValue) value).value());
+        } else if (value instanceof LongValue) {
+            return Long.toString(((LongValue) value).value());
+        } else if (value instanceof ShortValue) {
+            return Short.toString(((ShortValue) value).value());
+        } else if (value instanceof VoidValue) {
+            return "void";
+        } else {
+            return "UNKNOWN";
+        }
+    }
+
+    /**
+     * Estimates the number of bytes fetched from the target VirtualMachine for a value.
+     * <p>
+     * The contents of strings are accounted for separately as they're fetched.
+     */
+    private static long sizeOf(Value value) {
+        if (value instanceof BooleanValue || value instanceof ByteValue) {
+            return 1;
+        } else if (value instanceof CharValue || value instanceof ShortValue) {
+            return 2;
+        } else if (value instanceof IntegerValue || value instanceof FloatValue) {
+            return 4;
+        } else {
+            return 8;
+        }
+    }
+
+    /**
+     * Counts of the JDWP round trips made whilst building a snapshot.
+     * <p>
+     * The counts are of the JDI calls made which may need to talk to the target VirtualMachine; JDI caches some
+     * metadata itself, so {@link #metadataRoundTrips} is an upper bound.
+     */
+    static class Stats {
+        int frameRoundTrips;
+        int objectRoundTrips;
+        int arrayRoundTrips;
+        int metadataRoundTrips;
+        int stubs;
+
+        /**
+         * The number of strings, boxed primitives and enum constants which didn't need fetching as they were cached.
+         */
+        int cacheHits;
+
+        /**
+         * The number of objects whose fields didn't need fetching as they had been prefetched.
+         */
+        int prefetchHits;
+
+        /**
+         * The number of objects in chains which were collapsed, and so not fetched.
+         */
+        int collapsed;
+
+        long elapsedNanos;
+
+        void add(Stats other) {
+            frameRoundTrips += other.frameRoundTrips;
+            objectRoundTrips += other.objectRoundTrips;
+            arrayRoundTrips += other.arrayRoundTrips;
+            metadataRoundTrips += other.metadataRoundTrips;
+            stubs += other.stubs;
+            cacheHits += other.cacheHits;
+            prefetchHits += other.prefetchHits;
+            collapsed += other.collapsed;
+        }
+
+        int totalRoundTrips() {
+            return frameRoundTrips + objectRoundTrips + arrayRoundTrips + metadataRoundTrips;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d round trips (frames: %d, objects: %d, arrays: %d, metadata: %d), %d stubs, "
+                            + "%d collapsed, %d cache hits, %d prefetched in %.1fms",
+                    totalRoundTrips(), frameRoundTrips, objectRoundTrips, arrayRoundTrips, metadataRoundTrips,
+                    stubs, collapsed, cacheHits, prefetchHits, elapsedNanos / 1e6);
+        }
+    }
+}
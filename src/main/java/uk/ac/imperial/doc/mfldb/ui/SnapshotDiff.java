@@ -0,0 +1,110 @@
+package uk.ac.imperial.doc.mfldb.ui;
+
+import uk.ac.imperial.doc.mfldb.ui.StackAndHeapController.*;
+
+import java.util.*;
+
+/**
+ * Computes the {@link SnapshotPatch} between two snapshots.
+ * <p>
+ * Frames are matched by their index from the bottom of the whole stack (counting hidden frames, and every frame
+ * summarised by a recursive frame), and heap objects by their id (the object's unique id in the target VirtualMachine).
+ */
+final class SnapshotDiff {
+
+    private static final String[] NONE = new String[0];
+
+    private SnapshotDiff() {
+        // No instances
+    }
+
+    static SnapshotPatch between(FrameInfo[] oldStack, Map<String, HeapObjectInfo> oldHeap,
+                                 FrameInfo[] newStack, Map<String, HeapObjectInfo> newHeap) {
+        return between(oldStack, 0, oldHeap, newStack, 0, newHeap);
+    }
+
+    /**
+     * Computes the patch between two snapshots whose stacks may have frames hidden beneath them.
+     *
+     * @param oldHiddenFrames The number of frames hidden beneath the old stack.
+     * @param newHiddenFrames The number of frames hidden beneath the new stack.
+     */
+    static SnapshotPatch between(FrameInfo[] oldStack, int oldHiddenFrames, Map<String, HeapObjectInfo> oldHeap,
+                                 FrameInfo[] newStack, int newHiddenFrames, Map<String, HeapObjectInfo> newHeap) {
+        Map<Integer, FrameInfo> oldFrames = indexed(oldStack, oldHiddenFrames);
+        Map<Integer, FrameInfo> newFrames = indexed(newStack, newHiddenFrames);
+
+        List<FramePatch> frames = new ArrayList<>();
+        int stackSize = newHiddenFrames;
+        for (Map.Entry<Integer, FrameInfo> entry : newFrames.entrySet()) {
+            FrameInfo previous = oldFrames.get(entry.getKey());
+            FrameInfo next = entry.getValue();
+            if (previous == null || !previous.function.equals(next.function) || previous.repeated != next.repeated) {
+                frames.add(new FramePatch(entry.getKey(), next, NONE));
+            } else if (!Arrays.equals(previous.variables, next.variables)) {
+                frames.add(new FramePatch(entry.getKey(), next, changedNames(previous.variables, next.variables)));
+            }
+            stackSize += next.repeated;
+        }
+
+        int[] removedFrames = oldFrames.keySet().stream()
+                .filter(index -> !newFrames.containsKey(index))
+                .mapToInt(Integer::intValue)
+                .toArray();
+
+        List<HeapObjectPatch> objects = new ArrayList<>();
+        for (HeapObjectInfo next : newHeap.values()) {
+            HeapObjectInfo previous = oldHeap.get(next.id);
+            if (previous == null || previous.stub != next.stub || previous.chain != next.chain
+                    || !previous.klass.equals(next.klass) || previous.offset != next.offset) {
+                // Added, a stub or chain which was expanded (or collapsed again) or a window which was moved: there's
+                // nothing meaningful to highlight.
+                objects.add(new HeapObjectPatch(next, NONE));
+            } else if (!Arrays.equals(previous.fields, next.fields) || previous.length != next.length) {
+                objects.add(new HeapObjectPatch(next, changedNames(previous.fields, next.fields)));
+            }
+        }
+
+        String[] removed = oldHeap.keySet().stream()
+                .filter(id -> !newHeap.containsKey(id))
+                .toArray(String[]::new);
+
+        return new SnapshotPatch(stackSize, newHiddenFrames,
+                frames.stream().toArray(FramePatch[]::new),
+                removedFrames,
+                objects.stream().toArray(HeapObjectPatch[]::new),
+                removed);
+    }
+
+    /**
+     * Returns the frames of a stack keyed by their index from the bottom of the whole stack.
+     */
+    private static Map<Integer, FrameInfo> indexed(FrameInfo[] stack, int hiddenFrames) {
+        Map<Integer, FrameInfo> frames = new LinkedHashMap<>();
+        int index = hiddenFrames;
+        for (FrameInfo frame : stack) {
+            frames.put(index, frame);
+            index += frame.repeated;
+        }
+        return frames;
+    }
+
+    /**
+     * Returns the names of the variables which are new or whose values differ between two sets of variables.
+     */
+    private static String[] changedNames(VariableInfo[] previous, VariableInfo[] next) {
+        if (next == null) {
+            return NONE;
+        }
+        Map<String, VariableInfo> byName = new HashMap<>();
+        if (previous != null) {
+            for (VariableInfo variable : previous) {
+                byName.put(variable.name, variable);
+            }
+        }
+        return Arrays.stream(next)
+                .filter(variable -> !variable.equals(byName.get(variable.name)))
+                .map(variable -> variable.name)
+                .toArray(String[]::new);
+    }
+}
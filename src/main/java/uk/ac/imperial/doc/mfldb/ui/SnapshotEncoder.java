@@ -0,0 +1,228 @@
+package uk.ac.imperial.doc.mfldb.ui;
+
+import uk.ac.imperial.doc.mfldb.ui.StackAndHeapController.*;
+
+import uk.ac.imperial.doc.mfldb.ui.HeapLayout.Position;
+
+import java.util.*;
+
+/**
+ * Encodes a {@link SnapshotPatch} as compact JSON for the stack and heap view, so that it crosses the bridge into the
+ * WebView as a single string rather than as Java objects which JavaScript would have to call back into for every field.
+ * <p>
+ * The patch is split into chunks of at most a given number of heap objects, so that the view can draw the first chunk
+ * (which carries the whole stack) before the rest have been parsed. Frames, objects and variables are encoded as arrays
+ * rather than objects, and type and variable names are interned into a string table which is sent incrementally with
+ * each chunk:
+ * <pre>
+ * {"first": bool, "last": bool, "strings": [new strings...], "extent": [columns, height], "stackSize": int,
+ *  "hiddenFrames": int, "frames": [[index, function, [variable...] | null, [changed name...], repeated]...],
+ *  "removedFrames": [index...],
+ *  "removed": [id...], "moved": [[id, column, y]...],
+ *  "objects": [[id, klass, kind, length, offset, count, [variable...], [changed name...], column, y]...]}
+ * </pre>
+ * where each variable is {@code [type, name, value, isReference]}, types, names and klasses are indices into the
+ * string table, and kind is 0 for an ordinary object, 1 for a stub or 2 for the summary of a chain. Objects are positioned by the {@link HeapLayout}; those which weren't otherwise patched but had to be
+ * moved are listed separately.
+ */
+final class SnapshotEncoder {
+
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    private final List<String> newStrings = new ArrayList<>();
+
+    private final StringBuilder json = new StringBuilder();
+
+    private final HeapLayout.Update layout;
+
+    private SnapshotEncoder(HeapLayout.Update layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * Encodes a patch as one or more chunks of JSON.
+     *
+     * @param patch           The patch to be encoded.
+     * @param layout          The positions of the objects in the patch, and of any others which moved.
+     * @param objectsPerChunk The maximum number of heap objects in each chunk.
+     * @return The chunks, in the order they should be applied.
+     */
+    static List<String> encode(SnapshotPatch patch, HeapLayout.Update layout, int objectsPerChunk) {
+        SnapshotEncoder encoder = new SnapshotEncoder(layout);
+        List<String> chunks = new ArrayList<>();
+        int start = 0;
+        do {
+            int end = Math.min(start + objectsPerChunk, patch.objects.length);
+            chunks.add(encoder.encodeChunk(patch, start, end));
+            start = end;
+        } while (start < patch.objects.length);
+        return chunks;
+    }
+
+    private String encodeChunk(SnapshotPatch patch, int start, int end) {
+        boolean first = start == 0;
+
+        // Encode the body first, so that we know which strings it interned.
+        json.setLength(0);
+        json.append(",\"extent\":[").append(layout.columns).append(',').append(layout.height).append(']');
+        if (first) {
+            json.append(",\"stackSize\":").append(patch.stackSize);
+            json.append(",\"hiddenFrames\":").append(patch.hiddenFrames);
+            json.append(",\"frames\":[");
+            for (int i = 0; i < patch.frames.length; i++) {
+                if (i > 0) json.append(',');
+                encodeFrame(patch.frames[i]);
+            }
+            json.append("],\"removedFrames\":[");
+            for (int i = 0; i < patch.removedFrames.length; i++) {
+                if (i > 0) json.append(',');
+                json.append(patch.removedFrames[i]);
+            }
+            json.append("],\"removed\":[");
+            for (int i = 0; i < patch.removed.length; i++) {
+                if (i > 0) json.append(',');
+                quote(patch.removed[i]);
+            }
+            json.append("],\"moved\":[");
+            encodeMoved(patch);
+            json.append(']');
+        }
+        json.append(",\"objects\":[");
+        for (int i = start; i < end; i++) {
+            if (i > start) json.append(',');
+            encodeObject(patch.objects[i]);
+        }
+        json.append("]}");
+        String body = json.toString();
+
+        json.setLength(0);
+        json.append("{\"first\":").append(first);
+        json.append(",\"last\":").append(end == patch.objects.length);
+        json.append(",\"strings\":[");
+        for (int i = 0; i < newStrings.size(); i++) {
+            if (i > 0) json.append(',');
+            quote(newStrings.get(i));
+        }
+        newStrings.clear();
+        json.append(']');
+        return json.append(body).toString();
+    }
+
+    private void encodeFrame(FramePatch framePatch) {
+        json.append('[').append(framePatch.index).append(',');
+        quote(framePatch.frame.function);
+        json.append(',');
+        encodeVariables(framePatch.frame.variables);
+        json.append(',');
+        encodeNames(framePatch.changed);
+        json.append(',').append(framePatch.frame.repeated);
+        json.append(']');
+    }
+
+    private void encodeObject(HeapObjectPatch objectPatch) {
+        HeapObjectInfo object = objectPatch.object;
+        json.append('[');
+        quote(object.id);
+        json.append(',').append(intern(object.klass));
+        json.append(',').append(object.stub ? 1 : object.chain ? 2 : 0);
+        json.append(',').append(object.length);
+        json.append(',').append(object.offset);
+        json.append(',').append(object.count);
+        json.append(',');
+        encodeVariables(object.fields);
+        json.append(',');
+        encodeNames(objectPatch.changed);
+        Position position = layout.positions.get(object.id);
+        json.append(',').append(position.column);
+        json.append(',').append(position.y);
+        json.append(']');
+    }
+
+    private void encodeMoved(SnapshotPatch patch) {
+        Set<String> patched = new HashSet<>();
+        for (HeapObjectPatch objectPatch : patch.objects) {
+            patched.add(objectPatch.object.id);
+        }
+        boolean separator = false;
+        for (Map.Entry<String, Position> entry : layout.positions.entrySet()) {
+            if (!patched.contains(entry.getKey())) {
+                if (separator) json.append(',');
+                separator = true;
+                json.append('[');
+                quote(entry.getKey());
+                json.append(',').append(entry.getValue().column);
+                json.append(',').append(entry.getValue().y);
+                json.append(']');
+            }
+        }
+    }
+
+    private void encodeVariables(VariableInfo[] variables) {
+        if (variables == null) {
+            json.append("null");
+            return;
+        }
+        json.append('[');
+        for (int i = 0; i < variables.length; i++) {
+            VariableInfo variable = variables[i];
+            if (i > 0) json.append(',');
+            json.append('[').append(intern(variable.type));
+            json.append(',').append(intern(variable.name));
+            json.append(',');
+            quote(variable.value);
+            json.append(',').append(variable.isReference ? 1 : 0);
+            json.append(']');
+        }
+        json.append(']');
+    }
+
+    private void encodeNames(String[] names) {
+        json.append('[');
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) json.append(',');
+            json.append(intern(names[i]));
+        }
+        json.append(']');
+    }
+
+    private int intern(String s) {
+        Integer index = strings.get(s);
+        if (index == null) {
+            index = strings.size();
+            strings.put(s, index);
+            newStrings.add(s);
+        }
+        return index;
+    }
+
+    private void quote(String s) {
+        json.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,444 @@
+package uk.ac.imperial.doc.mfldb.ui;
+
+import uk.ac.imperial.doc.mfldb.ui.StackAndHeapController.*;
+
+import java.util.*;
+
+import static uk.ac.imperial.doc.mfldb.ui.Const.HISTORY_CHECKPOINT_INTERVAL;
+
+/**
+ * A bounded history of the snapshots of a session, one per step, which can be shown again without touching the target.
+ * <p>
+ * Only the latest snapshot is kept whole. Each earlier step is kept as the reverse delta from the step after it: the
+ * objects which were different (or not there at all) and the ids of the objects which weren't there yet, along with
+ * its stack. Frames and objects which are the same as in the step before are shared rather than copied, so a history
+ * of many steps costs little more than the latest snapshot plus whatever changed at each step.
+ * <p>
+ * Reconstructing an earlier step means applying each delta after it in turn, each of which copies the heap. So that
+ * stepping back and forth through the history doesn't cost that every time, the last step reconstructed is kept, as is
+ * every {@link Const#HISTORY_CHECKPOINT_INTERVAL}th step reconstructed on the way to it, and reconstruction starts from
+ * the nearest of those after the step wanted. These share their frames and objects with the rest of the history, and as
+ * a step never changes once it's no longer the latest they stay valid until they're evicted.
+ * <p>
+ * The oldest steps are evicted once there are more than a maximum number of steps, or their estimated size exceeds a
+ * memory budget. The copies of the heap kept for reconstructed steps count towards the budget too, but as they can
+ * always be reconstructed again they're dropped before any step is evicted.
+ */
+final class SnapshotHistory {
+
+    private final int maxSteps;
+
+    private final long maxBytes;
+
+    /**
+     * The latest snapshot, or null if there's no history.
+     */
+    private Snapshot latest;
+
+    /**
+     * The reverse deltas, oldest first, so that the last one takes the latest snapshot back to the step before it.
+     */
+    private final Deque<Delta> deltas = new ArrayDeque<>();
+
+    /**
+     * The estimated size of the latest snapshot and of all the deltas.
+     */
+    private long latestBytes;
+    private long deltaBytes;
+
+    /**
+     * The number of steps evicted so far, so that steps can be numbered from the first one recorded: kept
+     * reconstructions are keyed by these numbers, which don't change as older steps are evicted.
+     */
+    private long evicted;
+
+    /**
+     * Earlier steps kept whole once they've been reconstructed, by number: the last one reconstructed, and every
+     * {@link Const#HISTORY_CHECKPOINT_INTERVAL}th one reconstructed on the way to it.
+     */
+    private final NavigableMap<Long, Snapshot> checkpoints = new TreeMap<>();
+
+    /**
+     * The estimated size of the copies of the heap made for the steps kept whole.
+     */
+    private long checkpointBytes;
+
+    /**
+     * The number of the last earlier step reconstructed, or -1.
+     */
+    private long lastStep = -1;
+
+    SnapshotHistory(int maxSteps, long maxBytes) {
+        this.maxSteps = maxSteps;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the number of steps in the history.
+     */
+    int size() {
+        return latest == null ? 0 : deltas.size() + 1;
+    }
+
+    /**
+     * Adds the snapshot of a new step, evicting the oldest steps if the history is now too large.
+     */
+    void record(FrameInfo[] stack, int hiddenFrames, Map<String, HeapObjectInfo> heap) {
+        Snapshot next = shared(latest, stack, hiddenFrames, heap);
+        if (latest != null) {
+            Delta delta = Delta.between(next, latest);
+            deltas.addLast(delta);
+            deltaBytes += delta.bytes;
+        }
+        latest = next;
+        latestBytes = sizeOf(next);
+        evict();
+    }
+
+    /**
+     * Replaces the snapshot of the latest step, such as when more of it has been fetched.
+     */
+    void replaceLatest(FrameInfo[] stack, int hiddenFrames, Map<String, HeapObjectInfo> heap) {
+        if (latest == null) {
+            record(stack, hiddenFrames, heap);
+            return;
+        }
+        Delta previousDelta = deltas.pollLast();
+        if (previousDelta != null) {
+            deltaBytes -= previousDelta.bytes;
+        }
+        Snapshot previous = previousDelta != null ? previousDelta.applyTo(latest) : null;
+        latest = shared(latest, stack, hiddenFrames, heap);
+        latestBytes = sizeOf(latest);
+        if (previous != null) {
+            Delta delta = Delta.between(latest, previous);
+            deltas.addLast(delta);
+            deltaBytes += delta.bytes;
+        }
+        evict();
+    }
+
+    /**
+     * Returns the snapshot of a step.
+     *
+     * @param step The step, from 0 for the oldest kept up to {@link #size()} - 1 for the latest.
+     */
+    Snapshot get(int step) {
+        if (step < 0 || step >= size()) {
+            throw new IndexOutOfBoundsException("No step " + step + " in history of " + size());
+        }
+        long number = evicted + step;
+        if (step == size() - 1) {
+            return latest;
+        }
+        Snapshot kept = checkpoints.get(number);
+        if (kept != null) {
+            setLastStep(number);
+            return kept;
+        }
+
+        // Start from the nearest step after this one which is already whole.
+        int from = size() - 1;
+        Snapshot snapshot = latest;
+        Map.Entry<Long, Snapshot> checkpoint = checkpoints.ceilingEntry(number);
+        if (checkpoint != null) {
+            from = (int) (checkpoint.getKey() - evicted);
+            snapshot = checkpoint.getValue();
+        }
+
+        Iterator<Delta> newestFirst = deltas.descendingIterator();
+        for (int i = size() - 1; i > from; i--) {
+            newestFirst.next();
+        }
+        for (int i = from; i > step; i--) {
+            snapshot = newestFirst.next().applyTo(snapshot);
+            if ((evicted + i - 1) % HISTORY_CHECKPOINT_INTERVAL == 0) {
+                keep(evicted + i - 1, snapshot);
+            }
+        }
+        setLastStep(number);
+        keep(number, snapshot);
+        evict();
+        return snapshot;
+    }
+
+    /**
+     * Keeps the last step reconstructed whole, no longer keeping the one before unless it's a checkpoint.
+     */
+    private void setLastStep(long number) {
+        if (lastStep >= 0 && lastStep != number && lastStep % HISTORY_CHECKPOINT_INTERVAL != 0) {
+            forget(lastStep);
+        }
+        lastStep = number;
+    }
+
+    private void keep(long number, Snapshot snapshot) {
+        if (checkpoints.put(number, snapshot) == null) {
+            checkpointBytes += copyBytes(snapshot);
+        }
+    }
+
+    private void forget(long number) {
+        Snapshot forgotten = checkpoints.remove(number);
+        if (forgotten != null) {
+            checkpointBytes -= copyBytes(forgotten);
+        }
+        if (number == lastStep) {
+            lastStep = -1;
+        }
+    }
+
+    void clear() {
+        latest = null;
+        deltas.clear();
+        latestBytes = 0;
+        deltaBytes = 0;
+        evicted = 0;
+        checkpoints.clear();
+        checkpointBytes = 0;
+        lastStep = -1;
+    }
+
+    long estimatedBytes() {
+        return latestBytes + deltaBytes + checkpointBytes;
+    }
+
+    private void evict() {
+        // Steps kept whole can be reconstructed again, so they're dropped (oldest first) before any step is evicted.
+        while (!checkpoints.isEmpty() && estimatedBytes() > maxBytes) {
+            forget(checkpoints.firstKey());
+        }
+        while (!deltas.isEmpty() && (size() > maxSteps || estimatedBytes() > maxBytes)) {
+            deltaBytes -= deltas.removeFirst().bytes;
+            evicted++;
+        }
+        while (!checkpoints.isEmpty() && checkpoints.firstKey() < evicted) {
+            forget(checkpoints.firstKey());
+        }
+    }
+
+    /**
+     * Returns a new snapshot, sharing every frame and object which is the same as in the previous one.
+     */
+    private static Snapshot shared(Snapshot previous, FrameInfo[] stack, int hiddenFrames,
+                                   Map<String, HeapObjectInfo> heap) {
+        FrameInfo[] sharedStack = stack.clone();
+        Map<String, HeapObjectInfo> sharedHeap = new LinkedHashMap<>(heap);
+        if (previous != null) {
+            for (int i = 0; i < sharedStack.length; i++) {
+                for (FrameInfo frame : previous.stack) {
+                    if (sameFrame(frame, sharedStack[i])) {
+                        sharedStack[i] = frame;
+                        break;
+                    }
+                }
+            }
+            sharedHeap.replaceAll((id, object) -> {
+                HeapObjectInfo previousObject = previous.heap.get(id);
+                return sameObject(previousObject, object) ? previousObject : object;
+            });
+        }
+        return new Snapshot(sharedStack, hiddenFrames, sharedHeap);
+    }
+
+    private static boolean sameFrame(FrameInfo a, FrameInfo b) {
+        return a == b || a.function.equals(b.function) && a.repeated == b.repeated
+                && Arrays.equals(a.variables, b.variables);
+    }
+
+    private static boolean sameObject(HeapObjectInfo a, HeapObjectInfo b) {
+        return a == b || a != null && b != null && a.id.equals(b.id) && a.klass.equals(b.klass)
+                && a.stub == b.stub && a.chain == b.chain
+                && a.length == b.length && a.offset == b.offset && a.count == b.count
+                && Arrays.equals(a.fields, b.fields);
+    }
+
+    /**
+     * Estimates the size of the heap map copied for a reconstructed step, whose frames and objects are all shared with
+     * the rest of the history.
+     */
+    private static long copyBytes(Snapshot snapshot) {
+        return 64 + 48 * snapshot.heap.size();
+    }
+
+    private static long sizeOf(Snapshot snapshot) {
+        long bytes = sizeOf(snapshot.stack, null);
+        for (HeapObjectInfo object : snapshot.heap.values()) {
+            bytes += sizeOf(object);
+        }
+        return bytes;
+    }
+
+    /**
+     * Estimates the size of the frames of a stack which aren't shared with another stack.
+     */
+    private static long sizeOf(FrameInfo[] stack, FrameInfo[] sharedWith) {
+        Set<FrameInfo> shared = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (sharedWith != null) {
+            shared.addAll(Arrays.asList(sharedWith));
+        }
+        long bytes = 16 + 8 * stack.length;
+        for (FrameInfo frame : stack) {
+            if (!shared.contains(frame)) {
+                bytes += 32 + 2 * frame.function.length() + sizeOf(frame.variables);
+            }
+        }
+        return bytes;
+    }
+
+    private static long sizeOf(HeapObjectInfo object) {
+        return 56 + 2 * (object.id.length() + object.klass.length()) + sizeOf(object.fields);
+    }
+
+    private static long sizeOf(VariableInfo[] variables) {
+        if (variables == null) {
+            return 0;
+        }
+        long bytes = 16 + 8 * variables.length;
+        for (VariableInfo variable : variables) {
+            bytes += 32 + 2 * (variable.type.length() + variable.name.length() + variable.value.length());
+        }
+        return bytes;
+    }
+
+    /**
+     * The stack and heap of a single step.
+     */
+    static final class Snapshot {
+        final FrameInfo[] stack;
+        final int hiddenFrames;
+        final Map<String, HeapObjectInfo> heap;
+
+        Snapshot(FrameInfo[] stack, int hiddenFrames, Map<String, HeapObjectInfo> heap) {
+            this.stack = stack;
+            this.hiddenFrames = hiddenFrames;
+            this.heap = heap;
+        }
+    }
+
+    /**
+     * What takes the snapshot of one step back to the snapshot of the step before it.
+     */
+    private static final class Delta {
+        private final FrameInfo[] stack;
+        private final int hiddenFrames;
+
+        /**
+         * The objects of the earlier step which were different or gone in the later one.
+         */
+        private final Map<String, HeapObjectInfo> changed;
+
+        /**
+         * The ids of the objects of the later step which weren't in the earlier one.
+         */
+        private final Set<String> added;
+
+        /**
+         * The objects of the earlier step which were gone in the later one, in order, and where each was in the
+         * earlier step's heap.
+         */
+        private final String[] gone;
+        private final int[] goneAt;
+
+        /**
+         * The order of the ids of the earlier step's heap, if the objects in both steps are in a different order in
+         * each, or null if it can be worked out from the later step's order and {@link #goneAt}.
+         */
+        private final String[] order;
+
+        private final long bytes;
+
+        private Delta(FrameInfo[] stack, int hiddenFrames, Map<String, HeapObjectInfo> changed, Set<String> added,
+                      String[] gone, int[] goneAt, String[] order, long bytes) {
+            this.stack = stack;
+            this.hiddenFrames = hiddenFrames;
+            this.changed = changed;
+            this.added = added;
+            this.gone = gone;
+            this.goneAt = goneAt;
+            this.order = order;
+            this.bytes = bytes;
+        }
+
+        static Delta between(Snapshot later, Snapshot earlier) {
+            Map<String, HeapObjectInfo> changed = new HashMap<>();
+            List<String> gone = new ArrayList<>();
+            List<Integer> goneAt = new ArrayList<>();
+            long bytes = sizeOf(earlier.stack, later.stack);
+            int position = 0;
+            for (HeapObjectInfo object : earlier.heap.values()) {
+                if (later.heap.get(object.id) != object) {
+                    changed.put(object.id, object);
+                    bytes += sizeOf(object);
+                }
+                if (!later.heap.containsKey(object.id)) {
+                    gone.add(object.id);
+                    goneAt.add(position);
+                }
+                position++;
+            }
+            Set<String> added = new HashSet<>();
+            for (String id : later.heap.keySet()) {
+                if (!earlier.heap.containsKey(id)) {
+                    added.add(id);
+                }
+            }
+            bytes += 16 + 8 * added.size() + 12 * gone.size();
+
+            // Only keep the earlier order whole if the objects in both steps were shuffled around.
+            Iterator<String> earlierIds = earlier.heap.keySet().iterator();
+            boolean sameOrder = true;
+            for (String id : later.heap.keySet()) {
+                if (added.contains(id)) {
+                    continue;
+                }
+                String earlierId = earlierIds.next();
+                while (!later.heap.containsKey(earlierId)) {
+                    earlierId = earlierIds.next();
+                }
+                if (!earlierId.equals(id)) {
+                    sameOrder = false;
+                    break;
+                }
+            }
+            String[] order = null;
+            if (!sameOrder) {
+                order = earlier.heap.keySet().stream().toArray(String[]::new);
+                bytes += 16 + 8 * order.length;
+            }
+
+            return new Delta(earlier.stack, earlier.hiddenFrames, changed, added, gone.stream().toArray(String[]::new),
+                    goneAt.stream().mapToInt(Integer::intValue).toArray(), order, bytes);
+        }
+
+        /**
+         * Returns the earlier step, with its heap in the order it was in rather than the later step's.
+         */
+        Snapshot applyTo(Snapshot later) {
+            Map<String, HeapObjectInfo> heap = new LinkedHashMap<>();
+            if (order != null) {
+                for (String id : order) {
+                    HeapObjectInfo object = changed.get(id);
+                    heap.put(id, object != null ? object : later.heap.get(id));
+                }
+                return new Snapshot(stack, hiddenFrames, heap);
+            }
+
+            int next = 0;
+            for (HeapObjectInfo object : later.heap.values()) {
+                if (added.contains(object.id)) {
+                    continue;
+                }
+                for (; next < gone.length && goneAt[next] == heap.size(); next++) {
+                    heap.put(gone[next], changed.get(gone[next]));
+                }
+                HeapObjectInfo earlierObject = changed.get(object.id);
+                heap.put(object.id, earlierObject != null ? earlierObject : object);
+            }
+            for (; next < gone.length; next++) {
+                heap.put(gone[next], changed.get(gone[next]));
+            }
+            return new Snapshot(stack, hiddenFrames, heap);
+        }
+    }
+}
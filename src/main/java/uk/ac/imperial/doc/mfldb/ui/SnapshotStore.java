@@ -0,0 +1,382 @@
+package uk.ac.imperial.doc.mfldb.ui;
+
+import uk.ac.imperial.doc.mfldb.ui.StackAndHeapController.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Records the snapshots of a long session to a memory-mapped file, so that the debugger's own heap doesn't grow with
+ * the number of steps recorded.
+ * <p>
+ * Each step is appended as a single record, and the offset of each record is kept in a second, index file (named after
+ * the first with {@code .index} appended), so any step can be read back on its own. A record is laid out as:
+ * <ul>
+ * <li>its length, then a table of the distinct strings it uses, each of which is referred to by index from then on;</li>
+ * <li>the number of hidden frames, then the frames in columns: all of the functions, all of the repeat counts and
+ * all of the variable counts (-1 for a frame whose variables weren't fetched);</li>
+ * <li>the heap objects in columns: all of the ids, all of the classes, and so on;</li>
+ * <li>the variables of all of the frames, then the fields of all of the objects, again in columns.</li>
+ * </ul>
+ * The file is mapped a region at a time, and records are written straight into the region being appended to.
+ */
+final class SnapshotStore implements Closeable {
+
+    private static final int INDEX_ENTRY_BYTES = 8;
+
+    private final FileChannel data;
+
+    private final FileChannel index;
+
+    private final int regionBytes;
+
+    /**
+     * The region of the data file being appended to, and its offset in the file.
+     */
+    private MappedByteBuffer region;
+    private long regionOffset;
+
+    /**
+     * The region of the index file mapped, which is remapped twice the size whenever it fills up.
+     */
+    private MappedByteBuffer indexRegion;
+
+    private long end;
+
+    private int size;
+
+    private SnapshotStore(FileChannel data, FileChannel index, int regionBytes) {
+        this.data = data;
+        this.index = index;
+        this.regionBytes = regionBytes;
+    }
+
+    /**
+     * Creates a new, empty store, replacing any existing recording in the file.
+     *
+     * @param file        The data file.
+     * @param regionBytes The size of the regions of the data file mapped at a time.
+     * @throws IOException If the files can't be created.
+     */
+    static SnapshotStore create(Path file, int regionBytes) throws IOException {
+        FileChannel data = FileChannel.open(file, CREATE, TRUNCATE_EXISTING, READ, WRITE);
+        FileChannel index;
+        try {
+            index = FileChannel.open(indexFileFor(file), CREATE, TRUNCATE_EXISTING, READ, WRITE);
+        } catch (IOException e) {
+            data.close();
+            throw e;
+        }
+        SnapshotStore store = new SnapshotStore(data, index, regionBytes);
+        store.indexRegion = index.map(FileChannel.MapMode.READ_WRITE, 0, 1024 * INDEX_ENTRY_BYTES);
+        return store;
+    }
+
+    static Path indexFileFor(Path file) {
+        return Paths.get(file.toString() + ".index");
+    }
+
+    /**
+     * Returns the number of steps recorded.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Appends the snapshot of a new step.
+     */
+    void append(FrameInfo[] stack, int hiddenFrames, Map<String, HeapObjectInfo> heap) throws IOException {
+        long offset = write(encode(stack, hiddenFrames, heap));
+        if ((long) (size + 1) * INDEX_ENTRY_BYTES > indexRegion.capacity()) {
+            indexRegion = index.map(FileChannel.MapMode.READ_WRITE, 0, 2L * indexRegion.capacity());
+        }
+        indexRegion.putLong(size * INDEX_ENTRY_BYTES, offset);
+        size++;
+    }
+
+    /**
+     * Replaces the snapshot of the latest step, such as when more of it has been fetched. The replaced record is left
+     * in the file, but is no longer indexed.
+     */
+    void replaceLatest(FrameInfo[] stack, int hiddenFrames, Map<String, HeapObjectInfo> heap) throws IOException {
+        if (size == 0) {
+            append(stack, hiddenFrames, heap);
+            return;
+        }
+        long offset = write(encode(stack, hiddenFrames, heap));
+        indexRegion.putLong((size - 1) * INDEX_ENTRY_BYTES, offset);
+    }
+
+    /**
+     * Reads back the snapshot of a step.
+     *
+     * @param step The step, from 0 for the first recorded.
+     */
+    SnapshotHistory.Snapshot read(int step) throws IOException {
+        if (step < 0 || step >= size) {
+            throw new IndexOutOfBoundsException("No step " + step + " in recording of " + size);
+        }
+        long offset = indexRegion.getLong(step * INDEX_ENTRY_BYTES);
+        ByteBuffer record = recordAt(offset);
+        return decode(record);
+    }
+
+    @Override
+    public void close() throws IOException {
+        region = null;
+        indexRegion = null;
+        try {
+            data.truncate(end);
+            index.truncate((long) size * INDEX_ENTRY_BYTES);
+        } catch (IOException e) {
+            // Some platforms won't truncate a file which is still mapped; the slack at the end is harmless.
+        } finally {
+            data.close();
+            index.close();
+        }
+    }
+
+    /**
+     * Writes a record at the end of the data file, mapping a new region if it doesn't fit in the current one.
+     *
+     * @return The offset of the record.
+     */
+    private long write(byte[] record) throws IOException {
+        int length = Integer.BYTES + record.length;
+        if (region == null || end + length > regionOffset + region.capacity()) {
+            regionOffset = end;
+            region = data.map(FileChannel.MapMode.READ_WRITE, regionOffset, Math.max(regionBytes, length));
+        }
+        long offset = end;
+        ((Buffer) region).position((int) (offset - regionOffset));
+        region.putInt(record.length);
+        region.put(record);
+        end += length;
+        return offset;
+    }
+
+    private ByteBuffer recordAt(long offset) throws IOException {
+        ByteBuffer buffer;
+        long position;
+        if (region != null && offset >= regionOffset) {
+            buffer = region.duplicate();
+            position = offset - regionOffset;
+        } else {
+            int length = data.map(FileChannel.MapMode.READ_ONLY, offset, Integer.BYTES).getInt(0);
+            buffer = data.map(FileChannel.MapMode.READ_ONLY, offset, Integer.BYTES + length);
+            position = 0;
+        }
+        ((Buffer) buffer).position((int) position);
+        int length = buffer.getInt();
+        ByteBuffer record = buffer.slice();
+        ((Buffer) record).limit(length);
+        return record;
+    }
+
+    private static byte[] encode(FrameInfo[] stack, int hiddenFrames, Map<String, HeapObjectInfo> heap)
+            throws IOException {
+        Strings strings = new Strings();
+        List<VariableInfo> variables = new ArrayList<>();
+        for (FrameInfo frame : stack) {
+            strings.add(frame.function);
+            if (frame.variables != null) {
+                variables.addAll(Arrays.asList(frame.variables));
+            }
+        }
+        for (HeapObjectInfo object : heap.values()) {
+            strings.add(object.id);
+            strings.add(object.klass);
+            variables.addAll(Arrays.asList(object.fields));
+        }
+        for (VariableInfo variable : variables) {
+            strings.add(variable.type);
+            strings.add(variable.name);
+            strings.add(variable.value);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(strings.list.size());
+        for (String string : strings.list) {
+            byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(utf8.length);
+            out.write(utf8);
+        }
+
+        out.writeInt(hiddenFrames);
+        out.writeInt(stack.length);
+        for (FrameInfo frame : stack) {
+            out.writeInt(strings.indexOf(frame.function));
+        }
+        for (FrameInfo frame : stack) {
+            out.writeInt(frame.repeated);
+        }
+        for (FrameInfo frame : stack) {
+            out.writeInt(frame.variables != null ? frame.variables.length : -1);
+        }
+
+        out.writeInt(heap.size());
+        for (HeapObjectInfo object : heap.values()) {
+            out.writeInt(strings.indexOf(object.id));
+        }
+        for (HeapObjectInfo object : heap.values()) {
+            out.writeInt(strings.indexOf(object.klass));
+        }
+        for (HeapObjectInfo object : heap.values()) {
+            out.writeByte((object.stub ? 1 : 0) | (object.chain ? 2 : 0));
+        }
+        for (HeapObjectInfo object : heap.values()) {
+            out.writeInt(object.length);
+        }
+        for (HeapObjectInfo object : heap.values()) {
+            out.writeInt(object.offset);
+        }
+        for (HeapObjectInfo object : heap.values()) {
+            out.writeInt(object.count);
+        }
+        for (HeapObjectInfo object : heap.values()) {
+            out.writeInt(object.fields.length);
+        }
+
+        for (VariableInfo variable : variables) {
+            out.writeInt(strings.indexOf(variable.type));
+        }
+        for (VariableInfo variable : variables) {
+            out.writeInt(strings.indexOf(variable.name));
+        }
+        for (VariableInfo variable : variables) {
+            out.writeInt(strings.indexOf(variable.value));
+        }
+        for (VariableInfo variable : variables) {
+            out.writeBoolean(variable.isReference);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static SnapshotHistory.Snapshot decode(ByteBuffer in) {
+        String[] strings = new String[in.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] utf8 = new byte[in.getInt()];
+            in.get(utf8);
+            strings[i] = new String(utf8, StandardCharsets.UTF_8);
+        }
+
+        int hiddenFrames = in.getInt();
+        int frameCount = in.getInt();
+        String[] functions = new String[frameCount];
+        int[] repeated = new int[frameCount];
+        int[] variableCounts = new int[frameCount];
+        for (int i = 0; i < frameCount; i++) {
+            functions[i] = strings[in.getInt()];
+        }
+        for (int i = 0; i < frameCount; i++) {
+            repeated[i] = in.getInt();
+        }
+        for (int i = 0; i < frameCount; i++) {
+            variableCounts[i] = in.getInt();
+        }
+
+        int objectCount = in.getInt();
+        String[] ids = new String[objectCount];
+        String[] klasses = new String[objectCount];
+        byte[] flags = new byte[objectCount];
+        int[] lengths = new int[objectCount];
+        int[] offsets = new int[objectCount];
+        int[] counts = new int[objectCount];
+        int[] fieldCounts = new int[objectCount];
+        for (int i = 0; i < objectCount; i++) {
+            ids[i] = strings[in.getInt()];
+        }
+        for (int i = 0; i < objectCount; i++) {
+            klasses[i] = strings[in.getInt()];
+        }
+        in.get(flags);
+        for (int i = 0; i < objectCount; i++) {
+            lengths[i] = in.getInt();
+        }
+        for (int i = 0; i < objectCount; i++) {
+            offsets[i] = in.getInt();
+        }
+        for (int i = 0; i < objectCount; i++) {
+            counts[i] = in.getInt();
+        }
+        int variableCount = 0;
+        for (int count : variableCounts) {
+            variableCount += Math.max(count, 0);
+        }
+        for (int i = 0; i < objectCount; i++) {
+            fieldCounts[i] = in.getInt();
+            variableCount += fieldCounts[i];
+        }
+
+        String[] types = new String[variableCount];
+        String[] names = new String[variableCount];
+        String[] values = new String[variableCount];
+        for (int i = 0; i < variableCount; i++) {
+            types[i] = strings[in.getInt()];
+        }
+        for (int i = 0; i < variableCount; i++) {
+            names[i] = strings[in.getInt()];
+        }
+        for (int i = 0; i < variableCount; i++) {
+            values[i] = strings[in.getInt()];
+        }
+        VariableInfo[] variables = new VariableInfo[variableCount];
+        for (int i = 0; i < variableCount; i++) {
+            variables[i] = new VariableInfo(types[i], names[i], values[i], in.get() != 0);
+        }
+
+        int next = 0;
+        FrameInfo[] stack = new FrameInfo[frameCount];
+        for (int i = 0; i < frameCount; i++) {
+            VariableInfo[] frameVariables = null;
+            if (variableCounts[i] >= 0) {
+                frameVariables = Arrays.copyOfRange(variables, next, next + variableCounts[i]);
+                next += variableCounts[i];
+            }
+            stack[i] = new FrameInfo(functions[i], frameVariables, repeated[i]);
+        }
+        Map<String, HeapObjectInfo> heap = new LinkedHashMap<>();
+        for (int i = 0; i < objectCount; i++) {
+            VariableInfo[] fields = Arrays.copyOfRange(variables, next, next + fieldCounts[i]);
+            next += fieldCounts[i];
+            HeapObjectInfo object = lengths[i] >= 0
+                    ? new HeapObjectInfo(ids[i], klasses[i], fields, lengths[i], offsets[i], counts[i])
+                    : new HeapObjectInfo(ids[i], klasses[i], fields, (flags[i] & 1) != 0, (flags[i] & 2) != 0);
+            heap.put(object.id, object);
+        }
+        return new SnapshotHistory.Snapshot(stack, hiddenFrames, heap);
+    }
+
+    /**
+     * The table of the distinct strings of a record.
+     */
+    private static final class Strings {
+        private final List<String> list = new ArrayList<>();
+        private final Map<String, Integer> indices = new HashMap<>();
+
+        void add(String string) {
+            if (indices.putIfAbsent(string, list.size()) == null) {
+                list.add(string);
+            }
+        }
+
+        int indexOf(String string) {
+            return indices.get(string);
+        }
+    }
+}
@@ -1,15 +1,28 @@
 package uk.ac.imperial.doc.mfldb.ui;
 
-import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sun.jdi.*;
+import javafx.application.Platform;
 import javafx.scene.web.WebEngine;
 import javafx.scene.web.WebView;
 import netscape.javascript.JSObject;
+import uk.ac.imperial.doc.mfldb.bridge.DebugSession;
+import uk.ac.imperial.doc.mfldb.bridge.ImmutableValueCache;
+import uk.ac.imperial.doc.mfldb.bridge.ReferenceTypeCache;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
-import static uk.ac.imperial.doc.mfldb.ui.Const.STACK_AND_HEAP_HTML;
+import static uk.ac.imperial.doc.mfldb.ui.Const.*;
 
 /**
  * Wraps a {@link WebView} for use with d3.js as a stack and heap diagram.
@@ -20,6 +33,65 @@ public class StackAndHeapController {
 
     private final Shim shim = new Shim();
 
+    private DebugSession session;
+
+    private TraversalBudget traversalBudget = TraversalBudget.DEFAULT;
+
+    private TraversalRules traversalRules = TraversalRules.DEFAULT;
+
+    private ReferenceTypeCache typeCache = new ReferenceTypeCache();
+
+    private ImmutableValueCache valueCache = new ImmutableValueCache();
+
+    private final CollectionRenderers collectionRenderers = CollectionRenderers.standard();
+
+    private SnapshotBuilder.Stats lastSnapshotStats;
+
+    /**
+     * How many objects each session keeps from being garbage collected, and for how many suspensions after they were
+     * last shown.
+     */
+    private int pinMaxObjects = DEFAULT_PIN_MAX_OBJECTS;
+    private int pinHorizon = DEFAULT_PIN_HORIZON;
+
+    /**
+     * How many steps of each session are kept in its history, and their (estimated) maximum size in bytes.
+     */
+    private int historyMaxSteps = DEFAULT_HISTORY_MAX_STEPS;
+    private long historyMaxBytes = DEFAULT_HISTORY_MAX_BYTES;
+
+    /**
+     * What the next request is likely to need, fetched while the target is suspended and the view is idle.
+     */
+    private final PrefetchedValues prefetchedValues = new PrefetchedValues();
+    private final Prefetcher prefetcher = new Prefetcher(prefetchedValues);
+
+    /**
+     * The views of the sessions shown so far which haven't ended, each kept as it was while another session is shown.
+     */
+    private final Map<DebugSession, SessionView> views = new HashMap<>();
+
+    /**
+     * The number of sessions recorded since none were left, which numbers the files the later ones are recorded to.
+     */
+    private int recordings;
+
+    /**
+     * The view of the session shown, or an empty one if there is none.
+     */
+    private SessionView view = newView(null);
+
+    /**
+     * The snapshots being built on the session's JDI thread, which haven't been shown yet, with their builders.
+     */
+    private final Map<CompletableFuture<?>, SnapshotBuilder> inFlight = new HashMap<>();
+
+    private final ExecutorService snapshotExecutor = Executors.newFixedThreadPool(SNAPSHOT_THREADS,
+            new ThreadFactoryBuilder().setNameFormat("Snapshot Resolver %d").setDaemon(true).build());
+
+    private final ExecutorService layoutExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("Heap Layout").setDaemon(true).build());
+
     public StackAndHeapController(WebView webView) {
         this.webView = webView;
         WebEngine engine = webView.getEngine();
@@ -32,161 +104,609 @@ public class StackAndHeapController {
         engine.load(getClass().getResource(STACK_AND_HEAP_HTML).toExternalForm());
     }
 
-    public void buildViewFor(List<StackFrame> frames) {
-        Set<ObjectReference> unresolvedReferences = new LinkedHashSet<>();
-
-        FrameInfo[] stack = Lists.reverse(frames).stream()
-                .map(frame -> {
-                    String function = frame.location().method().name();
-                    VariableInfo[] info = null;
-                    try {
-                        boolean includeThis = !frame.location().method().isStatic() && !frame.location().method().isNative();
-                        int offset = includeThis ? 1 : 0;
-                        List<LocalVariable> variables = frame.visibleVariables();
-                        info = new VariableInfo[variables.size() + offset];
-                        if (includeThis) {
-                            info[0] = infoFromObjectReference(frame.thisObject().referenceType().name(), "this", frame.thisObject(), unresolvedReferences);
-                        }
-                        for (int i = 0; i < variables.size(); i++) {
-                            info[i + offset] = infoFromLocalVariable(frame, variables.get(i), unresolvedReferences);
-                        }
-                    } catch (AbsentInformationException e) {
-                        //e.printStackTrace();
-                    }
-                    return new FrameInfo(function, info);
-                })
-                .toArray(FrameInfo[]::new);
-
-        Set<ObjectReference> processedHeap = new LinkedHashSet<>();
-
-        List<HeapObjectInfo> heap = new ArrayList<>();
-
-        do {
-            Set<ObjectReference> current = new LinkedHashSet<>(unresolvedReferences);
-            current.removeAll(processedHeap);
-            unresolvedReferences.clear();
-
-            heap.addAll(current.stream()
-                    .map(reference -> {
-                        String id = Long.toString(reference.uniqueID());
-                        String type = reference.referenceType().name();
-
-                        VariableInfo[] variables;
-                        if (reference instanceof ArrayReference) {
-                            ArrayReference array = (ArrayReference) reference;
-
-                            variables = new VariableInfo[array.length()];
-                            for (int i = 0; i < array.length(); i++) {
-                                // Abuse our layout a little here to get a nice looking array visualisation...
-                                variables[i] = infoFromValue("", Integer.toString(i), array.getValue(i), unresolvedReferences);
-                            }
-                        } else {
-                            variables = reference.referenceType().visibleFields().stream()
-                                    .map(field -> infoFromField(reference, field, unresolvedReferences))
-                                    .toArray(VariableInfo[]::new);
-                        }
-                        return new HeapObjectInfo(id, type, variables);
-                    })
-                    .collect(Collectors.toList()));
-            processedHeap.addAll(current);
-        } while (!processedHeap.containsAll(unresolvedReferences));
-
-        shim.drawStackAndHeap(stack, heap.stream().toArray(HeapObjectInfo[]::new));
-    }
-
-    private static VariableInfo infoFromLocalVariable(StackFrame frame, LocalVariable variable, Set<ObjectReference> heapReferences) {
-        String type = variable.typeName();
-        String name = variable.name();
-        return infoFromValue(type, name, frame.getValue(variable), heapReferences);
-    }
-
-    private static VariableInfo infoFromField(ObjectReference reference, Field field, Set<ObjectReference> heapReferences) {
-        String type = field.typeName();
-        String name = field.name();
-        return infoFromValue(type, name, reference.getValue(field), heapReferences);
-    }
-
-    private static VariableInfo infoFromValue(String type, String name, Value value, Set<ObjectReference> heapReferences) {
-        String sValue;
-        if (value instanceof BooleanValue) {
-            sValue = Boolean.toString(((BooleanValue) value).value());
-        } else if (value instanceof ByteValue) {
-            sValue = Byte.toString(((ByteValue) value).value());
-        } else if (value instanceof CharValue) {
-            sValue = Character.toString(((CharValue) value).value());
-        } else if (value instanceof DoubleValue) {
-            sValue = Double.toString(((DoubleValue) value).value());
-        } else if (value instanceof FloatValue) {
-            sValue = Float.toString(((FloatValue) value).value());
-        } else if (value instanceof IntegerValue) {
-            sValue = Integer.toString(((IntegerValue) value).value());
-        } else if (value instanceof LongValue) {
-            sValue = Long.toString(((LongValue) value).value());
-        } else if (value instanceof ShortValue) {
-            sValue = Short.toString(((ShortValue) value).value());
-        } else if (value instanceof VoidValue) {
-            sValue = "void";
-        } else if (value instanceof StringReference) {
-            sValue = ((StringReference) value).value();
-        } else if (value instanceof ObjectReference) {
-            ObjectReference reference = (ObjectReference) value;
-            return infoFromObjectReference(type, name, reference, heapReferences);
-        } else if (value == null) {
-            sValue = "null";
+    /**
+     * Shows the VirtualMachine of a session, sharing its caches between snapshots. The view of the session shown until
+     * now is kept as it is, with its history, pinned objects and layout, for when that session is shown again.
+     *
+     * @param session The session to show, or null if there is none.
+     */
+    public void setSession(DebugSession session) {
+        if (session == this.session) {
+            return;
+        }
+        cancelInFlight();
+        prefetcher.cancel();
+        prefetchedValues.invalidate();
+        this.session = session;
+        typeCache = session != null ? session.getReferenceTypeCache() : new ReferenceTypeCache();
+        valueCache = session != null ? session.getImmutableValueCache() : new ImmutableValueCache();
+        prefetcher.setCaches(typeCache, valueCache);
+        show(session != null ? views.computeIfAbsent(session, this::newView) : newView(null));
+    }
+
+    /**
+     * Forgets the view of a session which has ended, and stops recording it. The objects it pinned went with its
+     * VirtualMachine, so aren't released.
+     */
+    public void endSession(DebugSession ended) {
+        SessionView endedView = views.remove(ended);
+        if (endedView == null) {
+            return;
+        }
+        stopRecording(endedView);
+        if (views.isEmpty()) {
+            recordings = 0;
+        }
+        if (ended == session) {
+            setSession(null);
+        }
+    }
+
+    private SessionView newView(DebugSession session) {
+        SessionView created = new SessionView(session, new ObjectPins(pinMaxObjects, pinHorizon, PIN_RELEASE_BATCH),
+                new SnapshotHistory(historyMaxSteps, historyMaxBytes));
+        String recordingFile = System.getProperty(RECORDING_FILE_PROPERTY);
+        if (session != null && recordingFile != null) {
+            recordings++;
+            try {
+                created.recording = SnapshotStore.create(
+                        Paths.get(recordings == 1 ? recordingFile : recordingFile + "." + recordings),
+                        RECORDING_REGION_BYTES);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Builds the view for the innermost frames of a thread which has just been suspended, superseding any view still
+     * being built. Only {@link Const#STACK_PAGE_FRAMES} frames are fetched at first, more being fetched as the view
+     * asks for them.
+     * <p>
+     * The snapshot is built on the session's JDI thread, and only the finished snapshot is handed back to the FX
+     * thread to be shown.
+     *
+     * @param thread The suspended thread.
+     * @return A future completed on the FX thread once the view has been built, or been superseded.
+     */
+    public CompletableFuture<Void> buildViewFor(ThreadReference thread) {
+        if (!thread.equals(view.currentThread)) {
+            view.loadedFrames = STACK_PAGE_FRAMES;
+        }
+        view.currentThread = thread;
+        view.objectPins.nextSuspension();
+        prefetchedValues.invalidate();
+        view.shownStep = -1;
+        return buildView(true);
+    }
+
+    /**
+     * Stops prefetching, and building any view of the previous suspension, once the target has been resumed.
+     */
+    public void targetResumed() {
+        cancelInFlight();
+        prefetcher.cancel();
+        prefetchedValues.invalidate();
+    }
+
+    /**
+     * @param newStep Whether this is the first view of a new step, rather than more of the latest step.
+     */
+    private CompletableFuture<Void> buildView(boolean newStep) {
+        if (session == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        cancelInFlight();
+        prefetcher.cancel();
+
+        ThreadReference thread = view.currentThread;
+        int frameCount = view.loadedFrames;
+        ObjectPins pins = view.objectPins;
+        SnapshotBuilder builder = newSnapshotBuilder(pins);
+        return inFlight(builder, session.submit(() -> {
+            int totalFrames = thread.frameCount();
+            builder.build(thread.frames(0, Math.min(frameCount, totalFrames)), totalFrames);
+            // Everything shown has been pinned by now; this just releases what's been out of view for too long.
+            pins.retain(builder.getReferences().values());
+            return builder;
+        }), built -> {
+            recordStats(built);
+            view.currentStack = built.getStack();
+            view.currentHiddenFrames = built.getHiddenFrames();
+            view.currentHeap.clear();
+            for (HeapObjectInfo object : built.getHeap()) {
+                view.currentHeap.put(object.id, object);
+            }
+            view.currentReferences.clear();
+            view.currentReferences.putAll(built.getReferences());
+            view.windowOffsets.keySet().retainAll(view.currentHeap.keySet());
+            view.expandedChains.retainAll(view.currentHeap.keySet());
+            recordStep(newStep);
+
+            draw();
+            prefetch();
+        });
+    }
+
+    /**
+     * Fetches another page of the frames hidden at the bottom of the current thread's stack.
+     */
+    public void loadMoreFrames() {
+        if (view.currentThread == null || view.currentHiddenFrames == 0 || view.shownStep >= 0) {
+            return;
+        }
+        view.loadedFrames += STACK_PAGE_FRAMES;
+        buildView(false);
+    }
+
+    /**
+     * Expands a stub or a chain's summary in the current heap, fetching the part of the heap reachable from it within a
+     * fresh budget.
+     *
+     * @param id The id of the stub, or of the head of the chain, to expand.
+     */
+    public void expand(String id) {
+        if (view.shownStep >= 0) {
+            return;
+        }
+        HeapObjectInfo object = view.currentHeap.get(id);
+        if (object != null && (object.stub || object.chain)) {
+            if (object.chain) {
+                view.expandedChains.add(id);
+            }
+            refresh(id);
+        }
+    }
+
+    /**
+     * Moves the window shown of an array or long string forwards or backwards by a whole window.
+     *
+     * @param id        The id of the array or string.
+     * @param direction 1 to move forwards, -1 to move backwards.
+     */
+    public void page(String id, int direction) {
+        if (view.shownStep >= 0) {
+            return;
+        }
+        HeapObjectInfo object = view.currentHeap.get(id);
+        if (object == null || object.length < 0) {
+            return;
+        }
+        int window = object.klass.equals("java.lang.String") ? STRING_WINDOW_SIZE : ARRAY_WINDOW_SIZE;
+        int offset = Math.max(0, Math.min(object.offset + direction * window, object.length - 1));
+        if (offset != object.offset) {
+            view.windowOffsets.put(id, offset);
+            refresh(id);
+        }
+    }
+
+    /**
+     * Fetches an object in the current heap again, along with anything newly reachable from it within a fresh budget.
+     */
+    private void refresh(String id) {
+        ObjectReference reference = view.currentReferences.get(id);
+        if (reference == null || session == null) {
+            return;
+        }
+        prefetcher.cancel();
+
+        List<ObjectReference> resolved = view.currentHeap.values().stream()
+                .filter(object -> !object.stub && !object.id.equals(id))
+                .map(object -> view.currentReferences.get(object.id))
+                .collect(Collectors.toList());
+        SnapshotBuilder builder = newSnapshotBuilder(view.objectPins);
+        inFlight(builder, session.submit(() -> {
+            builder.expand(reference, resolved);
+            return builder;
+        }), built -> {
+            recordStats(built);
+
+            // Replace the object itself and any stubs in place, keeping anything else already resolved.
+            for (HeapObjectInfo object : built.getHeap()) {
+                HeapObjectInfo existing = view.currentHeap.get(object.id);
+                if (existing == null || existing.stub || object.id.equals(id)) {
+                    view.currentHeap.put(object.id, object);
+                }
+            }
+            built.getReferences().forEach(view.currentReferences::putIfAbsent);
+            recordStep(false);
+
+            draw();
+            prefetch();
+        });
+    }
+
+    /**
+     * Returns a builder for a snapshot of the current view, with copies of the state it needs from the FX thread.
+     *
+     * @param pins The pins the objects reached are to be kept in.
+     */
+    private SnapshotBuilder newSnapshotBuilder(ObjectPins pins) {
+        return new SnapshotBuilder(traversalBudget, typeCache, valueCache, prefetchedValues, pins,
+                new HashMap<>(view.windowOffsets), new HashSet<>(view.expandedChains),
+                collectionRenderers, traversalRules, snapshotExecutor);
+    }
+
+    /**
+     * Tracks work submitted to the JDI thread until it's done, and then shows its result on the FX thread, unless it
+     * was cancelled in the meantime. Failures are logged, other than the thread having been resumed while a snapshot
+     * of it was being built.
+     *
+     * @return A future completed on the FX thread once the result has been shown, or discarded.
+     */
+    private CompletableFuture<Void> inFlight(SnapshotBuilder builder, CompletableFuture<SnapshotBuilder> work,
+                                             Consumer<SnapshotBuilder> show) {
+        inFlight.put(work, builder);
+        return work.handleAsync((built, e) -> {
+            if (inFlight.remove(work) != null && e == null) {
+                show.accept(built);
+            } else if (e != null && !(unwrap(e) instanceof CancellationException
+                    || unwrap(e) instanceof IncompatibleThreadStateException
+                    || unwrap(e) instanceof InvalidStackFrameException)) {
+                e.printStackTrace();
+            }
+            return null;
+        }, Platform::runLater);
+    }
+
+    /**
+     * Cancels all work on the JDI thread whose results are still to be shown, as they've been superseded. Builders
+     * already running stop at the next object they come to.
+     */
+    private void cancelInFlight() {
+        Map<CompletableFuture<?>, SnapshotBuilder> superseded = new HashMap<>(inFlight);
+        inFlight.clear();
+        superseded.forEach((future, builder) -> {
+            builder.cancel();
+            future.cancel(true);
+        });
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    /**
+     * Sets how much of the heap each snapshot, or expansion of a stub, may fetch before showing the rest as stubs.
+     */
+    public void setTraversalBudget(int maxDepth, int maxObjects, long maxBytes) {
+        traversalBudget = new TraversalBudget(maxDepth, maxObjects, maxBytes);
+    }
+
+    /**
+     * Returns the number of steps of the session kept in its history, including the latest.
+     */
+    public int getHistorySize() {
+        return view.recording != null ? view.recording.size() : view.history.size();
+    }
+
+    /**
+     * Shows an earlier step of the session from its history, without touching the target. Stubs can't be expanded
+     * (nor windows paged, nor more frames loaded) until the latest step is shown again.
+     *
+     * @param step The step, from 0 for the oldest kept up to {@link #getHistorySize()} - 1 for the latest.
+     */
+    public void showStep(int step) {
+        int size = getHistorySize();
+        if (step < 0 || step >= size) {
+            return;
+        }
+        int shown = step == size - 1 ? -1 : step;
+        if (shown == view.shownStep) {
+            return;
+        }
+        if (shown < 0) {
+            view.shownStep = shown;
+            draw();
+            return;
+        }
+
+        // The latest steps are still in memory, only older ones need reading back from the recording.
+        int fromLatest = size - 1 - step;
+        SnapshotHistory.Snapshot snapshot;
+        try {
+            snapshot = fromLatest < view.history.size() ? view.history.get(view.history.size() - 1 - fromLatest) : view.recording.read(step);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        view.shownStep = shown;
+        draw(snapshot.stack, snapshot.hiddenFrames, snapshot.heap);
+    }
+
+    /**
+     * Sets the maximum number of steps kept in the history of each session, and its (estimated) maximum size in bytes,
+     * discarding the histories kept until now.
+     */
+    public void setHistoryBudget(int maxSteps, long maxBytes) {
+        historyMaxSteps = maxSteps;
+        historyMaxBytes = maxBytes;
+        for (SessionView kept : views.values()) {
+            kept.history = new SnapshotHistory(maxSteps, maxBytes);
+            kept.shownStep = -1;
+        }
+    }
+
+    /**
+     * Adds the current snapshot to the history, and to the recording if there is one.
+     *
+     * @param newStep Whether the snapshot is of a new step, rather than more of the latest step.
+     */
+    private void recordStep(boolean newStep) {
+        if (newStep) {
+            view.history.record(view.currentStack, view.currentHiddenFrames, view.currentHeap);
         } else {
-            sValue = "UNKNOWN";
-        }
-        return new VariableInfo(type, name, sValue, false);
-    }
-
-    private static VariableInfo infoFromObjectReference(String type, String name, ObjectReference reference, Set<ObjectReference> heapReferences) {
-        String sValue = null;
-        boolean isReference = false;
-
-        // Filter out boxed primitive types...
-        switch (reference.referenceType().name()) {
-            case "java.lang.Boolean":
-                sValue = Boolean.toString(((BooleanValue) reference.getValue(reference.referenceType().fieldByName("value"))).value());
-                break;
-            case "java.lang.Byte":
-                sValue = Byte.toString(((ByteValue) reference.getValue(reference.referenceType().fieldByName("value"))).value());
-                break;
-            case "java.lang.Character":
-                sValue = Character.toString(((CharValue) reference.getValue(reference.referenceType().fieldByName("value"))).value());
-                break;
-            case "java.lang.Double":
-                sValue = Double.toString(((DoubleValue) reference.getValue(reference.referenceType().fieldByName("value"))).value());
-                break;
-            case "java.lang.Float":
-                sValue = Float.toString(((FloatValue) reference.getValue(reference.referenceType().fieldByName("value"))).value());
-                break;
-            case "java.lang.Integer":
-                sValue = Integer.toString(((IntegerValue) reference.getValue(reference.referenceType().fieldByName("value"))).value());
-                break;
-            case "java.lang.Long":
-                sValue = Long.toString(((LongValue) reference.getValue(reference.referenceType().fieldByName("value"))).value());
-                break;
-            case "java.lang.Short":
-                sValue = Short.toString(((ShortValue) reference.getValue(reference.referenceType().fieldByName("value"))).value());
-                break;
-        }
-        if (sValue == null) {
-            heapReferences.add(reference);
-            sValue = Long.toString(reference.uniqueID());
-            isReference = true;
-        }
-        return new VariableInfo(type, name, sValue, isReference);
+            view.history.replaceLatest(view.currentStack, view.currentHiddenFrames, view.currentHeap);
+        }
+        if (view.recording != null) {
+            try {
+                if (newStep) {
+                    view.recording.append(view.currentStack, view.currentHiddenFrames, view.currentHeap);
+                } else {
+                    view.recording.replaceLatest(view.currentStack, view.currentHiddenFrames, view.currentHeap);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                stopRecording(view);
+            }
+        }
+    }
+
+    private static void stopRecording(SessionView recorded) {
+        if (recorded.recording != null) {
+            try {
+                recorded.recording.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            recorded.recording = null;
+        }
+    }
+
+    /**
+     * Sets how many of the objects shown are kept from being garbage collected by each session, and for how many
+     * suspensions after they were last shown, releasing any objects kept until now.
+     */
+    public void setObjectPinning(int maxObjects, int horizon) {
+        pinMaxObjects = maxObjects;
+        pinHorizon = horizon;
+        views.values().forEach(this::releasePins);
+    }
+
+    /**
+     * Releases the objects a session pinned so far on its JDI thread, and starts pinning afresh.
+     */
+    private void releasePins(SessionView pinned) {
+        ObjectPins released = pinned.objectPins;
+        pinned.objectPins = new ObjectPins(pinMaxObjects, pinHorizon, PIN_RELEASE_BATCH);
+        pinned.session.submit(() -> {
+            released.releaseAll();
+            return null;
+        });
+    }
+
+    /**
+     * Adds the project's own traversal rules, if it has any, to the default rules for which references aren't followed.
+     *
+     * @param file The project's file of rules, see {@link TraversalRules}.
+     */
+    public void loadTraversalRules(Path file) {
+        try {
+            traversalRules = TraversalRules.DEFAULT.withRulesFrom(file);
+        } catch (IOException | IllegalArgumentException e) {
+            e.printStackTrace();
+            traversalRules = TraversalRules.DEFAULT;
+        }
+    }
+
+    /**
+     * Returns the JDWP round trip counts for the most recently built snapshot, or null if none has been built.
+     */
+    SnapshotBuilder.Stats getLastSnapshotStats() {
+        return lastSnapshotStats;
+    }
+
+    private void recordStats(SnapshotBuilder builder) {
+        lastSnapshotStats = builder.getStats();
+        if (Boolean.getBoolean(SNAPSHOT_STATS_PROPERTY)) {
+            System.err.println("Snapshot: " + lastSnapshotStats);
+        }
+    }
+
+    /**
+     * Starts prefetching what expanding the stubs shown, loading more frames or stepping out would need.
+     */
+    private void prefetch() {
+        if (view.currentThread != null) {
+            prefetcher.prefetch(view.currentThread, view.loadedFrames, view.currentHeap.values().stream()
+                    .filter(object -> object.stub)
+                    .map(object -> view.currentReferences.get(object.id))
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList()));
+        }
+    }
+
+    /**
+     * Sends the view only what has changed since it was last drawn, once the changed objects have been laid out.
+     * Patches are laid out in order on the layout thread and then sent in order on the FX thread.
+     */
+    private void draw() {
+        draw(view.currentStack, view.currentHiddenFrames, view.currentHeap);
+    }
+
+    /**
+     * Replaces the session drawn by the view with another, drawing the other session as it was last drawn. Each session
+     * keeps its own layout, so its objects go back to where they were, and nothing of the session replaced is laid
+     * out in its place.
+     */
+    private void show(SessionView shown) {
+        FrameInfo[] none = new FrameInfo[0];
+        SnapshotPatch cleared = SnapshotDiff.between(view.drawnStack, view.drawnHiddenFrames, view.drawnHeap,
+                none, 0, Collections.emptyMap());
+        SnapshotPatch restored = SnapshotDiff.between(none, 0, Collections.emptyMap(),
+                shown.drawnStack, shown.drawnHiddenFrames, shown.drawnHeap);
+        view = shown;
+
+        HeapLayout layout = shown.heapLayout;
+        Map<String, HeapObjectInfo> heap = shown.drawnHeap;
+        Set<String> roots = rootsOf(shown.drawnStack);
+        layoutExecutor.execute(() -> {
+            // Everything restored was placed when it was last drawn, so this only looks up where.
+            HeapLayout.Update update = layout.update(restored, heap, roots);
+            Platform.runLater(() -> {
+                shim.patchStackAndHeap(cleared, new HeapLayout.Update(Collections.emptyMap(), 0, 0));
+                shim.patchStackAndHeap(restored, update);
+            });
+        });
+    }
+
+    private void draw(FrameInfo[] stack, int hiddenFrames, Map<String, HeapObjectInfo> nextHeap) {
+        SnapshotPatch patch = SnapshotDiff.between(view.drawnStack, view.drawnHiddenFrames, view.drawnHeap,
+                stack, hiddenFrames, nextHeap);
+        view.drawnStack = stack;
+        view.drawnHiddenFrames = hiddenFrames;
+        view.drawnHeap = new LinkedHashMap<>(nextHeap);
+
+        // The drawn heap is replaced rather than modified, so it can be handed to the layout thread as it is.
+        HeapLayout layout = view.heapLayout;
+        Map<String, HeapObjectInfo> heap = view.drawnHeap;
+        Set<String> roots = rootsOf(stack);
+        layoutExecutor.execute(() -> {
+            HeapLayout.Update update = layout.update(patch, heap, roots);
+            Platform.runLater(() -> shim.patchStackAndHeap(patch, update));
+        });
+    }
+
+    /**
+     * Returns the ids of the objects referred to directly from a stack.
+     */
+    private static Set<String> rootsOf(FrameInfo[] stack) {
+        Set<String> roots = new HashSet<>();
+        for (FrameInfo frame : stack) {
+            if (frame.variables == null) {
+                continue;
+            }
+            for (VariableInfo variable : frame.variables) {
+                if (variable.isReference) {
+                    roots.add(variable.value);
+                }
+            }
+        }
+        return roots;
+    }
+
+    /**
+     * What is shown of one session, which is kept while another session is shown.
+     */
+    private static final class SessionView {
+        final DebugSession session;
+
+        /**
+         * The stack and heap last drawn of the session, which the next patch is computed against.
+         */
+        FrameInfo[] drawnStack = new FrameInfo[0];
+        int drawnHiddenFrames;
+        Map<String, HeapObjectInfo> drawnHeap = new LinkedHashMap<>();
+
+        /**
+         * The thread whose stack is currently shown, and the number of its innermost frames to fetch.
+         */
+        ThreadReference currentThread;
+        int loadedFrames = STACK_PAGE_FRAMES;
+
+        /**
+         * The stack of the snapshot currently shown, and the number of frames hidden beneath it.
+         */
+        FrameInfo[] currentStack = new FrameInfo[0];
+        int currentHiddenFrames;
+
+        /**
+         * The heap of the snapshot currently shown (including any expanded stubs), keyed and ordered by id.
+         */
+        final Map<String, HeapObjectInfo> currentHeap = new LinkedHashMap<>();
+
+        /**
+         * The JDI references to the objects in the current heap, needed to expand stubs on demand.
+         */
+        final Map<String, ObjectReference> currentReferences = new HashMap<>();
+
+        /**
+         * The offsets of the windows shown of arrays and long strings which have been paged through, keyed by id.
+         */
+        final Map<String, Integer> windowOffsets = new HashMap<>();
+
+        /**
+         * The ids of the heads of chains which have been expanded rather than summarised.
+         */
+        final Set<String> expandedChains = new HashSet<>();
+
+        /**
+         * The objects kept from being garbage collected while they're in (or have recently been in) the view.
+         */
+        ObjectPins objectPins;
+
+        /**
+         * The snapshots of the earlier steps of the session, and the step being shown, or -1 if the latest is.
+         */
+        SnapshotHistory history;
+        int shownStep = -1;
+
+        /**
+         * The file every step of the session is being recorded to, or null if it isn't being recorded. The history kept
+         * in memory holds only the latest steps of the recording.
+         */
+        SnapshotStore recording;
+
+        /**
+         * The layout of the heap as drawn, which is only touched from the layout thread.
+         */
+        final HeapLayout heapLayout = new HeapLayout();
+
+        SessionView(DebugSession session, ObjectPins objectPins, SnapshotHistory history) {
+            this.session = session;
+            this.objectPins = objectPins;
+            this.history = history;
+        }
     }
 
     protected class Shim {
         private JSObject jsShim;
 
+        /**
+         * Encoded chunks of patches waiting to be sent to the view, one per pulse so that it can draw in between.
+         */
+        private final Deque<String> pendingChunks = new ArrayDeque<>();
+
         public void registerShimObject(JSObject jsShim) {
             this.jsShim = jsShim;
         }
 
-        public void drawStackAndHeap(FrameInfo[] frames, HeapObjectInfo[] heap) {
-            jsShim.call("drawStackAndHeap", new Object[]{frames, heap});
+        public void patchStackAndHeap(SnapshotPatch patch, HeapLayout.Update layout) {
+            boolean sending = !pendingChunks.isEmpty();
+            pendingChunks.addAll(SnapshotEncoder.encode(patch, layout, PATCH_CHUNK_OBJECTS));
+            if (!sending) {
+                sendNextChunk();
+            }
+        }
+
+        private void sendNextChunk() {
+            jsShim.call("applyPatch", new Object[]{pendingChunks.poll()});
+            if (!pendingChunks.isEmpty()) {
+                Platform.runLater(this::sendNextChunk);
+            }
+        }
+
+        public void expand(String id) {
+            StackAndHeapController.this.expand(id);
+        }
+
+        public void page(String id, int direction) {
+            StackAndHeapController.this.page(id, direction);
+        }
+
+        public void loadMoreFrames() {
+            StackAndHeapController.this.loadMoreFrames();
         }
     }
 
@@ -194,9 +714,19 @@ public class StackAndHeapController {
         public final String function;
         public final VariableInfo[] variables;
 
+        /**
+         * The number of frames this stands for, which is more than one for a summary of recursive calls.
+         */
+        public final int repeated;
+
         public FrameInfo(String function, VariableInfo[] variables) {
+            this(function, variables, 1);
+        }
+
+        public FrameInfo(String function, VariableInfo[] variables, int repeated) {
             this.function = function;
             this.variables = variables;
+            this.repeated = repeated;
         }
     }
 
@@ -205,10 +735,48 @@ public class StackAndHeapController {
         public final String klass;
         public final VariableInfo[] fields;
 
-        public HeapObjectInfo(String id, String klass, VariableInfo[] fields) {
+        /**
+         * Whether this object lies beyond the traversal budget, and so its fields haven't been fetched.
+         */
+        public final boolean stub;
+
+        /**
+         * Whether this object is the summary of a chain of objects, starting with this one.
+         */
+        public final boolean chain;
+
+        /**
+         * For arrays and long strings, which are only shown a window at a time: the total number of elements (or
+         * characters), the offset of the window and the number of elements in it. The length is -1 for other objects.
+         */
+        public final int length;
+        public final int offset;
+        public final int count;
+
+        public HeapObjectInfo(String id, String klass, VariableInfo[] fields, boolean stub) {
+            this(id, klass, fields, stub, false);
+        }
+
+        public HeapObjectInfo(String id, String klass, VariableInfo[] fields, boolean stub, boolean chain) {
             this.id = id;
             this.klass = klass;
             this.fields = fields;
+            this.stub = stub;
+            this.chain = chain;
+            this.length = -1;
+            this.offset = 0;
+            this.count = 0;
+        }
+
+        public HeapObjectInfo(String id, String klass, VariableInfo[] fields, int length, int offset, int count) {
+            this.id = id;
+            this.klass = klass;
+            this.fields = fields;
+            this.stub = false;
+            this.chain = false;
+            this.length = length;
+            this.offset = offset;
+            this.count = count;
         }
     }
 
@@ -218,11 +786,113 @@ public class StackAndHeapController {
         public final String value;
         public final boolean isReference;
 
-        private VariableInfo(String type, String name, String value, boolean isReference) {
+        VariableInfo(String type, String name, String value, boolean isReference) {
             this.type = type;
             this.name = name;
             this.value = value;
             this.isReference = isReference;
         }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            VariableInfo that = (VariableInfo) o;
+
+            if (isReference != that.isReference) return false;
+            if (!type.equals(that.type)) return false;
+            if (!name.equals(that.name)) return false;
+            if (!value.equals(that.value)) return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = type.hashCode();
+            result = 31 * result + name.hashCode();
+            result = 31 * result + value.hashCode();
+            result = 31 * result + (isReference ? 1 : 0);
+            return result;
+        }
+    }
+
+    /**
+     * The difference between the snapshot last drawn and the next one, applied incrementally by the view.
+     */
+    protected static class SnapshotPatch {
+        /**
+         * The number of frames in the new stack, including those hidden beneath it.
+         */
+        public final int stackSize;
+
+        /**
+         * The number of frames at the bottom of the stack which haven't been fetched.
+         */
+        public final int hiddenFrames;
+
+        /**
+         * The frames which were added or changed.
+         */
+        public final FramePatch[] frames;
+
+        /**
+         * The indices of the frames which were removed.
+         */
+        public final int[] removedFrames;
+
+        /**
+         * The heap objects which were added or changed.
+         */
+        public final HeapObjectPatch[] objects;
+
+        /**
+         * The ids of the heap objects which were removed.
+         */
+        public final String[] removed;
+
+        public SnapshotPatch(int stackSize, int hiddenFrames, FramePatch[] frames, int[] removedFrames,
+                             HeapObjectPatch[] objects, String[] removed) {
+            this.stackSize = stackSize;
+            this.hiddenFrames = hiddenFrames;
+            this.frames = frames;
+            this.removedFrames = removedFrames;
+            this.objects = objects;
+            this.removed = removed;
+        }
+    }
+
+    protected static class FramePatch {
+        /**
+         * The index of the frame, counting from the bottom of the whole stack.
+         */
+        public final int index;
+        public final FrameInfo frame;
+
+        /**
+         * The names of the variables whose values changed, to be highlighted.
+         */
+        public final String[] changed;
+
+        public FramePatch(int index, FrameInfo frame, String[] changed) {
+            this.index = index;
+            this.frame = frame;
+            this.changed = changed;
+        }
+    }
+
+    protected static class HeapObjectPatch {
+        public final HeapObjectInfo object;
+
+        /**
+         * The names of the fields whose values changed, to be highlighted.
+         */
+        public final String[] changed;
+
+        public HeapObjectPatch(HeapObjectInfo object, String[] changed) {
+            this.object = object;
+            this.changed = changed;
+        }
     }
 }
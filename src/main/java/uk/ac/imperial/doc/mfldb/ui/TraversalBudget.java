@@ -0,0 +1,36 @@
+package uk.ac.imperial.doc.mfldb.ui;
+
+import static uk.ac.imperial.doc.mfldb.ui.Const.*;
+
+/**
+ * Limits on how much of the heap a single snapshot (or expansion of a stub) is allowed to fetch.
+ * <p>
+ * Objects beyond the budget are shown as stubs, which can be expanded from the diagram on demand.
+ */
+final class TraversalBudget {
+
+    static final TraversalBudget DEFAULT = new TraversalBudget(
+            DEFAULT_TRAVERSAL_MAX_DEPTH, DEFAULT_TRAVERSAL_MAX_OBJECTS, DEFAULT_TRAVERSAL_MAX_BYTES);
+
+    /**
+     * The number of levels of the object graph, starting with the objects referenced directly from the stack (or the
+     * object being expanded), which may be resolved.
+     */
+    final int maxDepth;
+
+    /**
+     * The maximum number of heap objects which may be resolved.
+     */
+    final int maxObjects;
+
+    /**
+     * The (estimated) maximum number of bytes of values which may be fetched for heap objects.
+     */
+    final long maxBytes;
+
+    TraversalBudget(int maxDepth, int maxObjects, long maxBytes) {
+        this.maxDepth = maxDepth;
+        this.maxObjects = maxObjects;
+        this.maxBytes = maxBytes;
+    }
+}
@@ -0,0 +1,135 @@
+package uk.ac.imperial.doc.mfldb.ui;
+
+import com.google.common.collect.ImmutableSet;
+import com.sun.jdi.Field;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rules for which objects the heap traversal shouldn't follow references into, such as JDK internals which are rarely
+ * interesting and expensive to fetch. A reference excluded by the rules is shown inline as an opaque leaf rather than
+ * as an object on the heap.
+ * <p>
+ * References are excluded by the package or exact name of the type of the object referred to, or by the name of the
+ * field referring to it. Projects can add their own rules to the defaults in a file with one rule per line:
+ * <pre>
+ * # Comments start with a hash
+ * package com.example.generated
+ * type com.example.Registry
+ * field logger
+ * field com.example.Node.parent
+ * </pre>
+ * where a field rule is either a plain field name, matching a field of that name in any type, or a field name
+ * qualified by the name of the type declaring it.
+ */
+final class TraversalRules {
+
+    static final TraversalRules DEFAULT = new TraversalRules(
+            ImmutableSet.of("java.lang.invoke.", "java.lang.ref.", "java.lang.reflect.", "java.security.",
+                    "java.util.concurrent.", "java.util.logging.", "sun.", "jdk.internal.", "com.sun.",
+                    "org.slf4j.", "org.apache.logging.log4j.", "ch.qos.logback."),
+            ImmutableSet.of("java.lang.Class", "java.lang.ClassLoader", "java.lang.Thread", "java.lang.ThreadGroup",
+                    "java.lang.Module", "java.lang.ModuleLayer"),
+            ImmutableSet.of());
+
+    /**
+     * Package prefixes, each ending with a dot.
+     */
+    private final Set<String> packages;
+
+    private final Set<String> types;
+
+    /**
+     * Field names, either plain or qualified by their declaring type.
+     */
+    private final Set<String> fields;
+
+    private TraversalRules(Set<String> packages, Set<String> types, Set<String> fields) {
+        this.packages = packages;
+        this.types = types;
+        this.fields = fields;
+    }
+
+    /**
+     * Returns these rules with the rules in a file added, or these rules unchanged if there's no such file.
+     *
+     * @param file The file of rules.
+     * @throws IOException If the file exists but can't be read.
+     */
+    TraversalRules withRulesFrom(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return this;
+        }
+        return withRules(Files.readAllLines(file, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns these rules with more rules added, one per line.
+     *
+     * @throws IllegalArgumentException If a line isn't a valid rule.
+     */
+    TraversalRules withRules(List<String> lines) {
+        Set<String> packages = new HashSet<>(this.packages);
+        Set<String> types = new HashSet<>(this.types);
+        Set<String> fields = new HashSet<>(this.fields);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] parts = line.split("\\s+");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid traversal rule on line " + (i + 1) + ": " + line);
+            }
+            switch (parts[0]) {
+                case "package":
+                    packages.add(parts[1].endsWith(".") ? parts[1] : parts[1] + ".");
+                    break;
+                case "type":
+                    types.add(parts[1]);
+                    break;
+                case "field":
+                    fields.add(parts[1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown traversal rule on line " + (i + 1) + ": " + line);
+            }
+        }
+        return new TraversalRules(ImmutableSet.copyOf(packages), ImmutableSet.copyOf(types), ImmutableSet.copyOf(fields));
+    }
+
+    /**
+     * Returns whether references to objects of a type shouldn't be followed.
+     *
+     * @param typeName The fully qualified name of the type.
+     */
+    boolean excludesType(String typeName) {
+        if (types.contains(typeName)) {
+            return true;
+        }
+        for (String prefix : packages) {
+            if (typeName.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether references held in a field shouldn't be followed.
+     */
+    boolean excludesField(Field field) {
+        return !fields.isEmpty() && excludesField(field.declaringType().name(), field.name());
+    }
+
+    boolean excludesField(String declaringTypeName, String fieldName) {
+        return fields.contains(fieldName) || fields.contains(declaringTypeName + "." + fieldName);
+    }
+}
@@ -14,12 +14,6 @@ final class Const {
     public static String D3_JS_PROTOCOL = "d3js";
     public static String D3_JS_BASEPATH = "/META-INF/resources/webjars/d3js/3.4.8/";
 
-    public static String JQUERY_PROTOCOL = "jquery";
-    public static String JQUERY_BASEPATH = "/META-INF/resources/webjars/jquery/1.8.3/";
-
-    public static String JS_PLUMB_PROTOCOL = "jsplumb";
-    public static String JS_PLUMB_BASEPATH = "/META-INF/resources/webjars/jsplumb/1.5.5/";
-
     private Const() {
         // No instances
     }
@@ -25,27 +25,15 @@ public class ResourceURLStreamHandlerFactory implements URLStreamHandlerFactory
      */
     private final URLStreamHandler d3jsHandler;
 
-    /**
-     * URLStreamHandler instance for jQuery files.
-     */
-    private final URLStreamHandler jQueryHandler;
-
-    /**
-     * URLStreamHandler instance for jsPlumb files.
-     */
-    private final URLStreamHandler jsPlumbHandler;
-
     /**
      * Injection constructor to be used by tests.
      *
      * @param codeMirrorHandler
      */
-    protected ResourceURLStreamHandlerFactory(URLStreamHandler codeMirrorHandler, URLStreamHandler requireJSHandler, URLStreamHandler d3jsHandler, URLStreamHandler jQueryHandler, URLStreamHandler jsPlumbHandler) {
+    protected ResourceURLStreamHandlerFactory(URLStreamHandler codeMirrorHandler, URLStreamHandler requireJSHandler, URLStreamHandler d3jsHandler) {
         this.codeMirrorHandler = codeMirrorHandler;
         this.requireJSHandler = requireJSHandler;
         this.d3jsHandler = d3jsHandler;
-        this.jQueryHandler = jQueryHandler;
-        this.jsPlumbHandler = jsPlumbHandler;
     }
 
     /**
@@ -55,9 +43,7 @@ public class ResourceURLStreamHandlerFactory implements URLStreamHandlerFactory
         this(
                 new ResourceURLStreamHandler(CODE_MIRROR_BASEPATH),
                 new ResourceURLStreamHandler(REQUIRE_JS_BASEPATH),
-                new ResourceURLStreamHandler(D3_JS_BASEPATH),
-                new ResourceURLStreamHandler(JQUERY_BASEPATH),
-                new ResourceURLStreamHandler(JS_PLUMB_BASEPATH)
+                new ResourceURLStreamHandler(D3_JS_BASEPATH)
         );
     }
 
@@ -69,10 +55,6 @@ public class ResourceURLStreamHandlerFactory implements URLStreamHandlerFactory
             return requireJSHandler;
         } else if (protocol.equals(D3_JS_PROTOCOL)) {
             return d3jsHandler;
-        } else if (protocol.equals(JQUERY_PROTOCOL)) {
-            return jQueryHandler;
-        } else if (protocol.equals(JS_PLUMB_PROTOCOL)) {
-            return jsPlumbHandler;
         } else {
             return null;
         }
@@ -14,14 +14,26 @@
             readOnly: true
         });
 
-        codemirror.on("gutterClick", function(cm, n) {
-            shim.toggleBreakpoint(n + 1);
+        codemirror.on("gutterClick", function(cm, n, gutter, event) {
+            if (event.shiftKey) {
+                shim.editBreakpoint(n + 1);
+            } else {
+                shim.toggleBreakpoint(n + 1);
+            }
         });
 
         codemirror.markBreakpoint = function(n, src) {
             codemirror.setGutterMarker(n - 1, "breakpoints", makeMarker(src));
         }
 
+        codemirror.describeBreakpoint = function(n, description) {
+            var markers = codemirror.lineInfo(n - 1).gutterMarkers;
+            if (markers && markers.breakpoints) {
+                markers.breakpoints.title = description;
+                markers.breakpoints.className = "described-breakpoint";
+            }
+        }
+
         codemirror.clearBreakpoint = function(n) {
             codemirror.setGutterMarker(n - 1, "breakpoints", null);
         }
@@ -1,65 +1,272 @@
 require.config({
     paths: {
-        "jquery": "jquery:jquery.min",
-        "jsplumb": "http://jsplumbtoolkit.com/js/jquery.jsPlumb-1.6.2-min",
         "d3": "d3js:d3.min"
     }
 });
 
-require(["jquery", "jsplumb", "d3"], function($, jsPlumb, d3) {
-    // Monkey-patch jQuery onto the window for jsPlumb's benefit...
-    window.jQuery = $;
+require(["d3"], function(d3) {
+    // Geometry of the diagram, which must agree with StackAndHeap.css (and HeapLayout, which positions the objects).
+    var STACK_WIDTH = 320;
+    var HEAP_LEFT = STACK_WIDTH + 80;
+    var OBJECT_WIDTH = 260;
+    var OBJECT_PADDING = 6;
+    var TITLE_HEIGHT = 20;
+    var WINDOW_HEIGHT = 22;
+    var TABLE_MARGIN = 6;
+    var ROW_HEIGHT = 22;
+    var OBJECT_GAP = 24;
+    var COLUMN_GAP = 80;
 
-    var deferredPointers = [];
+    // Objects (and connectors) this far outside the viewport are still drawn, so that scrolling doesn't reveal gaps.
+    var VIEWPORT_MARGIN = 500;
+
+    // The frames of the stack which have been fetched, by index from the bottom, and the number of frames beneath them
+    // which haven't.
+    var stack = d3.map();
+    var hiddenFrames = 0;
+    var loadingFrames = false;
+
+    // The objects of the heap by id.
+    var heap = d3.map();
+
+    // Map from id to the ids of the objects with fields referring to it, so that connectors into visible objects
+    // can be found without looking at every object.
+    var referrers = d3.map();
+
+    // The frames and objects with values highlighted as changed by the last patch.
+    var highlighted = [];
+
+    // The string table of the patch being applied, see SnapshotEncoder.
+    var strings = [];
+
+    // The extent of the heap as laid out.
+    var heapWidth = 0;
+    var heapHeight = 0;
+
+    var version = 0;
+    var stackVersion = 0;
+    var drawnStackVersion = -1;
+    var renderScheduled = false;
+
+    var requestFrame = window.requestAnimationFrame ? window.requestAnimationFrame.bind(window) : function(f) {
+        setTimeout(f, 16);
+    };
 
     var jsShim = new function() {
-        this.drawStackAndHeap = function(stack, heap) {
-            jsPlumb.detachEveryConnection();
-            jsPlumb.deleteEveryEndpoint();
-            drawStack(stack);
-            drawHeap(heap);
-            drawLinks();
+        this.applyPatch = function(json) {
+            var chunk = JSON.parse(json);
+            version++;
+            if (chunk.first) {
+                strings = [];
+                clearHighlights();
+            }
+            Array.prototype.push.apply(strings, chunk.strings);
+
+            if (chunk.first) {
+                patchStack(chunk);
+                chunk.removed.forEach(removeObject);
+                chunk.moved.forEach(moveObject);
+            }
+            chunk.objects.forEach(putObject);
+            heapWidth = HEAP_LEFT + chunk.extent[0] * (OBJECT_WIDTH + COLUMN_GAP);
+            heapHeight = chunk.extent[1];
+            scheduleRender();
         }
     }
 
     shim.registerShimObject(jsShim);
 
-    jsPlumb.ready(function() {
-        // IMPORTANT: The styles below are *outright pinched* from python tutor and should be replaced...
-        var brightRed = '#e93f34';
+    window.addEventListener("scroll", scheduleRender);
+    window.addEventListener("resize", scheduleRender);
+
+    // Scrolling up past the top of the stack fetches more of the frames hidden beneath it.
+    function onWheel(event) {
+        var up = event.deltaY !== undefined ? event.deltaY < 0 : event.wheelDelta > 0;
+        if (up && window.pageYOffset == 0) {
+            loadMoreFrames();
+        }
+    }
+    window.addEventListener("wheel", onWheel);
+    window.addEventListener("mousewheel", onWheel);
+
+    function decodeVariable(v) {
+        return {type: strings[v[0]], name: strings[v[1]], value: v[2], isReference: v[3] == 1};
+    }
+
+    function decodeNames(names) {
+        var set = {};
+        names.forEach(function(i) {
+            set[strings[i]] = true;
+        });
+        return set;
+    }
+
+    function clearHighlights() {
+        highlighted.forEach(function(item) {
+            item.changed = {};
+            item.version = version;
+        });
+        highlighted = [];
+        stackVersion++;
+    }
+
+    // Apply the added, changed and removed frames of a patch to the model of the stack
+    function patchStack(chunk) {
+        chunk.removedFrames.forEach(function(index) {
+            stack.remove(index);
+        });
+        chunk.frames.forEach(function(f) {
+            var frame = {
+                index: f[0],
+                "function": f[1],
+                variables: f[2] ? f[2].map(decodeVariable) : [],
+                changed: decodeNames(f[3]),
+                repeated: f[4],
+                version: version
+            };
+            stack.set(frame.index, frame);
+            highlighted.push(frame);
+        });
+        hiddenFrames = chunk.hiddenFrames;
+        loadingFrames = false;
+        stackVersion++;
+    }
+
+    // Ask for the next page of hidden frames, once at a time.
+    function loadMoreFrames() {
+        if (hiddenFrames > 0 && !loadingFrames) {
+            loadingFrames = true;
+            shim.loadMoreFrames();
+        }
+    }
+
+    function putObject(o) {
+        var object = {
+            id: o[0],
+            klass: strings[o[1]],
+            stub: o[2] == 1,
+            chain: o[2] == 2,
+            length: o[3],
+            offset: o[4],
+            count: o[5],
+            fields: o[6].map(decodeVariable),
+            changed: decodeNames(o[7]),
+            version: version
+        };
+        object.windowed = object.length >= 0 && object.count < object.length;
+        object.height = objectHeight(object);
+        place(object, o[8], o[9]);
+
+        var previous = heap.get(object.id);
+        if (previous) {
+            unlinkReferrers(previous);
+        }
+        heap.set(object.id, object);
+        linkReferrers(object);
+        highlighted.push(object);
+    }
+
+    function removeObject(id) {
+        var object = heap.get(id);
+        if (object) {
+            unlinkReferrers(object);
+            heap.remove(id);
+        }
+    }
+
+    // Objects below one which has grown are moved down to make room, without otherwise changing.
+    function moveObject(m) {
+        var object = heap.get(m[0]);
+        if (object) {
+            place(object, m[1], m[2]);
+        }
+    }
+
+    function place(object, column, y) {
+        object.x = HEAP_LEFT + column * (OBJECT_WIDTH + COLUMN_GAP);
+        object.y = y;
+    }
+
+    function linkReferrers(object) {
+        object.fields.forEach(function(field) {
+            if (field.isReference && field.value != "null") {
+                var ids = referrers.get(field.value);
+                if (!ids) {
+                    referrers.set(field.value, ids = []);
+                }
+                ids.push(object.id);
+            }
+        });
+    }
+
+    function unlinkReferrers(object) {
+        object.fields.forEach(function(field) {
+            var ids = field.isReference && referrers.get(field.value);
+            if (ids) {
+                var i = ids.indexOf(object.id);
+                if (i >= 0) {
+                    ids.splice(i, 1);
+                }
+                if (ids.length == 0) {
+                    referrers.remove(field.value);
+                }
+            }
+        });
+    }
 
-        var connectorBaseColor = '#005583';
-        var connectorHighlightColor = brightRed;
+    function objectHeight(object) {
+        return 2 * OBJECT_PADDING + TITLE_HEIGHT + (object.windowed ? WINDOW_HEIGHT : 0)
+            + TABLE_MARGIN + object.fields.length * ROW_HEIGHT;
+    }
 
-        // We can have the body as the container, because we're just in a frame so who cares?
-        jsPlumb.setContainer($("body"));
+    function scheduleRender() {
+        if (!renderScheduled) {
+            renderScheduled = true;
+            requestFrame(function() {
+                renderScheduled = false;
+                render();
+            });
+        }
+    }
 
-        jsPlumb.importDefaults({
-            Endpoint: ["Dot", {radius:3}],
-            EndpointStyles: [{fillStyle: connectorBaseColor}, {fillstyle: null} /* make right endpoint invisible */],
-            Anchors: ["RightMiddle", "LeftMiddle"],
-            PaintStyle: {lineWidth: 1, strokeStyle: connectorBaseColor},
+    function render() {
+        if (drawnStackVersion != stackVersion) {
+            drawStack();
+            drawnStackVersion = stackVersion;
+        }
 
-            // state machine curve style:
-            Connector: [ "StateMachine" ],
-            Overlays: [[ "Arrow", { length: 10, width:7, foldback:0.55, location:1 }]],
-            EndpointHoverStyles: [{fillStyle: connectorHighlightColor}, {fillstyle: null} /* make right endpoint invisible */],
-            HoverPaintStyle: {lineWidth: 1, strokeStyle: connectorHighlightColor},
+        var viewport = {
+            left: window.pageXOffset - VIEWPORT_MARGIN,
+            top: window.pageYOffset - VIEWPORT_MARGIN,
+            right: window.pageXOffset + window.innerWidth + VIEWPORT_MARGIN,
+            bottom: window.pageYOffset + window.innerHeight + VIEWPORT_MARGIN
+        };
+        var visible = heap.values().filter(function(object) {
+            return object.x < viewport.right && object.x + OBJECT_WIDTH > viewport.left
+                && object.y < viewport.bottom && object.y + object.height > viewport.top;
         });
-    });
 
-    function drawStack(stack) {
-        var frames = d3.select("#stack").selectAll(".frame").data(stack)
-            .attr("id", function(object, i) {
-                return "stack-frame-" + i;
+        drawHeap(visible);
+        drawLinks(visible, viewport);
+    }
+
+    function drawStack() {
+        d3.select("#more-frames")
+            .classed("shown", hiddenFrames > 0)
+            .text(hiddenFrames + " more frame" + (hiddenFrames == 1 ? "" : "s"))
+            .on("click", loadMoreFrames);
+
+        var ordered = stack.values().sort(function(a, b) {
+            return a.index - b.index;
+        });
+        var frames = d3.select("#stack").selectAll(".frame")
+            .data(ordered, function(frame) {
+                return frame.index;
             });
 
         frames.enter()
             .append("div")
             .attr("class", "frame")
-            .attr("id", function(object, i) {
-                return "stack-frame-" + i;
-            })
             .call(function(div) {
                 div.append("span").attr("class", "header");
                 div.append("table");
@@ -68,113 +275,178 @@ require(["jquery", "jsplumb", "d3"], function($, jsPlumb, d3) {
         frames.exit()
             .remove();
 
-        var header = frames.select(".header")
-            .datum(function(frame) {
-                return frame.function;
+        frames.order()
+            .filter(function(frame) {
+                return this.drawnVersion !== frame.version;
             })
-            .text(String);
-
-        var variables = frames.select("table").selectAll("tr")
-            .data(function(frame) {
-                return frame.variables;
-            })
-            .call(fillVariableRow);
-
-        variables.enter()
-            .append("tr")
-            .call(newVariableRow);
-
-        variables.exit()
-            .remove();
+            .each(function(frame) {
+                this.drawnVersion = frame.version;
+                var div = d3.select(this);
+                // Runs of recursive calls are summarised by a single frame standing for the middle of the run.
+                div.classed("repeated", frame.repeated > 1);
+                div.select(".header").text(frame.repeated > 1 ? frame["function"] + " \u00d7 " + frame.repeated : frame["function"]);
+                fillTable(div.select("table"), frame.variables, frame.changed);
+            });
     }
 
-    // Draw the heap
-    function drawHeap(heap) {
+    function drawHeap(visible) {
         var objects = d3.select("#heap").selectAll(".object")
-            .data(heap)
-            .attr("id", function(object) {
-                return "heap-object-" + object.id;
+            .data(visible, function(object) {
+                return object.id;
             });
 
         objects.enter()
             .append("div")
             .attr("class", "object")
-            .attr("id", function(object) {
-                return "heap-object-" + object.id;
-            })
             .call(function(div) {
-                div.append("span").attr("class", "header");
-                div.append("span").attr("class", "id");
+                var title = div.append("div").attr("class", "title");
+                title.append("span").attr("class", "header");
+                title.append("span").attr("class", "id");
+                title.append("a").attr("class", "expand").text("expand");
+                var paging = div.append("div").attr("class", "window");
+                paging.append("a").attr("class", "previous").text("\u25c0");
+                paging.append("span").attr("class", "range");
+                paging.append("a").attr("class", "next").text("\u25b6");
                 div.append("table");
             });
 
         objects.exit()
             .remove();
 
-        var header = objects.select(".header")
-            .datum(function(object) {
-                return object.klass;
+        objects
+            .style("left", function(object) {
+                return object.x + "px";
             })
-            .text(String);
-
-        var id = objects.select(".id")
-            .datum(function(object) {
-                return object.id;
+            .style("top", function(object) {
+                return object.y + "px";
+            })
+            .filter(function(object) {
+                return this.drawnVersion !== object.version;
             })
-            .text(function(s) {
-                return "(id=" + s +")";
+            .each(function(object) {
+                this.drawnVersion = object.version;
+                fillObject(d3.select(this), object);
             });
+    }
 
-        var fields = objects.select("table").selectAll("tr")
-            .data(function(object) {
-                return object.fields;
-            })
-            .call(fillVariableRow);
+    function fillObject(div, object) {
+        // Stubs are objects beyond the traversal budget, whose fields can be fetched on demand, and chains are
+        // summaries of linked objects of the same type, which can be expanded into the objects themselves.
+        div.classed("stub", object.stub);
+        div.classed("chain", object.chain);
+        div.select(".header").text(object.klass);
+        div.select(".id").text("(id=" + object.id + ")");
+        div.select(".expand").on("click", function() {
+            shim.expand(object.id);
+        });
+
+        // Arrays and long strings are shown a window at a time, which can be paged through.
+        var paging = div.select(".window").classed("paged", object.windowed);
+        if (object.windowed) {
+            paging.select(".range").text(object.offset + "\u2013" + (object.offset + object.count - 1) + " of " + object.length);
+            paging.select(".previous")
+                .classed("disabled", object.offset == 0)
+                .on("click", function() {
+                    shim.page(object.id, -1);
+                });
+            paging.select(".next")
+                .classed("disabled", object.offset + object.count >= object.length)
+                .on("click", function() {
+                    shim.page(object.id, 1);
+                });
+        }
+        fillTable(div.select("table"), object.fields, object.changed);
+    }
+
+    function fillTable(table, variables, changed) {
+        var rows = table.selectAll("tr")
+            .data(variables);
 
-        fields.enter()
+        rows.enter()
             .append("tr")
-            .call(newVariableRow);
+            .call(function(tr) {
+                tr.append("td").attr("class", "type");
+                tr.append("td").attr("class", "name");
+                tr.append("td").attr("class", "value");
+            });
 
-        fields.exit()
+        rows.exit()
             .remove();
-    }
-
-    function newVariableRow(tr) {
-        tr.append("td").attr("class", "type");
-        tr.append("td").attr("class", "name");
-        tr.append("td").attr("class", "value");
-        fillVariableRow(tr);
-    }
 
-    function fillVariableRow(tr) {
-        tr.select(".type").text(function(variable) {
+        rows.select(".type").text(function(variable) {
             return variable.type;
         });
-        tr.select(".name").text(function(variable) {
+        rows.select(".name").text(function(variable) {
             return variable.name;
         });
-        tr.select(".value").each(function(variable) {
-            if (variable.isReference) {
-                // This is an object reference...
-                if (variable.value != "null") {
-                    deferredPointers.push({"start": this, "target": variable.value})
-                } else {
-                    d3.select(this).text(variable.value);
+        rows.select(".value")
+            .classed("reference", function(variable) {
+                return variable.isReference && variable.value != "null";
+            })
+            .classed("changed", function(variable) {
+                return changed[variable.name] === true;
+            })
+            .text(function(variable) {
+                // References are drawn as connectors instead.
+                return variable.isReference && variable.value != "null" ? "" : variable.value;
+            });
+    }
+
+    // Draw every connector with a visible end as a single batched path, and every arrowhead as another.
+    function drawLinks(visible, viewport) {
+        var links = [];
+        var arrows = [];
+
+        function link(sx, sy, target) {
+            var tx = target.x;
+            var ty = target.y + OBJECT_PADDING + TITLE_HEIGHT / 2;
+            var dx = Math.max(40, Math.abs(tx - sx) / 2);
+            links.push("M" + sx + "," + sy + "C" + (sx + dx) + "," + sy + " " + (tx - dx) + "," + ty + " " + tx + "," + ty);
+            arrows.push("M" + tx + "," + ty + "l-8,-4v8z");
+        }
+
+        function linkFields(object, onlyTo) {
+            var top = object.y + OBJECT_PADDING + TITLE_HEIGHT + (object.windowed ? WINDOW_HEIGHT : 0) + TABLE_MARGIN;
+            object.fields.forEach(function(field, i) {
+                if (field.isReference && (onlyTo === undefined || field.value == onlyTo)) {
+                    var target = heap.get(field.value);
+                    if (target) {
+                        link(object.x + OBJECT_WIDTH, top + (i + 0.5) * ROW_HEIGHT, target);
+                    }
                 }
-            } else {
-                // ...this is a primative value.
-                d3.select(this).text(variable.value);
+            });
+        }
+
+        // Connectors from the stack...
+        d3.selectAll("#stack .value.reference").each(function(variable) {
+            var target = heap.get(variable.value);
+            if (target) {
+                var rect = this.getBoundingClientRect();
+                link(rect.right + window.pageXOffset, rect.top + rect.height / 2 + window.pageYOffset, target);
             }
         });
-    }
 
-    function drawLinks() {
-        deferredPointers.forEach(function(pointer) {
-            jsPlumb.connect({
-                source: pointer.start,
-                target: "heap-object-" + pointer.target
+        // ...out of visible objects, and into visible objects from any which aren't.
+        var drawn = d3.set(visible.map(function(object) {
+            return object.id;
+        }));
+        visible.forEach(function(object) {
+            linkFields(object);
+            d3.set(referrers.get(object.id) || []).forEach(function(id) {
+                if (!drawn.has(id)) {
+                    linkFields(heap.get(id), object.id);
+                }
             });
         });
-        deferredPointers = [];
+
+        var stackHeight = document.getElementById("stack").offsetHeight;
+        d3.select("#links")
+            .attr("width", Math.max(heapWidth, viewport.right))
+            .attr("height", Math.max(heapHeight, stackHeight, viewport.bottom));
+        d3.select("#links .link").attr("d", links.join(""));
+        d3.select("#links .arrow").attr("d", arrows.join(""));
+        d3.select("#heap")
+            .style("width", heapWidth + "px")
+            .style("height", heapHeight + "px");
     }
 });
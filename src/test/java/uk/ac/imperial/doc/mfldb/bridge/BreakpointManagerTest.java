@@ -1,5 +1,6 @@
 package uk.ac.imperial.doc.mfldb.bridge;
 
+import com.google.common.collect.ImmutableList;
 import com.sun.jdi.Location;
 import com.sun.jdi.event.ClassPrepareEvent;
 import com.sun.jdi.request.BreakpointRequest;
@@ -12,6 +13,8 @@ import uk.ac.imperial.doc.mfldb.bridge.mockvm.TestClass;
 
 import java.util.function.Consumer;
 
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.truth0.Truth.ASSERT;
 import static uk.ac.imperial.doc.mfldb.bridge.mockvm.Event.vmResumed;
@@ -362,4 +365,141 @@ public class BreakpointManagerTest {
                 deletedBreakpointRequest(c, spec1)
         );
     }
+
+    /**
+     * Tests that a logpoint only suspends the thread which hits it, and can be told apart when it's hit.
+     */
+    @Test
+    public void logpointOnlySuspendsEventThread() {
+        // Given
+        TestClass c = mockVM.addTestClass("foo.bar.baz", 107);
+        BreakpointSpec spec = new BreakpointSpec(c.name, 67, ImmutableList.of("i"));
+
+        // When
+        manager.resolveDeferred(c.makePrepared());
+        manager.addBreakpoint(spec);
+
+        // Then
+        mockVM.verifyEventLog(
+                Event.createdBreakpointRequest(request -> {
+                    verify(request).setSuspendPolicy(EventRequest.SUSPEND_EVENT_THREAD);
+                    verify(request).putProperty(BreakpointManager.SPEC_PROPERTY, spec);
+                })
+        );
+    }
+
+    @Test
+    public void skippedAndNthHitsAreCountedByTheVM() {
+        // Given
+        TestClass c = mockVM.addTestClass("foo.bar.baz", 107);
+        BreakpointSpec spec = new BreakpointSpec(c.name, 67, ImmutableList.of(), null, new HitCount(5, 3, 0));
+
+        // When
+        manager.resolveDeferred(c.makePrepared());
+        manager.addBreakpoint(spec);
+
+        // Then
+        mockVM.verifyEventLog(
+                Event.createdBreakpointRequest(request -> {
+                    verify(request).addCountFilter(8);
+                    verify(request).setSuspendPolicy(EventRequest.SUSPEND_ALL);
+                })
+        );
+    }
+
+    @Test
+    public void everyNthHitIsRearmedAfterEachHit() {
+        // Given
+        TestClass c = mockVM.addTestClass("foo.bar.baz", 107);
+        BreakpointSpec spec = new BreakpointSpec(c.name, 67, ImmutableList.of(), null, new HitCount(5, 3, 0));
+        manager.resolveDeferred(c.makePrepared());
+        manager.addBreakpoint(spec);
+        BreakpointRequest fired = mockVM.getLastBreakpointRequest();
+
+        // When
+        manager.rearm(fired);
+        manager.removeBreakpoint(spec);
+
+        // Then
+        mockVM.verifyEventLog(
+                createdBreakpointRequest(c, spec),
+                Event.deletedEventRequest(request -> ASSERT.that(request == fired).isTrue()),
+                Event.createdBreakpointRequest(request -> {
+                    verify(request).addCountFilter(3);
+                    verify(request).putProperty(BreakpointManager.SPEC_PROPERTY, spec);
+                    verify(request).enable();
+                }),
+                Event.deletedEventRequest(request -> ASSERT.that(request == fired).isFalse())
+        );
+    }
+
+    @Test
+    public void skippingIsOnlyRearmedOnce() {
+        // Given
+        TestClass c = mockVM.addTestClass("foo.bar.baz", 107);
+        BreakpointSpec spec = new BreakpointSpec(c.name, 67, ImmutableList.of(), null, new HitCount(5, 1, 0));
+        manager.resolveDeferred(c.makePrepared());
+        manager.addBreakpoint(spec);
+        manager.rearm(mockVM.getLastBreakpointRequest());
+
+        // When
+        manager.rearm(mockVM.getLastBreakpointRequest());
+
+        // Then
+        mockVM.verifyEventLog(
+                Event.createdBreakpointRequest(request -> verify(request).addCountFilter(6)),
+                Event.deletedEventRequest(request -> {}),
+                Event.createdBreakpointRequest(request -> verify(request, never()).addCountFilter(anyInt()))
+        );
+    }
+
+    @Test
+    public void everyOtherHitIsCountedByTheDebugger() {
+        // Given
+        TestClass c = mockVM.addTestClass("foo.bar.baz", 107);
+        BreakpointSpec spec = new BreakpointSpec(c.name, 67, ImmutableList.of(), null, new HitCount(5, 2, 0));
+        manager.resolveDeferred(c.makePrepared());
+        manager.addBreakpoint(spec);
+        BreakpointRequest skipping = mockVM.getLastBreakpointRequest();
+
+        // When
+        manager.rearm(skipping);
+        manager.rearm(mockVM.getLastBreakpointRequest());
+
+        // Then
+        Object everyNth = skipping.getProperty(BreakpointManager.EVERY_NTH_PROPERTY);
+        ASSERT.that(everyNth instanceof EveryNthHit).isTrue();
+        mockVM.verifyEventLog(
+                Event.createdBreakpointRequest(request -> {
+                    verify(request).addCountFilter(6);
+                    verify(request).setSuspendPolicy(EventRequest.SUSPEND_EVENT_THREAD);
+                }),
+                Event.deletedEventRequest(request -> ASSERT.that(request == skipping).isTrue()),
+                Event.createdBreakpointRequest(request -> {
+                    verify(request, never()).addCountFilter(anyInt());
+                    verify(request).putProperty(BreakpointManager.EVERY_NTH_PROPERTY, everyNth);
+                })
+        );
+    }
+
+    @Test
+    public void rateLimitedBreakpointOnlySuspendsEventThread() {
+        // Given
+        TestClass c = mockVM.addTestClass("foo.bar.baz", 107);
+        BreakpointSpec spec = new BreakpointSpec(c.name, 67, ImmutableList.of(), null, new HitCount(0, 1, 10));
+
+        // When
+        manager.resolveDeferred(c.makePrepared());
+        manager.addBreakpoint(spec);
+
+        // Then
+        mockVM.verifyEventLog(
+                Event.createdBreakpointRequest(request -> {
+                    verify(request).setSuspendPolicy(EventRequest.SUSPEND_EVENT_THREAD);
+                    verify(request, never()).addCountFilter(anyInt());
+                    ASSERT.that(request.getProperty(BreakpointManager.RATE_LIMIT_PROPERTY) instanceof HitRateLimit)
+                            .isTrue();
+                })
+        );
+    }
 }
@@ -0,0 +1,191 @@
+package uk.ac.imperial.doc.mfldb.bridge;
+
+import com.sun.jdi.*;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+import static org.truth0.Truth.ASSERT;
+
+/**
+ * Tests for the {@link Condition} class.
+ */
+public class ConditionTest {
+
+    private final ImmutableValueCache valueCache = new ImmutableValueCache();
+
+    /**
+     * Creates a stack frame of a static method in which the given locals are visible, and no fields.
+     */
+    @SuppressWarnings("unchecked")
+    private static StackFrame frameWithLocals(Map<String, Value> locals) throws AbsentInformationException {
+        StackFrame frame = mock(StackFrame.class);
+        Location location = mock(Location.class);
+        ReferenceType type = mock(ReferenceType.class);
+        when(frame.location()).thenReturn(location);
+        when(location.declaringType()).thenReturn(type);
+        for (Map.Entry<String, Value> local : locals.entrySet()) {
+            LocalVariable variable = mock(LocalVariable.class);
+            when(frame.visibleVariableByName(local.getKey())).thenReturn(variable);
+            when(frame.getValue(variable)).thenReturn(local.getValue());
+        }
+        when(frame.getValues(anyListOf(LocalVariable.class))).then(invocation -> {
+            Map<LocalVariable, Value> values = new HashMap<>();
+            for (LocalVariable variable : (List<LocalVariable>) invocation.getArguments()[0]) {
+                values.put(variable, frame.getValue(variable));
+            }
+            return values;
+        });
+        return frame;
+    }
+
+    private static IntegerValue integer(int value) {
+        IntegerValue mirror = mock(IntegerValue.class);
+        when(mirror.value()).thenReturn(value);
+        when(mirror.longValue()).thenReturn((long) value);
+        return mirror;
+    }
+
+    private static StringReference string(String value) {
+        StringReference mirror = mock(StringReference.class);
+        when(mirror.value()).thenReturn(value);
+        return mirror;
+    }
+
+    @Test
+    public void planKnowsWhichValuesToFetch() throws ConditionException {
+        // When
+        Condition condition = Condition.parse("i % 10 == 0 && (this.name != null || count > limit.max)");
+
+        // Then
+        ASSERT.that(condition.getNames()).has().exactly("i", "this", "count", "limit");
+    }
+
+    @Test
+    public void literalsNeedNothingFetched() throws Exception {
+        // Given
+        StackFrame frame = mock(StackFrame.class);
+        Condition condition = Condition.parse("1 + 2 * 3 == 7 && !(10 / 4 > 2) && 'a' < 'b' && 1.5 * 2 == 3");
+
+        // When
+        boolean holds = condition.evaluate(frame, valueCache);
+
+        // Then
+        ASSERT.that(holds).isTrue();
+        verifyZeroInteractions(frame);
+    }
+
+    @Test
+    public void localsAreFetchedInOneRoundTrip() throws Exception {
+        // Given
+        Map<String, Value> locals = new HashMap<>();
+        locals.put("i", integer(120));
+        locals.put("name", string("widget"));
+        StackFrame frame = frameWithLocals(locals);
+        Condition condition = Condition.parse("i % 10 == 0 && name == \"widget\"");
+
+        // When
+        boolean holds = condition.evaluate(frame, valueCache);
+
+        // Then
+        ASSERT.that(holds).isTrue();
+        verify(frame, times(1)).getValues(anyListOf(LocalVariable.class));
+    }
+
+    @Test
+    public void falseConditionIsRejected() throws Exception {
+        // Given
+        StackFrame frame = frameWithLocals(Collections.singletonMap("i", integer(7)));
+        Condition condition = Condition.parse("i >= 100");
+
+        // When
+        boolean holds = condition.evaluate(frame, valueCache);
+
+        // Then
+        ASSERT.that(holds).isFalse();
+    }
+
+    @Test(expected = ConditionException.class)
+    public void nameOutOfScopeFails() throws Exception {
+        // Given
+        StackFrame frame = frameWithLocals(Collections.emptyMap());
+        when(frame.visibleVariableByName(anyString())).thenReturn(null);
+        Condition condition = Condition.parse("missing > 0");
+
+        // When
+        condition.evaluate(frame, valueCache);
+    }
+
+    @Test
+    public void malformedConditionsAreRejectedWhenParsed() {
+        for (String source : new String[]{"", "i >", "(i > 0", "i > 0)", "i = 0", "\"open", "i.", "s.equals(t)"}) {
+            try {
+                Condition.parse(source);
+                ASSERT.fail("Parsed " + source);
+            } catch (ConditionException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void failureIsOnlyReportedOnce() throws ConditionException {
+        // Given
+        Condition condition = Condition.parse("missing > 0");
+
+        // When
+        boolean first = condition.markFailed("missing is not in scope");
+        boolean second = condition.markFailed("something else");
+
+        // Then
+        ASSERT.that(first).isTrue();
+        ASSERT.that(second).isFalse();
+        ASSERT.that(condition.getFailure()).is("missing is not in scope");
+    }
+
+    @Test
+    public void intArithmeticOverflowsAsInJava() throws Exception {
+        // Given
+        StackFrame frame = frameWithLocals(Collections.singletonMap("i", integer(Integer.MAX_VALUE)));
+        Condition condition = Condition.parse("i + 1 < 0 && i + 1L > 0 && i * 2 == -2");
+
+        // When
+        boolean holds = condition.evaluate(frame, valueCache);
+
+        // Then
+        ASSERT.that(holds).isTrue();
+    }
+
+    @Test
+    public void literalsAreReadAsInJava() throws Exception {
+        // Given
+        StackFrame frame = mock(StackFrame.class);
+        Condition condition = Condition.parse("0x10 == 16 && 010 == 8 && 0b101 == 5 && 0xFFFFFFFF == -1"
+                + " && 1e-5 < 0.001 && 2.5E2 == 250 && 1.5f == 1.5 && 0.1f != 0.1 && 1_000L == 1000"
+                + " && -2147483648 < 0 && 'a' + 1 == 98");
+
+        // When
+        boolean holds = condition.evaluate(frame, valueCache);
+
+        // Then
+        ASSERT.that(holds).isTrue();
+    }
+
+    @Test
+    public void literalsOutOfRangeAreRejectedWhenParsed() {
+        for (String source : new String[]{"2147483648 > 0", "0x100000000 > 0", "09 > 0", "1e > 0"}) {
+            try {
+                Condition.parse(source);
+                ASSERT.fail("Parsed " + source);
+            } catch (ConditionException e) {
+                // Expected
+            }
+        }
+    }
+}
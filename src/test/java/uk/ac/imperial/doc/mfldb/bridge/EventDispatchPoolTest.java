@@ -0,0 +1,158 @@
+package uk.ac.imperial.doc.mfldb.bridge;
+
+import com.sun.jdi.VMDisconnectedException;
+import com.sun.jdi.VirtualMachine;
+import com.sun.jdi.event.*;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.*;
+import static org.truth0.Truth.ASSERT;
+
+/**
+ * Tests for the {@link EventDispatchPool} class.
+ */
+public class EventDispatchPoolTest {
+
+    private final EventDispatchPool pool = new EventDispatchPool(1);
+
+    @After
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Creates a VirtualMachine whose event queue has a number of EventSets with nothing in them and then disconnects,
+     * or which never has any events (blocking until interrupted) if the number is negative.
+     */
+    private static VirtualMachine vmDisconnectingAfter(int emptySets) throws InterruptedException {
+        VMDisconnectEvent disconnect = mock(VMDisconnectEvent.class);
+        EventSet events = mock(EventSet.class);
+        when(events.iterator()).thenAnswer(invocation -> Collections.<Event>singleton(disconnect).iterator());
+        EventSet empty = mock(EventSet.class);
+        when(empty.iterator()).thenAnswer(invocation -> Collections.<Event>emptySet().iterator());
+        EventQueue queue = mock(EventQueue.class);
+        if (emptySets < 0) {
+            when(queue.remove()).thenAnswer(invocation -> {
+                new CountDownLatch(1).await();
+                return null;
+            });
+        } else {
+            EventSet[] sets = new EventSet[emptySets + 1];
+            Arrays.fill(sets, empty);
+            sets[emptySets] = events;
+            when(queue.remove()).thenReturn(sets[0], Arrays.copyOfRange(sets, 1, sets.length));
+        }
+        VirtualMachine vm = mock(VirtualMachine.class);
+        when(vm.eventQueue()).thenReturn(queue);
+        return vm;
+    }
+
+    private static EventThread eventThread(VirtualMachine vm, Set<String> dispatchThreads) {
+        EventThread eventThread = new EventThread(vm);
+        EventThread.Callbacks callbacks = mock(EventThread.Callbacks.class);
+        doAnswer(invocation -> dispatchThreads.add(Thread.currentThread().getName()))
+                .when(callbacks).vmDisconnectEvent(any(VMDisconnectEvent.class));
+        eventThread.setCallbacks(callbacks);
+        return eventThread;
+    }
+
+    @Test(timeout = 5000)
+    public void sessionsShareDispatchThreads() throws InterruptedException {
+        // Given
+        Set<String> dispatchThreads = Collections.synchronizedSet(new HashSet<>());
+        EventThread first = eventThread(vmDisconnectingAfter(3), dispatchThreads);
+        EventThread second = eventThread(vmDisconnectingAfter(5), dispatchThreads);
+
+        // When
+        pool.start(first);
+        pool.start(second);
+        first.join();
+        second.join();
+
+        // Then
+        ASSERT.that(dispatchThreads.size()).is(1);
+    }
+
+    @Test(timeout = 5000)
+    public void idleSessionDoesNotHoldUpOthers() throws InterruptedException {
+        // Given
+        Set<String> dispatchThreads = Collections.synchronizedSet(new HashSet<>());
+        EventThread idle = eventThread(vmDisconnectingAfter(-1), dispatchThreads);
+        EventThread busy = eventThread(vmDisconnectingAfter(0), dispatchThreads);
+
+        // When
+        pool.start(idle);
+        pool.start(busy);
+        busy.join();
+
+        // Then
+        ASSERT.that(dispatchThreads.size()).is(1);
+    }
+
+    @Test(timeout = 5000)
+    public void idleSessionWaitsWithoutPolling() throws InterruptedException {
+        // Given
+        VirtualMachine idleVm = vmDisconnectingAfter(-1);
+        EventThread idle = eventThread(idleVm, new HashSet<>());
+        EventThread busy = eventThread(vmDisconnectingAfter(10), new HashSet<>());
+
+        // When
+        pool.start(idle);
+        pool.start(busy);
+        busy.join();
+        Thread.sleep(100);
+
+        // Then
+        verify(idleVm.eventQueue(), atMost(1)).remove();
+        verify(idleVm.eventQueue(), never()).remove(anyLong());
+    }
+
+    @Test(timeout = 5000)
+    public void onlyExitEventsAreDispatchedOnceDisconnected() throws InterruptedException {
+        // Given
+        BreakpointEvent first = mock(BreakpointEvent.class);
+        BreakpointEvent second = mock(BreakpointEvent.class);
+        VMDisconnectEvent disconnect = mock(VMDisconnectEvent.class);
+        EventSet firstSet = mock(EventSet.class);
+        when(firstSet.iterator()).thenAnswer(invocation -> Collections.<Event>singleton(first).iterator());
+        EventSet lastSet = mock(EventSet.class);
+        when(lastSet.iterator()).thenAnswer(invocation -> Arrays.<Event>asList(second, disconnect).iterator());
+        EventQueue queue = mock(EventQueue.class);
+        when(queue.remove()).thenReturn(firstSet, lastSet);
+        VirtualMachine vm = mock(VirtualMachine.class);
+        when(vm.eventQueue()).thenReturn(queue);
+        EventThread eventThread = new EventThread(vm);
+        EventThread.Callbacks callbacks = mock(EventThread.Callbacks.class);
+        doThrow(new VMDisconnectedException()).when(callbacks).breakpointEvent(first);
+        eventThread.setCallbacks(callbacks);
+
+        // When
+        pool.start(eventThread);
+        eventThread.join();
+
+        // Then
+        verify(callbacks, never()).breakpointEvent(second);
+        verify(callbacks).vmDisconnectEvent(disconnect);
+    }
+
+    @Test(timeout = 5000)
+    public void shuttingDownAbandonsConnectedSessions() throws InterruptedException {
+        // Given
+        EventThread idle = eventThread(vmDisconnectingAfter(-1), new HashSet<>());
+        pool.start(idle);
+
+        // When
+        pool.shutdown();
+
+        // Then
+        idle.join();
+    }
+}
@@ -0,0 +1,29 @@
+package uk.ac.imperial.doc.mfldb.bridge;
+
+import org.junit.Test;
+
+import static org.truth0.Truth.ASSERT;
+
+/**
+ * Tests for the {@link EveryNthHit} class.
+ */
+public class EveryNthHitTest {
+
+    @Test
+    public void onlyEveryNthHitCounts() {
+        // Given
+        EveryNthHit everyNth = new EveryNthHit(2);
+
+        // When
+        boolean first = everyNth.tryAcquire();
+        boolean second = everyNth.tryAcquire();
+        boolean third = everyNth.tryAcquire();
+        boolean fourth = everyNth.tryAcquire();
+
+        // Then
+        ASSERT.that(first).isFalse();
+        ASSERT.that(second).isTrue();
+        ASSERT.that(third).isFalse();
+        ASSERT.that(fourth).isTrue();
+    }
+}
@@ -0,0 +1,63 @@
+package uk.ac.imperial.doc.mfldb.bridge;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.truth0.Truth.ASSERT;
+
+/**
+ * Tests for the {@link HitRateLimit} class.
+ */
+public class HitRateLimitTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final HitRateLimit limit = new HitRateLimit(2);
+
+    @Test
+    public void hitsOverTheLimitAreDropped() {
+        // Given
+        long now = 7 * SECOND;
+
+        // When
+        boolean first = limit.tryAcquire(now);
+        boolean second = limit.tryAcquire(now + 1);
+        boolean third = limit.tryAcquire(now + 2);
+
+        // Then
+        ASSERT.that(first).isTrue();
+        ASSERT.that(second).isTrue();
+        ASSERT.that(third).isFalse();
+        ASSERT.that(limit.getDropped()).is(1L);
+    }
+
+    @Test
+    public void limitStartsAgainEachSecond() {
+        // Given
+        long now = 7 * SECOND;
+        limit.tryAcquire(now);
+        limit.tryAcquire(now);
+        limit.tryAcquire(now);
+
+        // When
+        boolean next = limit.tryAcquire(now + SECOND);
+
+        // Then
+        ASSERT.that(next).isTrue();
+    }
+
+    @Test
+    public void negativeTimesAreLimitedToo() {
+        // Given
+        long now = -3 * SECOND - 1;
+
+        // When
+        limit.tryAcquire(now);
+        limit.tryAcquire(now);
+        boolean third = limit.tryAcquire(now);
+
+        // Then
+        ASSERT.that(third).isFalse();
+    }
+}
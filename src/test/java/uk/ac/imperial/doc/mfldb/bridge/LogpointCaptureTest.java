@@ -0,0 +1,117 @@
+package uk.ac.imperial.doc.mfldb.bridge;
+
+import com.google.common.collect.ImmutableList;
+import com.sun.jdi.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.*;
+import static org.truth0.Truth.ASSERT;
+
+/**
+ * Tests for the {@link LogpointCapture} class, against mocked JDI objects.
+ */
+public class LogpointCaptureTest {
+
+    private final ReferenceTypeCache typeCache = new ReferenceTypeCache();
+
+    private final ImmutableValueCache valueCache = new ImmutableValueCache();
+
+    private final BreakpointSpec spec = new BreakpointSpec("foo.Bar", 12, ImmutableList.of("s"));
+
+    /**
+     * Mocks a string held in a char[], as it is before JDK 9.
+     */
+    private static StringReference string(String text) {
+        ClassType stringType = mock(ClassType.class);
+        when(stringType.name()).thenReturn("java.lang.String");
+        Field value = mock(Field.class);
+        when(value.name()).thenReturn("value");
+        when(value.declaringType()).thenReturn(stringType);
+        when(stringType.visibleFields()).thenReturn(Collections.singletonList(value));
+
+        ArrayReference array = mock(ArrayReference.class);
+        when(array.length()).thenReturn(text.length());
+        when(array.getValues(anyInt(), anyInt())).then(invocation -> {
+            int index = (Integer) invocation.getArguments()[0];
+            int length = (Integer) invocation.getArguments()[1];
+            List<Value> chars = new ArrayList<>();
+            for (int i = index; i < index + length; i++) {
+                CharValue c = mock(CharValue.class);
+                when(c.value()).thenReturn(text.charAt(i));
+                chars.add(c);
+            }
+            return chars;
+        });
+
+        StringReference string = mock(StringReference.class);
+        when(string.uniqueID()).thenReturn(1L);
+        when(string.referenceType()).thenReturn(stringType);
+        when(string.getValues(anyListOf(Field.class))).thenReturn(Collections.singletonMap(value, array));
+        when(string.value()).thenReturn(text);
+        return string;
+    }
+
+    /**
+     * Mocks a thread suspended in a frame with a single local, s.
+     */
+    private static ThreadReference threadWith(Value s) throws Exception {
+        StackFrame frame = mock(StackFrame.class);
+        Location location = mock(Location.class);
+        when(location.declaringType()).thenReturn(mock(ReferenceType.class));
+        when(frame.location()).thenReturn(location);
+        LocalVariable local = mock(LocalVariable.class);
+        when(frame.visibleVariableByName("s")).thenReturn(local);
+        when(frame.getValues(anyListOf(LocalVariable.class))).thenReturn(Collections.singletonMap(local, s));
+
+        ThreadReference thread = mock(ThreadReference.class);
+        when(thread.frame(0)).thenReturn(frame);
+        when(thread.name()).thenReturn("main");
+        return thread;
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(text);
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void onlyTheLoggedPrefixOfALongStringIsFetched() throws Exception {
+        // Given
+        String text = repeat("abc", 100000);
+        StringReference string = string(text);
+
+        // When
+        LogpointHit first = LogpointCapture.capture(spec, threadWith(string), typeCache, valueCache);
+        LogpointHit second = LogpointCapture.capture(spec, threadWith(string), typeCache, valueCache);
+
+        // Then
+        String expected = '"' + text.substring(0, 200) + "...\"";
+        ASSERT.that(first.values.get("s")).is(expected);
+        ASSERT.that(second.values.get("s")).is(expected);
+        verify(string, never()).value();
+        verify(string, times(1)).getValues(anyListOf(Field.class));
+    }
+
+    @Test
+    public void shortStringsAreFetchedWholeAndCached() throws Exception {
+        // Given
+        StringReference string = string("hello");
+
+        // When
+        LogpointCapture.capture(spec, threadWith(string), typeCache, valueCache);
+        LogpointHit hit = LogpointCapture.capture(spec, threadWith(string), typeCache, valueCache);
+
+        // Then
+        ASSERT.that(hit.values.get("s")).is("\"hello\"");
+        verify(string, times(1)).value();
+    }
+}
@@ -0,0 +1,75 @@
+package uk.ac.imperial.doc.mfldb.bridge;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.truth0.Truth.ASSERT;
+
+/**
+ * Tests for the {@link UiDispatcher} class.
+ */
+public class UiDispatcherTest {
+
+    private final List<Runnable> fxQueue = new ArrayList<>();
+
+    private final UiDispatcher dispatcher = new UiDispatcher(fxQueue::add);
+
+    private void runFxQueue() {
+        List<Runnable> queued = new ArrayList<>(fxQueue);
+        fxQueue.clear();
+        queued.forEach(Runnable::run);
+    }
+
+    @Test
+    public void updatesAreAppliedInOneBatch() {
+        // Given
+        List<String> applied = new ArrayList<>();
+
+        // When
+        for (int i = 0; i < 200; i++) {
+            String key = "breakpoint " + i;
+            dispatcher.post(key, () -> applied.add(key));
+        }
+        runFxQueue();
+
+        // Then
+        ASSERT.that(applied.size()).is(200);
+        ASSERT.that(applied.get(0)).is("breakpoint 0");
+        ASSERT.that(dispatcher.getBatches()).is(1L);
+        ASSERT.that(dispatcher.getMaxQueueDepth()).is(200);
+        ASSERT.that(dispatcher.getQueueDepth()).is(0);
+    }
+
+    @Test
+    public void latestUpdateWins() {
+        // Given
+        List<String> applied = new ArrayList<>();
+        Object state = new Object();
+
+        // When
+        dispatcher.post(state, () -> applied.add("RUNNING"));
+        dispatcher.post("other", () -> applied.add("other"));
+        dispatcher.post(state, () -> applied.add("SUSPENDED"));
+        runFxQueue();
+
+        // Then
+        ASSERT.that(applied).has().exactly("other", "SUSPENDED").inOrder();
+        ASSERT.that(dispatcher.getCoalesced()).is(1L);
+    }
+
+    @Test
+    public void newBatchIsScheduledAfterEachIsApplied() {
+        // Given
+        dispatcher.post("a", () -> { });
+        runFxQueue();
+
+        // When
+        dispatcher.post("b", () -> { });
+
+        // Then
+        ASSERT.that(fxQueue.size()).is(1);
+        ASSERT.that(dispatcher.getQueueDepth()).is(1);
+    }
+}
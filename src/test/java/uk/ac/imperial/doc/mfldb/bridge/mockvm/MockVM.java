@@ -9,7 +9,9 @@ import com.sun.jdi.request.EventRequestManager;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -39,6 +41,11 @@ public class MockVM {
      */
     private final List<Event> events = new ArrayList<>();
 
+    /**
+     * Every BreakpointRequest created so far, in order, whose properties are remembered like real ones.
+     */
+    private final List<BreakpointRequest> breakpointRequests = new ArrayList<>();
+
     /**
      * Default constructor.
      */
@@ -67,6 +74,11 @@ public class MockVM {
         when(eventRequestManager.createBreakpointRequest(any())).then(invocation -> {
             BreakpointRequest request = mock(BreakpointRequest.class);
             when(request.location()).thenReturn((Location) invocation.getArguments()[0]);
+            Map<Object, Object> properties = new HashMap<>();
+            doAnswer(put -> properties.put(put.getArguments()[0], put.getArguments()[1]))
+                    .when(request).putProperty(any(), any());
+            when(request.getProperty(any())).then(get -> properties.get(get.getArguments()[0]));
+            breakpointRequests.add(request);
             events.add(new Event.CreateBreakpointRequestEvent(request));
             return request;
         });
@@ -85,6 +97,15 @@ public class MockVM {
         return vm;
     }
 
+    /**
+     * Returns the most recently created BreakpointRequest.
+     *
+     * @return the most recently created BreakpointRequest.
+     */
+    public BreakpointRequest getLastBreakpointRequest() {
+        return breakpointRequests.get(breakpointRequests.size() - 1);
+    }
+
     /**
      * Creates and returns a new mocked class with the given name and number of lines of code.
      * <p>
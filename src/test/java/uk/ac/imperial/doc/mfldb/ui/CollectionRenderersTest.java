@@ -0,0 +1,109 @@
+package uk.ac.imperial.doc.mfldb.ui;
+
+import com.google.common.collect.ImmutableMap;
+import com.sun.jdi.ArrayReference;
+import com.sun.jdi.IntegerValue;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.Value;
+import org.junit.Test;
+import uk.ac.imperial.doc.mfldb.ui.CollectionRenderer.Fetcher;
+import uk.ac.imperial.doc.mfldb.ui.CollectionRenderer.Rendering;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.mockito.Mockito.*;
+import static org.truth0.Truth.ASSERT;
+
+/**
+ * Tests for the {@link CollectionRenderers} class.
+ */
+public class CollectionRenderersTest {
+
+    private final CollectionRenderers renderers = CollectionRenderers.standard();
+
+    private final Fetcher fetcher = mock(Fetcher.class);
+
+    private static IntegerValue intValue(int value) {
+        IntegerValue integer = mock(IntegerValue.class);
+        when(integer.value()).thenReturn(value);
+        return integer;
+    }
+
+    private void givenFields(ObjectReference object, Map<String, Value> fields) {
+        when(fetcher.getValues(same(object), anyVararg())).thenReturn(fields);
+    }
+
+    @Test
+    public void arrayListFetchesOnlyFirstEntries() {
+        // Given
+        ObjectReference list = mock(ObjectReference.class);
+        ArrayReference elementData = mock(ArrayReference.class);
+        Value first = intValue(1);
+        givenFields(list, ImmutableMap.of("size", intValue(500), "elementData", elementData));
+        when(fetcher.getValues(elementData, 0, 20)).thenReturn(Arrays.asList(first));
+
+        // When
+        Rendering rendering = renderers.forClass("java.util.ArrayList").render(list, 20, fetcher);
+
+        // Then
+        ASSERT.that(rendering.size).is(500);
+        ASSERT.that(rendering.keys).isNull();
+        ASSERT.that(rendering.values).has().exactly(first);
+        verify(fetcher).getValues(elementData, 0, 20);
+    }
+
+    @Test
+    public void arrayDequeWrapsAroundEndOfArray() {
+        // Given
+        ObjectReference deque = mock(ObjectReference.class);
+        ArrayReference elements = mock(ArrayReference.class);
+        Value a = intValue(1), b = intValue(2), c = intValue(3);
+        givenFields(deque, ImmutableMap.of("elements", elements, "head", intValue(6), "tail", intValue(1)));
+        when(fetcher.length(elements)).thenReturn(8);
+        when(fetcher.getValues(elements, 6, 2)).thenReturn(Arrays.asList(a, b));
+        when(fetcher.getValues(elements, 0, 1)).thenReturn(Arrays.asList(c));
+
+        // When
+        Rendering rendering = renderers.forClass("java.util.ArrayDeque").render(deque, 20, fetcher);
+
+        // Then
+        ASSERT.that(rendering.size).is(3);
+        ASSERT.that(rendering.values).has().exactly(a, b, c).inOrder();
+    }
+
+    @Test
+    public void treeMapIsRenderedInOrder() {
+        // Given
+        ObjectReference map = mock(ObjectReference.class);
+        ObjectReference root = mock(ObjectReference.class);
+        ObjectReference left = mock(ObjectReference.class);
+        ObjectReference right = mock(ObjectReference.class);
+        Value k1 = intValue(1), k2 = intValue(2), k3 = intValue(3);
+        givenFields(map, ImmutableMap.of("size", intValue(3), "root", root));
+        givenFields(root, ImmutableMap.of("key", k2, "value", k2, "left", left, "right", right));
+        givenFields(left, ImmutableMap.of("key", k1, "value", k1));
+        givenFields(right, ImmutableMap.of("key", k3, "value", k3));
+
+        // When
+        Rendering rendering = renderers.forClass("java.util.TreeMap").render(map, 2, fetcher);
+
+        // Then
+        ASSERT.that(rendering.size).is(3);
+        ASSERT.that(rendering.keys).has().exactly(k1, k2).inOrder();
+        verify(fetcher, never()).getValues(same(right), anyVararg());
+    }
+
+    @Test
+    public void unexpectedLayoutIsNotRendered() {
+        // Given
+        ObjectReference list = mock(ObjectReference.class);
+        givenFields(list, ImmutableMap.of());
+
+        // When
+        Rendering rendering = renderers.forClass("java.util.ArrayList").render(list, 20, fetcher);
+
+        // Then
+        ASSERT.that(rendering).isNull();
+    }
+}
@@ -0,0 +1,124 @@
+package uk.ac.imperial.doc.mfldb.ui;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+import uk.ac.imperial.doc.mfldb.ui.HeapLayout.Position;
+import uk.ac.imperial.doc.mfldb.ui.StackAndHeapController.*;
+
+import static org.truth0.Truth.ASSERT;
+import static uk.ac.imperial.doc.mfldb.ui.TestHeaps.heap;
+
+/**
+ * Tests for the {@link HeapLayout} class.
+ */
+public class HeapLayoutTest {
+
+    private static VariableInfo reference(String name, String id) {
+        return new VariableInfo("Object", name, id, true);
+    }
+
+    private static HeapObjectInfo object(String id, VariableInfo... fields) {
+        return new HeapObjectInfo(id, "Object", fields, false);
+    }
+
+    private static SnapshotPatch patch(String[] removed, HeapObjectInfo... objects) {
+        HeapObjectPatch[] patches = new HeapObjectPatch[objects.length];
+        for (int i = 0; i < objects.length; i++) {
+            patches[i] = new HeapObjectPatch(objects[i], new String[0]);
+        }
+        return new SnapshotPatch(1, 0, new FramePatch[0], new int[0], patches, removed);
+    }
+
+    @Test
+    public void objectsAreLayeredByDistanceFromStack() {
+        // Given
+        HeapLayout layout = new HeapLayout();
+        HeapObjectInfo a = object("1", reference("next", "2"));
+        HeapObjectInfo b = object("2", reference("next", "3"));
+        HeapObjectInfo c = object("3");
+
+        // When
+        HeapLayout.Update update = layout.update(patch(new String[0], c, b, a), heap(c, b, a), ImmutableSet.of("1"));
+
+        // Then
+        ASSERT.that(update.positions.get("1").column).is(0);
+        ASSERT.that(update.positions.get("2").column).is(1);
+        ASSERT.that(update.positions.get("3").column).is(2);
+        ASSERT.that(update.columns).is(3);
+    }
+
+    @Test
+    public void existingObjectsKeepTheirPositions() {
+        // Given
+        HeapLayout layout = new HeapLayout();
+        HeapObjectInfo a = object("1");
+        HeapObjectInfo b = object("2");
+        Position before = layout.update(patch(new String[0], a, b), heap(a, b), ImmutableSet.of("1", "2"))
+                .positions.get("2");
+
+        // When
+        HeapObjectInfo c = object("3", reference("b", "2"));
+        HeapLayout.Update update = layout.update(patch(new String[]{"1"}, c), heap(b, c), ImmutableSet.of("3"));
+
+        // Then
+        ASSERT.that(update.positions.containsKey("2")).isFalse();
+        ASSERT.that(update.positions.get("3").column).is(0);
+        ASSERT.that(update.positions.get("3").y).isNotEqualTo(before.y);
+        ASSERT.that(layout.update(patch(new String[0], b), heap(b, c), ImmutableSet.of("3")).positions.get("2").y)
+                .is(before.y);
+    }
+
+    @Test
+    public void removedObjectsLeaveGapsForNewOnes() {
+        // Given
+        HeapLayout layout = new HeapLayout();
+        HeapObjectInfo a = object("1");
+        HeapObjectInfo b = object("2");
+        Position first = layout.update(patch(new String[0], a, b), heap(a, b), ImmutableSet.of("1", "2"))
+                .positions.get("1");
+
+        // When
+        HeapObjectInfo c = object("3");
+        HeapLayout.Update update = layout.update(patch(new String[]{"1"}, c), heap(b, c), ImmutableSet.of("2", "3"));
+
+        // Then
+        ASSERT.that(update.positions.get("3").y).is(first.y);
+    }
+
+    @Test
+    public void growingObjectMovesThoseBelowIt() {
+        // Given
+        HeapLayout layout = new HeapLayout();
+        HeapObjectInfo a = object("1");
+        HeapObjectInfo b = object("2");
+        Position below = layout.update(patch(new String[0], a, b), heap(a, b), ImmutableSet.of("1", "2"))
+                .positions.get("2");
+
+        // When
+        HeapObjectInfo grown = object("1", reference("x", "null"), reference("y", "null"));
+        HeapLayout.Update update = layout.update(patch(new String[0], grown), heap(grown, b), ImmutableSet.of("1", "2"));
+
+        // Then
+        ASSERT.that(update.positions.get("2").y).is(below.y + 2 * Const.HEAP_OBJECT_ROW_HEIGHT);
+    }
+
+    @Test
+    public void clearedLayoutPlacesObjectsAfresh() {
+        // Given
+        HeapLayout layout = new HeapLayout();
+        HeapObjectInfo a = object("1", reference("next", "2"));
+        HeapObjectInfo b = object("2");
+        Position first = layout.update(patch(new String[0], a, b), heap(a, b), ImmutableSet.of("1"))
+                .positions.get("1");
+
+        // When
+        layout.clear();
+        HeapObjectInfo c = object("2");
+        HeapLayout.Update update = layout.update(patch(new String[0], c), heap(c), ImmutableSet.of("2"));
+
+        // Then
+        ASSERT.that(update.positions.get("2").column).is(0);
+        ASSERT.that(update.positions.get("2").y).is(first.y);
+        ASSERT.that(update.columns).is(1);
+    }
+}
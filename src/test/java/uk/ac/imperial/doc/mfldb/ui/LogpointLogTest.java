@@ -0,0 +1,96 @@
+package uk.ac.imperial.doc.mfldb.ui;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.ac.imperial.doc.mfldb.bridge.BreakpointSpec;
+import uk.ac.imperial.doc.mfldb.bridge.LogpointHit;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.truth0.Truth.ASSERT;
+
+/**
+ * Tests for the {@link LogpointLog} class.
+ */
+public class LogpointLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<Runnable> fxQueue = new ArrayList<>();
+
+    private final List<String> lines = new ArrayList<>();
+
+    private final BreakpointSpec spec = new BreakpointSpec("foo.Bar", 12, ImmutableList.of("i", "name"));
+
+    private LogpointHit hit(int i) {
+        return new LogpointHit(spec, "main", 0, ImmutableMap.of("i", Integer.toString(i), "name", "\"x\""));
+    }
+
+    private void runFxQueue() {
+        List<Runnable> queued = new ArrayList<>(fxQueue);
+        fxQueue.clear();
+        queued.forEach(Runnable::run);
+    }
+
+    @Test
+    public void hitsAreShownInOneBatch() throws IOException {
+        // Given
+        LogpointLog log = new LogpointLog(lines, 10, null, fxQueue::add);
+
+        // When
+        log.log(hit(1));
+        log.log(hit(2));
+        runFxQueue();
+
+        // Then
+        ASSERT.that(lines.size()).is(2);
+        ASSERT.that(lines.get(1)).contains("foo.Bar:12 i=2, name=\"x\"");
+    }
+
+    @Test
+    public void onlyLatestLinesAreKept() throws IOException {
+        // Given
+        LogpointLog log = new LogpointLog(lines, 10, null, fxQueue::add);
+        for (int i = 0; i < 8; i++) {
+            log.log(hit(i));
+        }
+        runFxQueue();
+
+        // When
+        for (int i = 8; i < 25; i++) {
+            log.log(hit(i));
+        }
+        runFxQueue();
+
+        // Then
+        ASSERT.that(lines.size()).is(10);
+        ASSERT.that(lines.get(0)).contains("i=15,");
+        ASSERT.that(lines.get(9)).contains("i=24,");
+    }
+
+    @Test
+    public void everyHitIsWrittenToFile() throws IOException {
+        // Given
+        Path file = folder.getRoot().toPath().resolve("logpoints.log");
+        LogpointLog log = new LogpointLog(lines, 1, file, fxQueue::add);
+
+        // When
+        for (int i = 0; i < 5; i++) {
+            log.log(hit(i));
+        }
+        log.close();
+
+        // Then
+        List<String> written = Files.readAllLines(file);
+        ASSERT.that(written.size()).is(5);
+        ASSERT.that(written.get(4)).contains("i=4,");
+    }
+}
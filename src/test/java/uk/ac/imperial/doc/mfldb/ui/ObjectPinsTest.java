@@ -0,0 +1,86 @@
+package uk.ac.imperial.doc.mfldb.ui;
+
+import com.google.common.collect.ImmutableList;
+import com.sun.jdi.ObjectReference;
+import org.junit.Test;
+
+import static org.mockito.Mockito.*;
+import static org.truth0.Truth.ASSERT;
+
+/**
+ * Tests for the {@link ObjectPins} class.
+ */
+public class ObjectPinsTest {
+
+    @Test
+    public void objectsAreOnlyPinnedOnce() {
+        // Given
+        ObjectPins pins = new ObjectPins(10, 1, 1);
+        ObjectReference object = mock(ObjectReference.class);
+
+        // When
+        pins.retain(ImmutableList.of(object));
+        pins.nextSuspension();
+        pins.retain(ImmutableList.of(object));
+
+        // Then
+        verify(object, times(1)).disableCollection();
+        verify(object, never()).enableCollection();
+    }
+
+    @Test
+    public void objectsOutOfViewAreReleasedInBatchesAfterHorizon() {
+        // Given
+        ObjectPins pins = new ObjectPins(10, 1, 2);
+        ObjectReference a = mock(ObjectReference.class);
+        ObjectReference b = mock(ObjectReference.class);
+        ObjectReference c = mock(ObjectReference.class);
+        pins.retain(ImmutableList.of(a, b, c));
+
+        // When
+        pins.nextSuspension();
+        pins.retain(ImmutableList.of(c));
+        pins.nextSuspension();
+        pins.retain(ImmutableList.of(c));
+
+        // Then
+        verify(a).enableCollection();
+        verify(b).enableCollection();
+        verify(c, never()).enableCollection();
+        ASSERT.that(pins.size()).is(1);
+    }
+
+    @Test
+    public void objectShownAgainBeforeReleaseStaysPinned() {
+        // Given
+        ObjectPins pins = new ObjectPins(10, 0, 2);
+        ObjectReference object = mock(ObjectReference.class);
+        pins.retain(ImmutableList.of(object));
+        pins.nextSuspension();
+        pins.retain(ImmutableList.of());
+
+        // When
+        pins.nextSuspension();
+        pins.retain(ImmutableList.of(object));
+        pins.releaseAll();
+
+        // Then
+        verify(object, times(1)).disableCollection();
+        verify(object, times(1)).enableCollection();
+    }
+
+    @Test
+    public void pinningStopsAtMaximum() {
+        // Given
+        ObjectPins pins = new ObjectPins(1, 1, 1);
+        ObjectReference a = mock(ObjectReference.class);
+        ObjectReference b = mock(ObjectReference.class);
+
+        // When
+        pins.retain(ImmutableList.of(a, b));
+
+        // Then
+        verify(a).disableCollection();
+        verify(b, never()).disableCollection();
+    }
+}
@@ -0,0 +1,52 @@
+package uk.ac.imperial.doc.mfldb.ui;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.sun.jdi.Field;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.Value;
+import org.junit.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.truth0.Truth.ASSERT;
+
+/**
+ * Tests for the {@link PrefetchedValues} class.
+ */
+public class PrefetchedValuesTest {
+
+    private final PrefetchedValues prefetchedValues = new PrefetchedValues();
+
+    private final ObjectReference object = mock(ObjectReference.class);
+
+    private final Field a = mock(Field.class);
+
+    private final Field b = mock(Field.class);
+
+    @Test
+    public void valuesAreOnlyReturnedIfAllFieldsWerePrefetched() {
+        // Given
+        prefetchedValues.put(prefetchedValues.generation(), object, ImmutableMap.of(a, mock(Value.class)));
+
+        // When
+        boolean hasA = prefetchedValues.get(object, ImmutableList.of(a)) != null;
+        boolean hasBoth = prefetchedValues.get(object, ImmutableList.of(a, b)) != null;
+
+        // Then
+        ASSERT.that(hasA).isTrue();
+        ASSERT.that(hasBoth).isFalse();
+    }
+
+    @Test
+    public void valuesFetchedBeforeInvalidationAreDiscarded() {
+        // Given
+        int generation = prefetchedValues.generation();
+        prefetchedValues.invalidate();
+
+        // When
+        prefetchedValues.put(generation, object, ImmutableMap.of(a, mock(Value.class)));
+
+        // Then
+        ASSERT.that(prefetchedValues.contains(object)).isFalse();
+    }
+}
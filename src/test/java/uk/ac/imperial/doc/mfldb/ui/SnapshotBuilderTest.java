@@ -0,0 +1,407 @@
+package uk.ac.imperial.doc.mfldb.ui;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.sun.jdi.*;
+import org.junit.Test;
+import uk.ac.imperial.doc.mfldb.bridge.ImmutableValueCache;
+import uk.ac.imperial.doc.mfldb.bridge.ReferenceTypeCache;
+import uk.ac.imperial.doc.mfldb.ui.StackAndHeapController.HeapObjectInfo;
+import uk.ac.imperial.doc.mfldb.ui.StackAndHeapController.VariableInfo;
+
+import java.util.*;
+import java.util.concurrent.CancellationException;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.*;
+import static org.truth0.Truth.ASSERT;
+
+/**
+ * Tests for the {@link SnapshotBuilder} class, against mocked JDI objects.
+ */
+public class SnapshotBuilderTest {
+
+    private final ReferenceTypeCache typeCache = new ReferenceTypeCache();
+
+    private final ImmutableValueCache valueCache = new ImmutableValueCache();
+
+    private final ObjectPins pins = new ObjectPins(1000, 1, 1);
+
+    private final CollectionRenderers renderers = CollectionRenderers.standard();
+
+    private final VirtualMachine vm = mock(VirtualMachine.class);
+
+    private long nextId = 1;
+
+    private SnapshotBuilder builder() {
+        return builder(TraversalBudget.DEFAULT);
+    }
+
+    private SnapshotBuilder builder(TraversalBudget budget) {
+        return new SnapshotBuilder(budget, typeCache, valueCache, new PrefetchedValues(), pins,
+                new HashMap<>(), new HashSet<>(), renderers, TraversalRules.DEFAULT,
+                MoreExecutors.sameThreadExecutor());
+    }
+
+    private static Field field(ReferenceType declaringType, String name, String typeName) {
+        Field field = mock(Field.class);
+        when(field.name()).thenReturn(name);
+        when(field.typeName()).thenReturn(typeName);
+        when(field.declaringType()).thenReturn(declaringType);
+        return field;
+    }
+
+    private static ByteValue byteValue(int value) {
+        ByteValue b = mock(ByteValue.class);
+        when(b.value()).thenReturn((byte) value);
+        return b;
+    }
+
+    private static IntegerValue intValue(int value) {
+        IntegerValue integer = mock(IntegerValue.class);
+        when(integer.value()).thenReturn(value);
+        return integer;
+    }
+
+    /**
+     * Mocks a compact UTF16 string held in a byte[] in the given byte order, along with the target's StringUTF16 class
+     * which says which order that is.
+     */
+    private StringReference utf16String(String text, boolean highByteFirst) {
+        ClassType stringType = mock(ClassType.class);
+        when(stringType.name()).thenReturn("java.lang.String");
+        Field value = field(stringType, "value", "byte[]");
+        Field coder = field(stringType, "coder", "byte");
+        when(stringType.visibleFields()).thenReturn(Arrays.asList(value, coder));
+
+        ArrayType byteArrayType = mock(ArrayType.class);
+        when(byteArrayType.name()).thenReturn("byte[]");
+        when(byteArrayType.componentSignature()).thenReturn("B");
+        ArrayReference array = mock(ArrayReference.class);
+        when(array.referenceType()).thenReturn(byteArrayType);
+        when(array.length()).thenReturn(2 * text.length());
+        when(array.getValues(anyInt(), anyInt())).then(invocation -> {
+            int index = (Integer) invocation.getArguments()[0];
+            int length = (Integer) invocation.getArguments()[1];
+            List<Value> bytes = new ArrayList<>();
+            for (int i = index / 2; i < (index + length) / 2; i++) {
+                char c = text.charAt(i);
+                bytes.add(byteValue(highByteFirst ? c >> 8 : c));
+                bytes.add(byteValue(highByteFirst ? c : c >> 8));
+            }
+            return bytes;
+        });
+
+        StringReference string = mock(StringReference.class);
+        when(string.uniqueID()).thenReturn(nextId++);
+        when(string.referenceType()).thenReturn(stringType);
+        when(string.virtualMachine()).thenReturn(vm);
+        Map<Field, Value> values = new HashMap<>();
+        values.put(value, array);
+        values.put(coder, byteValue(1));
+        when(string.getValues(anyListOf(Field.class))).thenReturn(values);
+        when(string.value()).thenReturn(text);
+
+        ClassType utf16Type = mock(ClassType.class);
+        Field shift = field(utf16Type, "HI_BYTE_SHIFT", "int");
+        when(shift.isStatic()).thenReturn(true);
+        when(utf16Type.fieldByName("HI_BYTE_SHIFT")).thenReturn(shift);
+        IntegerValue shiftValue = intValue(highByteFirst ? 8 : 0);
+        when(utf16Type.getValue(shift)).thenReturn(shiftValue);
+        when(vm.classesByName("java.lang.StringUTF16")).thenReturn(Collections.singletonList(utf16Type));
+        return string;
+    }
+
+    /**
+     * Mocks a singly linked list of nodes, each with an int value and a link to the next, returning its nodes in order.
+     */
+    private List<ObjectReference> linkedList(int length) {
+        ClassType nodeType = mock(ClassType.class);
+        when(nodeType.name()).thenReturn("Node");
+        Field value = field(nodeType, "value", "int");
+        Field next = field(nodeType, "next", "Node");
+        when(nodeType.visibleFields()).thenReturn(Arrays.asList(value, next));
+
+        List<ObjectReference> nodes = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            ObjectReference node = mock(ObjectReference.class);
+            when(node.uniqueID()).thenReturn(nextId++);
+            when(node.referenceType()).thenReturn(nodeType);
+            nodes.add(node);
+        }
+        for (int i = 0; i < length; i++) {
+            ObjectReference node = nodes.get(i);
+            ObjectReference nextNode = i + 1 < length ? nodes.get(i + 1) : null;
+            Map<Field, Value> values = new HashMap<>();
+            values.put(value, intValue(i));
+            values.put(next, nextNode);
+            when(node.getValues(anyListOf(Field.class))).thenReturn(values);
+            when(node.getValue(next)).thenReturn(nextNode);
+        }
+        return nodes;
+    }
+
+    private static HeapObjectInfo shown(SnapshotBuilder builder, ObjectReference reference) {
+        String id = Long.toString(reference.uniqueID());
+        for (HeapObjectInfo info : builder.getHeap()) {
+            if (info.id.equals(id)) {
+                return info;
+            }
+        }
+        return null;
+    }
+
+    private static String field(HeapObjectInfo info, String name) {
+        for (VariableInfo variable : info.fields) {
+            if (variable.name.equals(name)) {
+                return variable.value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Mocks a string which has already been cached, so is shown without being fetched.
+     */
+    private StringReference cachedString(String text) {
+        ClassType stringType = mock(ClassType.class);
+        when(stringType.name()).thenReturn("java.lang.String");
+        StringReference string = mock(StringReference.class);
+        when(string.uniqueID()).thenReturn(nextId++);
+        when(string.referenceType()).thenReturn(stringType);
+        valueCache.put(string, text);
+        return string;
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(text);
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void utf16StringsAreDecodedInTheTargetsByteOrder() {
+        // Given
+        String text = repeat("€üx", 500);
+        StringReference bigEndian = utf16String(text, true);
+
+        // When
+        SnapshotBuilder builder = builder();
+        builder.expand(bigEndian, Collections.emptyList());
+
+        // Then
+        HeapObjectInfo shown = builder.getHeap()[0];
+        ASSERT.that(shown.length).is(text.length());
+        ASSERT.that(shown.fields[0].value).isEqualTo(text.substring(0, Const.STRING_WINDOW_SIZE));
+        verify(bigEndian, never()).value();
+    }
+
+    @Test
+    public void longStringLayoutIsOnlyFetchedOnce() {
+        // Given
+        String text = repeat("€", 2000);
+        StringReference string = utf16String(text, false);
+        builder().expand(string, Collections.emptyList());
+
+        // When
+        SnapshotBuilder builder = builder();
+        builder.expand(string, Collections.emptyList());
+
+        // Then
+        ASSERT.that(builder.getHeap()[0].fields[0].value).isEqualTo(text.substring(0, Const.STRING_WINDOW_SIZE));
+        verify(string, times(1)).getValues(anyListOf(Field.class));
+        ASSERT.that(builder.getStats().totalRoundTrips()).is(1);
+    }
+
+    @Test
+    public void longChainsAreCollapsed() {
+        // Given
+        List<ObjectReference> nodes = linkedList(50);
+
+        // When
+        SnapshotBuilder builder = builder();
+        builder.expand(nodes.get(0), Collections.emptyList());
+
+        // Then
+        HeapObjectInfo chain = shown(builder, nodes.get(1));
+        ASSERT.that(field(chain, "length")).isEqualTo("49");
+        ASSERT.that(builder.getHeap().length).is(2);
+        ASSERT.that(builder.getStats().collapsed).is(49 - 2 * Const.CHAIN_ENDS);
+    }
+
+    @Test
+    public void chainNodeTypeLookupsAreCounted() {
+        // Given
+        List<ObjectReference> nodes = linkedList(50);
+        Set<ObjectReference> typed = new HashSet<>();
+        for (ObjectReference node : nodes) {
+            ReferenceType type = node.referenceType();
+            when(node.referenceType()).then(invocation -> {
+                typed.add(node);
+                return type;
+            });
+        }
+
+        // When
+        SnapshotBuilder builder = builder();
+        builder.expand(nodes.get(0), Collections.emptyList());
+
+        // Then
+        ASSERT.that(typed.size()).is(50);
+        ASSERT.that(builder.getStats().metadataRoundTrips >= typed.size()).isTrue();
+    }
+
+    @Test
+    public void shortChainsAreNotCollapsed() {
+        // Given
+        List<ObjectReference> nodes = linkedList(Const.CHAIN_MIN_LENGTH);
+        TraversalBudget budget = new TraversalBudget(Const.CHAIN_MIN_LENGTH, Const.DEFAULT_TRAVERSAL_MAX_OBJECTS,
+                Const.DEFAULT_TRAVERSAL_MAX_BYTES);
+
+        // When
+        SnapshotBuilder builder = builder(budget);
+        builder.expand(nodes.get(0), Collections.emptyList());
+
+        // Then
+        ASSERT.that(builder.getHeap().length).is(Const.CHAIN_MIN_LENGTH);
+        ASSERT.that(builder.getStats().collapsed).is(0);
+    }
+
+    @Test
+    public void chainWalkIsTruncatedByTheObjectBudget() {
+        // Given
+        List<ObjectReference> nodes = linkedList(100);
+        TraversalBudget budget = new TraversalBudget(Const.DEFAULT_TRAVERSAL_MAX_DEPTH, 30,
+                Const.DEFAULT_TRAVERSAL_MAX_BYTES);
+
+        // When
+        SnapshotBuilder builder = builder(budget);
+        builder.expand(nodes.get(0), Collections.emptyList());
+
+        // Then
+        // The list's head and the 29 nodes walked use up the budget, so the rest of the list is a stub.
+        ASSERT.that(field(shown(builder, nodes.get(1)), "length")).isEqualTo("29+");
+        ASSERT.that(shown(builder, nodes.get(30)).stub).isTrue();
+        verify(nodes.get(30), never()).getValue(any(Field.class));
+        verify(nodes.get(31), never()).getValue(any(Field.class));
+    }
+
+    @Test
+    public void chainWalkStopsAtObjectsAlreadyReached() {
+        // Given
+        List<ObjectReference> nodes = linkedList(50);
+        Collection<ObjectReference> resolved = Collections.singletonList(nodes.get(20));
+
+        // When
+        SnapshotBuilder builder = builder();
+        builder.expand(nodes.get(0), resolved);
+
+        // Then
+        ASSERT.that(field(shown(builder, nodes.get(1)), "length")).isEqualTo("19");
+        ASSERT.that(shown(builder, nodes.get(20))).isNull();
+        verify(nodes.get(20), never()).getValue(any(Field.class));
+    }
+
+    @Test(expected = CancellationException.class)
+    public void cancelledBuilderFetchesNothing() {
+        // Given
+        List<ObjectReference> nodes = linkedList(2);
+        SnapshotBuilder builder = builder();
+
+        // When
+        builder.cancel();
+        try {
+            builder.expand(nodes.get(0), Collections.emptyList());
+        } finally {
+            // Then
+            verify(nodes.get(0), never()).getValues(anyListOf(Field.class));
+        }
+    }
+
+    @Test
+    public void cancellingStopsChainWalk() {
+        // Given
+        List<ObjectReference> nodes = linkedList(50);
+        SnapshotBuilder builder = builder();
+        Field next = ((ClassType) nodes.get(0).referenceType()).visibleFields().get(1);
+        when(nodes.get(5).getValue(next)).then(invocation -> {
+            builder.cancel();
+            return nodes.get(6);
+        });
+
+        // When
+        try {
+            builder.expand(nodes.get(0), Collections.emptyList());
+            ASSERT.fail("Expected the snapshot to be cancelled");
+        } catch (CancellationException e) {
+            // Then
+            verify(nodes.get(6), never()).getValue(next);
+        }
+    }
+
+    @Test
+    public void objectsArePinnedAsTheyreReached() {
+        // Given
+        List<ObjectReference> nodes = linkedList(3);
+
+        // When
+        builder().expand(nodes.get(0), Collections.emptyList());
+
+        // Then
+        for (ObjectReference node : nodes) {
+            verify(node).disableCollection();
+        }
+        ASSERT.that(pins.size()).is(3);
+    }
+
+    @Test
+    public void objectsPinnedByFailedSnapshotAreReleased() {
+        // Given
+        List<ObjectReference> nodes = linkedList(3);
+        pins.pin(nodes.get(0));
+        when(nodes.get(1).getValues(anyListOf(Field.class))).thenThrow(new VMDisconnectedException());
+
+        // When
+        try {
+            builder().expand(nodes.get(0), Collections.emptyList());
+            ASSERT.fail("Expected the snapshot to fail");
+        } catch (VMDisconnectedException e) {
+            // Then
+            verify(nodes.get(1)).enableCollection();
+            verify(nodes.get(0), never()).enableCollection();
+            ASSERT.that(pins.size()).is(1);
+        }
+    }
+
+    @Test
+    public void mapEntriesAreNamedByIndexNotByKey() {
+        // Given
+        ClassType mapType = mock(ClassType.class);
+        when(mapType.name()).thenReturn("Dict");
+        ObjectReference map = mock(ObjectReference.class);
+        when(map.uniqueID()).thenReturn(nextId++);
+        when(map.referenceType()).thenReturn(mapType);
+        List<Value> keys = Arrays.asList(cachedString("size"), cachedString("1"), cachedString("1"));
+        List<Value> values = Arrays.asList(cachedString("a"), cachedString("b"), cachedString("c"));
+        renderers.register("Dict", (collection, maxEntries, fetcher) ->
+                CollectionRenderer.Rendering.ofEntries(3, keys, values));
+
+        // When
+        SnapshotBuilder builder = builder();
+        builder.expand(map, Collections.emptyList());
+
+        // Then
+        HeapObjectInfo shown = shown(builder, map);
+        List<String> names = new ArrayList<>();
+        for (VariableInfo variable : shown.fields) {
+            names.add(variable.name);
+        }
+        ASSERT.that(names).has().exactly("size", "[0].key", "[0].value", "[1].key", "[1].value", "[2].key",
+                "[2].value").inOrder();
+        ASSERT.that(field(shown, "size")).is("3");
+        ASSERT.that(field(shown, "[0].key")).is("size");
+        ASSERT.that(field(shown, "[2].value")).is("c");
+    }
+}
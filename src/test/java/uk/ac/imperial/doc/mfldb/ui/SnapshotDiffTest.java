@@ -0,0 +1,129 @@
+package uk.ac.imperial.doc.mfldb.ui;
+
+import org.junit.Test;
+import uk.ac.imperial.doc.mfldb.ui.StackAndHeapController.*;
+
+import java.util.Map;
+
+import static org.truth0.Truth.ASSERT;
+import static uk.ac.imperial.doc.mfldb.ui.TestHeaps.heap;
+
+/**
+ * Tests for the {@link SnapshotDiff} class.
+ */
+public class SnapshotDiffTest {
+
+    private static VariableInfo value(String name, String value) {
+        return new VariableInfo("int", name, value, false);
+    }
+
+    private static VariableInfo reference(String name, String id) {
+        return new VariableInfo("Object", name, id, true);
+    }
+
+    @Test
+    public void identicalSnapshotsProduceEmptyPatch() {
+        // Given
+        FrameInfo[] stack = {new FrameInfo("main", new VariableInfo[]{value("i", "0"), reference("o", "1")})};
+        Map<String, HeapObjectInfo> heap = heap(new HeapObjectInfo("1", "Object", new VariableInfo[0], false));
+
+        // When
+        SnapshotPatch patch = SnapshotDiff.between(stack, heap, stack, heap);
+
+        // Then
+        ASSERT.that(patch.stackSize).is(1);
+        ASSERT.that(patch.frames.length).is(0);
+        ASSERT.that(patch.objects.length).is(0);
+        ASSERT.that(patch.removed.length).is(0);
+    }
+
+    @Test
+    public void changedLocalIsReported() {
+        // Given
+        FrameInfo[] before = {new FrameInfo("main", new VariableInfo[]{value("i", "0"), value("j", "5")})};
+        FrameInfo[] after = {new FrameInfo("main", new VariableInfo[]{value("i", "1"), value("j", "5")})};
+
+        // When
+        SnapshotPatch patch = SnapshotDiff.between(before, heap(), after, heap());
+
+        // Then
+        ASSERT.that(patch.frames.length).is(1);
+        ASSERT.that(patch.frames[0].index).is(0);
+        ASSERT.that(patch.frames[0].changed).isEqualTo(new String[]{"i"});
+    }
+
+    @Test
+    public void pushedAndPoppedFramesAreReported() {
+        // Given
+        FrameInfo main = new FrameInfo("main", new VariableInfo[0]);
+        FrameInfo callee = new FrameInfo("callee", new VariableInfo[0]);
+
+        // When
+        SnapshotPatch pushed = SnapshotDiff.between(new FrameInfo[]{main}, heap(), new FrameInfo[]{main, callee}, heap());
+        SnapshotPatch popped = SnapshotDiff.between(new FrameInfo[]{main, callee}, heap(), new FrameInfo[]{main}, heap());
+
+        // Then
+        ASSERT.that(pushed.stackSize).is(2);
+        ASSERT.that(pushed.frames.length).is(1);
+        ASSERT.that(pushed.frames[0].index).is(1);
+        ASSERT.that(popped.stackSize).is(1);
+        ASSERT.that(popped.frames.length).is(0);
+        ASSERT.that(popped.removedFrames).isEqualTo(new int[]{1});
+    }
+
+    @Test
+    public void framesAreMatchedFromBottomOfWholeStack() {
+        // Given
+        FrameInfo parse = new FrameInfo("parse", new VariableInfo[]{value("i", "0")});
+        FrameInfo recursion = new FrameInfo("parse", null, 100);
+        FrameInfo[] before = {parse, recursion, parse};
+        FrameInfo[] after = {parse, recursion, parse, new FrameInfo("parse", new VariableInfo[]{value("i", "1")})};
+
+        // When
+        SnapshotPatch patch = SnapshotDiff.between(before, 5000, heap(), after, 5000, heap());
+
+        // Then
+        ASSERT.that(patch.stackSize).is(5103);
+        ASSERT.that(patch.hiddenFrames).is(5000);
+        ASSERT.that(patch.frames.length).is(1);
+        ASSERT.that(patch.frames[0].index).is(5102);
+        ASSERT.that(patch.removedFrames.length).is(0);
+    }
+
+    @Test
+    public void heapObjectsAreAddedChangedAndRemovedById() {
+        // Given
+        HeapObjectInfo unchanged = new HeapObjectInfo("1", "A", new VariableInfo[]{value("x", "1")}, false);
+        HeapObjectInfo before = new HeapObjectInfo("2", "A", new VariableInfo[]{value("x", "1")}, false);
+        HeapObjectInfo after = new HeapObjectInfo("2", "A", new VariableInfo[]{value("x", "2")}, false);
+        HeapObjectInfo removed = new HeapObjectInfo("3", "A", new VariableInfo[0], false);
+        HeapObjectInfo added = new HeapObjectInfo("4", "A", new VariableInfo[0], false);
+
+        // When
+        SnapshotPatch patch = SnapshotDiff.between(new FrameInfo[0], heap(unchanged, before, removed),
+                new FrameInfo[0], heap(unchanged, after, added));
+
+        // Then
+        ASSERT.that(patch.objects.length).is(2);
+        ASSERT.that(patch.objects[0].object).isEqualTo(after);
+        ASSERT.that(patch.objects[0].changed).isEqualTo(new String[]{"x"});
+        ASSERT.that(patch.objects[1].object).isEqualTo(added);
+        ASSERT.that(patch.objects[1].changed.length).is(0);
+        ASSERT.that(patch.removed).isEqualTo(new String[]{"3"});
+    }
+
+    @Test
+    public void expandedStubIsReplacedWithoutHighlighting() {
+        // Given
+        HeapObjectInfo stub = new HeapObjectInfo("1", "A", new VariableInfo[0], true);
+        HeapObjectInfo expanded = new HeapObjectInfo("1", "A", new VariableInfo[]{value("x", "1")}, false);
+
+        // When
+        SnapshotPatch patch = SnapshotDiff.between(new FrameInfo[0], heap(stub), new FrameInfo[0], heap(expanded));
+
+        // Then
+        ASSERT.that(patch.objects.length).is(1);
+        ASSERT.that(patch.objects[0].object).isEqualTo(expanded);
+        ASSERT.that(patch.objects[0].changed.length).is(0);
+    }
+}
@@ -0,0 +1,162 @@
+package uk.ac.imperial.doc.mfldb.ui;
+
+import org.junit.Test;
+import uk.ac.imperial.doc.mfldb.ui.StackAndHeapController.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.truth0.Truth.ASSERT;
+import static uk.ac.imperial.doc.mfldb.ui.TestHeaps.heap;
+
+/**
+ * Tests for the {@link SnapshotHistory} class.
+ */
+public class SnapshotHistoryTest {
+
+    private static final FrameInfo[] STACK = {new FrameInfo("main", new VariableInfo[0])};
+
+    private static HeapObjectInfo object(String id, String value) {
+        return new HeapObjectInfo(id, "Object", new VariableInfo[]{new VariableInfo("int", "x", value, false)}, false);
+    }
+
+    @Test
+    public void earlierStepsAreReconstructed() {
+        // Given
+        SnapshotHistory history = new SnapshotHistory(10, Long.MAX_VALUE);
+        history.record(STACK, 0, heap(object("1", "1"), object("2", "1")));
+        history.record(STACK, 0, heap(object("1", "2"), object("3", "1")));
+
+        // When
+        SnapshotHistory.Snapshot first = history.get(0);
+
+        // Then
+        ASSERT.that(first.heap.keySet()).has().exactly("1", "2");
+        ASSERT.that(first.heap.get("1").fields[0].value).is("1");
+        ASSERT.that(history.get(1).heap.keySet()).has().exactly("1", "3");
+    }
+
+    @Test
+    public void unchangedObjectsAreShared() {
+        // Given
+        SnapshotHistory history = new SnapshotHistory(10, Long.MAX_VALUE);
+        history.record(STACK, 0, heap(object("1", "1"), object("2", "1")));
+        long oneStep = history.estimatedBytes();
+
+        // When
+        history.record(STACK, 0, heap(object("1", "1"), object("2", "2")));
+
+        // Then
+        ASSERT.that(history.get(0).heap.get("1") == history.get(1).heap.get("1")).isTrue();
+        ASSERT.that(history.get(0).stack[0] == history.get(1).stack[0]).isTrue();
+        ASSERT.that(history.estimatedBytes() - oneStep < oneStep).isTrue();
+    }
+
+    @Test
+    public void oldestStepsAreEvicted() {
+        // Given
+        SnapshotHistory history = new SnapshotHistory(2, Long.MAX_VALUE);
+
+        // When
+        history.record(STACK, 0, heap(object("1", "1")));
+        history.record(STACK, 0, heap(object("1", "2")));
+        history.record(STACK, 0, heap(object("1", "3")));
+
+        // Then
+        ASSERT.that(history.size()).is(2);
+        ASSERT.that(history.get(0).heap.get("1").fields[0].value).is("2");
+    }
+
+    @Test
+    public void replacingLatestStepKeepsEarlierSteps() {
+        // Given
+        SnapshotHistory history = new SnapshotHistory(10, Long.MAX_VALUE);
+        history.record(STACK, 0, heap(object("1", "1")));
+        history.record(STACK, 0, heap(object("1", "2")));
+
+        // When
+        history.replaceLatest(STACK, 0, heap(object("1", "2"), object("2", "1")));
+
+        // Then
+        ASSERT.that(history.size()).is(2);
+        ASSERT.that(history.get(0).heap.keySet()).has().exactly("1");
+        ASSERT.that(history.get(0).heap.get("1").fields[0].value).is("1");
+        ASSERT.that(history.get(1).heap.keySet()).has().exactly("1", "2");
+    }
+
+    @Test
+    public void earlierStepsKeepTheirOrder() {
+        // Given
+        SnapshotHistory history = new SnapshotHistory(10, Long.MAX_VALUE);
+        history.record(STACK, 0, heap(object("1", "1"), object("2", "1"), object("3", "1"), object("4", "1")));
+        history.record(STACK, 0, heap(object("5", "1"), object("1", "2"), object("3", "1")));
+        history.record(STACK, 0, heap(object("3", "1"), object("1", "2")));
+
+        // When
+        SnapshotHistory.Snapshot first = history.get(0);
+        SnapshotHistory.Snapshot second = history.get(1);
+
+        // Then
+        ASSERT.that(first.heap.keySet()).has().exactly("1", "2", "3", "4").inOrder();
+        ASSERT.that(first.heap.get("1").fields[0].value).is("1");
+        ASSERT.that(second.heap.keySet()).has().exactly("5", "1", "3").inOrder();
+    }
+
+    @Test
+    public void stepsAreTheSameWhicheverOrderTheyreReconstructedIn() {
+        // Given
+        SnapshotHistory history = new SnapshotHistory(50, Long.MAX_VALUE);
+        List<Map<String, HeapObjectInfo>> recorded = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            Map<String, HeapObjectInfo> heap = heap(object("a", Integer.toString(i / 3)), object("b" + i % 7, "b"),
+                    object("c", Integer.toString(i)));
+            recorded.add(heap);
+            history.record(STACK, 0, heap);
+        }
+
+        // When
+        int[] steps = {0, 1, 30, 2, 31, 15, 48, 0, 17, 49, 16, 33, 32};
+
+        // Then
+        for (int step : steps) {
+            Map<String, HeapObjectInfo> expected = recorded.get(step + 10);
+            Map<String, HeapObjectInfo> actual = history.get(step).heap;
+            ASSERT.that(actual.keySet()).has().exactlyAs(expected.keySet()).inOrder();
+            for (String id : expected.keySet()) {
+                ASSERT.that(actual.get(id).fields[0].value).is(expected.get(id).fields[0].value);
+            }
+        }
+    }
+
+    @Test
+    public void reconstructedStepsStayWithinTheBudget() {
+        // Given
+        SnapshotHistory unbounded = new SnapshotHistory(100, Long.MAX_VALUE);
+        List<Map<String, HeapObjectInfo>> recorded = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            Map<String, HeapObjectInfo> heap = heap(object("a", Integer.toString(i)), object("b", "b"),
+                    object("c" + i % 5, "c"));
+            recorded.add(heap);
+            unbounded.record(STACK, 0, heap);
+        }
+        long maxBytes = unbounded.estimatedBytes() + 500;
+        SnapshotHistory history = new SnapshotHistory(100, maxBytes);
+        recorded.forEach(heap -> history.record(STACK, 0, heap));
+
+        // When
+        for (int step = 59; step >= 0; step--) {
+            unbounded.get(step);
+            history.get(step);
+        }
+        for (int step = 0; step < 60; step += 7) {
+            history.get(step);
+        }
+
+        // Then
+        ASSERT.that(unbounded.estimatedBytes() > maxBytes).isTrue();
+        ASSERT.that(history.size()).is(60);
+        ASSERT.that(history.estimatedBytes() <= maxBytes).isTrue();
+        ASSERT.that(history.get(3).heap.get("a").fields[0].value).is("3");
+    }
+}
@@ -0,0 +1,99 @@
+package uk.ac.imperial.doc.mfldb.ui;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.ac.imperial.doc.mfldb.ui.StackAndHeapController.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.truth0.Truth.ASSERT;
+import static uk.ac.imperial.doc.mfldb.ui.TestHeaps.heap;
+
+/**
+ * Tests for the {@link SnapshotStore} class.
+ */
+public class SnapshotStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static FrameInfo[] stack(int step) {
+        return new FrameInfo[]{
+                new FrameInfo("main", new VariableInfo[]{new VariableInfo("int", "step", Integer.toString(step), false)}),
+                new FrameInfo("recurse", null, 5)
+        };
+    }
+
+    private static HeapObjectInfo node(int step) {
+        return new HeapObjectInfo("1", "Node", new VariableInfo[]{
+                new VariableInfo("int", "value", Integer.toString(step), false),
+                new VariableInfo("Node", "next", "2", true)
+        }, false);
+    }
+
+    private Path file() throws IOException {
+        return folder.newFile("recording").toPath();
+    }
+
+    @Test
+    public void snapshotsAreReadBackAsWritten() throws IOException {
+        // Given
+        try (SnapshotStore store = SnapshotStore.create(file(), 1024)) {
+            HeapObjectInfo array = new HeapObjectInfo("3", "int[]", new VariableInfo[0], 500, 100, 0);
+            store.append(stack(0), 7, heap(node(0), new HeapObjectInfo("2", "Node", new VariableInfo[0], true), array));
+
+            // When
+            SnapshotHistory.Snapshot snapshot = store.read(0);
+
+            // Then
+            ASSERT.that(snapshot.hiddenFrames).is(7);
+            ASSERT.that(snapshot.stack[0].function).is("main");
+            ASSERT.that(snapshot.stack[0].variables).isEqualTo(stack(0)[0].variables);
+            ASSERT.that(snapshot.stack[1].variables).isNull();
+            ASSERT.that(snapshot.stack[1].repeated).is(5);
+            ASSERT.that(snapshot.heap.keySet()).has().exactly("1", "2", "3").inOrder();
+            ASSERT.that(snapshot.heap.get("1").fields).isEqualTo(node(0).fields);
+            ASSERT.that(snapshot.heap.get("2").stub).isTrue();
+            ASSERT.that(snapshot.heap.get("3").length).is(500);
+            ASSERT.that(snapshot.heap.get("3").offset).is(100);
+        }
+    }
+
+    @Test
+    public void anyStepCanBeReadAcrossRegions() throws IOException {
+        // Given
+        try (SnapshotStore store = SnapshotStore.create(file(), 256)) {
+            for (int step = 0; step < 2000; step++) {
+                store.append(stack(step), 0, heap(node(step)));
+            }
+
+            // When
+            SnapshotHistory.Snapshot first = store.read(0);
+            SnapshotHistory.Snapshot middle = store.read(1234);
+
+            // Then
+            ASSERT.that(store.size()).is(2000);
+            ASSERT.that(first.heap.get("1").fields[0].value).is("0");
+            ASSERT.that(middle.heap.get("1").fields[0].value).is("1234");
+        }
+    }
+
+    @Test
+    public void replacingLatestStepKeepsEarlierSteps() throws IOException {
+        // Given
+        try (SnapshotStore store = SnapshotStore.create(file(), 1024)) {
+            store.append(stack(0), 0, heap(node(0)));
+            store.append(stack(1), 0, heap(node(1)));
+
+            // When
+            store.replaceLatest(stack(1), 0, heap(node(2)));
+
+            // Then
+            ASSERT.that(store.size()).is(2);
+            ASSERT.that(store.read(0).heap.get("1").fields[0].value).is("0");
+            ASSERT.that(store.read(1).heap.get("1").fields[0].value).is("2");
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package uk.ac.imperial.doc.mfldb.ui;
+
+import uk.ac.imperial.doc.mfldb.ui.StackAndHeapController.HeapObjectInfo;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds heaps for tests of the stack and heap view, keyed and ordered by id as the view keeps them.
+ */
+final class TestHeaps {
+
+    private TestHeaps() {
+        // No instances
+    }
+
+    static Map<String, HeapObjectInfo> heap(HeapObjectInfo... objects) {
+        Map<String, HeapObjectInfo> heap = new LinkedHashMap<>();
+        for (HeapObjectInfo object : objects) {
+            heap.put(object.id, object);
+        }
+        return heap;
+    }
+}
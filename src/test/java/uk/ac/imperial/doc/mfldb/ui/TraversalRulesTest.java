@@ -0,0 +1,51 @@
+package uk.ac.imperial.doc.mfldb.ui;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.truth0.Truth.ASSERT;
+
+/**
+ * Tests for the {@link TraversalRules} class.
+ */
+public class TraversalRulesTest {
+
+    @Test
+    public void defaultsExcludeJdkInternals() {
+        // Given
+        TraversalRules rules = TraversalRules.DEFAULT;
+
+        // Then
+        ASSERT.that(rules.excludesType("java.lang.Class")).isTrue();
+        ASSERT.that(rules.excludesType("java.util.concurrent.ConcurrentHashMap")).isTrue();
+        ASSERT.that(rules.excludesType("java.util.ArrayList")).isFalse();
+        ASSERT.that(rules.excludesType("com.example.Node")).isFalse();
+    }
+
+    @Test
+    public void projectRulesAreAddedToDefaults() {
+        // When
+        TraversalRules rules = TraversalRules.DEFAULT.withRules(Arrays.asList(
+                "# A comment",
+                "",
+                "package com.example.generated",
+                "type com.example.Registry",
+                "field logger",
+                "field com.example.Node.parent"));
+
+        // Then
+        ASSERT.that(rules.excludesType("java.lang.Class")).isTrue();
+        ASSERT.that(rules.excludesType("com.example.generated.Parser")).isTrue();
+        ASSERT.that(rules.excludesType("com.example.generatedNot")).isFalse();
+        ASSERT.that(rules.excludesType("com.example.Registry")).isTrue();
+        ASSERT.that(rules.excludesField("com.example.Anything", "logger")).isTrue();
+        ASSERT.that(rules.excludesField("com.example.Node", "parent")).isTrue();
+        ASSERT.that(rules.excludesField("com.example.Tree", "parent")).isFalse();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownRuleIsRejected() {
+        TraversalRules.DEFAULT.withRules(Arrays.asList("prefix com.example"));
+    }
+}
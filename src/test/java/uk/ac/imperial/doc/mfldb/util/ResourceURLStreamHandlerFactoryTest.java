@@ -31,16 +31,6 @@ public class ResourceURLStreamHandlerFactoryTest {
      */
     @Mock URLStreamHandler d3jsHandler;
 
-    /**
-     * Mocked handler for jQuery urls
-     */
-    @Mock URLStreamHandler jQueryHandler;
-
-    /**
-     * Mocked handler for jsPlumb urls
-     */
-    @Mock URLStreamHandler jsPlumbHandler;
-
     /**
      * The ResourceURLStreamHandlerFactory under test
      */
@@ -51,7 +41,7 @@ public class ResourceURLStreamHandlerFactoryTest {
      */
     @Before
     public void initialize() {
-        factory = new ResourceURLStreamHandlerFactory(codeMirrorHandler, requireJSHandler, d3jsHandler, jQueryHandler, jsPlumbHandler);
+        factory = new ResourceURLStreamHandlerFactory(codeMirrorHandler, requireJSHandler, d3jsHandler);
     }
 
     /**
@@ -91,27 +81,17 @@ public class ResourceURLStreamHandlerFactoryTest {
     }
 
     /**
-     * Ensure that the correct URLStreamHandler is returned for URLs with the protocol "jquery"
-     */
-    @Test
-    public void shouldReturnjQuery() {
-        // When
-        URLStreamHandler returned = factory.createURLStreamHandler("jquery");
-
-        // Then
-        ASSERT.that(returned).isEqualTo(jQueryHandler);
-    }
-
-    /**
-     * Ensure that the correct URLStreamHandler is returned for URLs with the protocol "jsplumb"
+     * Ensure that the webjars no longer used by the stack and heap view aren't served.
      */
     @Test
-    public void shouldReturnJsPlumb() {
+    public void shouldNotReturnRemovedWebjars() {
         // When
-        URLStreamHandler returned = factory.createURLStreamHandler("jsplumb");
+        URLStreamHandler jQuery = factory.createURLStreamHandler("jquery");
+        URLStreamHandler jsPlumb = factory.createURLStreamHandler("jsplumb");
 
         // Then
-        ASSERT.that(returned).isEqualTo(jsPlumbHandler);
+        ASSERT.that(jQuery).isNull();
+        ASSERT.that(jsPlumb).isNull();
     }
 
     /**